@@ -2,6 +2,9 @@ package com.android.ted.gank;
 
 import android.app.Application;
 import android.content.Context;
+import com.android.ted.gank.network.GankCloudApi;
+import com.android.ted.gank.service.GankJobManager;
+import com.android.ted.gank.utils.StartupTrace;
 import com.orhanobut.logger.Logger;
 
 public class GankApplication extends Application {
@@ -15,8 +18,13 @@ public class GankApplication extends Application {
     @Override
     public void onCreate() {
         super.onCreate();
+        StartupTrace.start();
         context = getApplicationContext();
         initLogger();
+        //在后台准备接口实例和连接，第一页请求时直接使用
+        GankCloudApi.warmUp(context);
+        //继续执行上次进程退出时没有完成的任务
+        GankJobManager.getIns().runPending();
     }
 
     private void initLogger() {
@@ -18,6 +18,7 @@
 package com.android.ted.gank.adapter;
 
 import android.content.Context;
+import android.graphics.drawable.Drawable;
 import android.support.annotation.LayoutRes;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.RecyclerView;
@@ -28,6 +29,7 @@ import android.view.ViewGroup;
 
 import com.android.ted.gank.R;
 import com.android.ted.gank.db.Image;
+import com.android.ted.gank.utils.PlaceholderUtil;
 import com.android.ted.gank.view.RadioImageView;
 import com.bumptech.glide.Glide;
 
@@ -92,9 +94,17 @@ public abstract class BenefitGoodsItemAdapter extends ArrayRecyclerAdapter<Image
                     .load(R.drawable.item_default_img)
                     .into(holder.imageView);
         } else {
-            Glide.with(context)
-                    .load(imgGoods.getUrl())
-                    .into(holder.imageView);
+            Drawable placeholder = PlaceholderUtil.getPlaceholder(context, imgGoods);
+            if (null == placeholder) {
+                Glide.with(context)
+                        .load(imgGoods.getUrl())
+                        .into(holder.imageView);
+            } else {
+                Glide.with(context)
+                        .load(imgGoods.getUrl())
+                        .placeholder(placeholder)
+                        .into(holder.imageView);
+            }
         }
     }
 }
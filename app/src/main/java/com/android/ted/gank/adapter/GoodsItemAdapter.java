@@ -6,6 +6,7 @@ import android.animation.AnimatorSet;
 import android.animation.ObjectAnimator;
 import android.content.Context;
 import android.content.Intent;
+import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.support.v7.widget.RecyclerView;
 import android.text.TextUtils;
@@ -23,11 +24,13 @@ import com.android.ted.gank.data.ImageGoodsCache;
 import com.android.ted.gank.db.Image;
 import com.android.ted.gank.manager.CollectManager;
 import com.android.ted.gank.model.Goods;
+import com.android.ted.gank.utils.PlaceholderUtil;
 import com.android.ted.gank.utils.Utils;
 import com.bumptech.glide.Glide;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 import butterknife.Bind;
 import butterknife.ButterKnife;
@@ -109,7 +112,7 @@ public class GoodsItemAdapter extends RecyclerView.Adapter<RecyclerView.ViewHold
 
     private void bindGoodsItem(int position, CellGoodsViewHolder holder) {
         Goods goods = goodsItemData.get(position);
-        Image image = ImageGoodsCache.getIns().getImgGoodsRandom(position);
+        Image image = ImageGoodsCache.getIns().getImgGoodsRandom();
         boolean hasImg = null != image;
         holder.txtGoodsTitle.setText("#"+goods.getDesc());
         holder.txtImgAuthor.setText(hasImg?"图："+image.getWho():"");
@@ -146,10 +149,19 @@ public class GoodsItemAdapter extends RecyclerView.Adapter<RecyclerView.ViewHold
                     .centerCrop()
                     .into(holder.imgGoodsImageBg);
         }else {
-            Glide.with(context)
-                    .load(imgGoods.getUrl())
-                    .centerCrop()
-                    .into(holder.imgGoodsImageBg);
+            Drawable placeholder = PlaceholderUtil.getPlaceholder(context, imgGoods);
+            if (null == placeholder) {
+                Glide.with(context)
+                        .load(imgGoods.getUrl())
+                        .centerCrop()
+                        .into(holder.imgGoodsImageBg);
+            } else {
+                Glide.with(context)
+                        .load(imgGoods.getUrl())
+                        .centerCrop()
+                        .placeholder(placeholder)
+                        .into(holder.imgGoodsImageBg);
+            }
         }
     }
 
@@ -259,6 +271,15 @@ public class GoodsItemAdapter extends RecyclerView.Adapter<RecyclerView.ViewHold
         notifyDataSetChanged();
     }
 
+    /***
+     * 在末尾追加条目，只刷新新增的部分
+     */
+    public void appendItems(List<Goods> goods) {
+        int start = goodsItemData.size();
+        goodsItemData.addAll(goods);
+        notifyItemRangeInserted(start, goods.size());
+    }
+
 
     public static class CellGoodsViewHolder extends RecyclerView.ViewHolder {
         @Bind(R.id.img_goods_img)
@@ -0,0 +1,140 @@
+package com.android.ted.gank.data;
+
+import com.android.ted.gank.model.Goods;
+import com.android.ted.gank.model.GoodsResult;
+import com.android.ted.gank.network.GankCloudApi;
+import com.orhanobut.logger.Logger;
+
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rx.Observable;
+import rx.functions.Action0;
+import rx.functions.Func0;
+import rx.functions.Func1;
+
+/**
+ * 下拉刷新时的增量同步：从第一页开始往后加载，遇到本地已经保存的 _id 就停止，
+ * 只发送新增的条目，本地已有的分页保持不变
+ */
+public class DeltaSync {
+
+    /**最多同步的页数，超过后说明本地数据和服务器之间有断层，按全新列表处理*/
+    public static final int MAX_SYNC_PAGES = 5;
+
+    /**
+     * 一次同步的结果，onCompleted 之后读取
+     */
+    public static class Report {
+        /**请求的页数*/
+        public int pagesFetched;
+        /**新增的条目数*/
+        public int newCount;
+        /**实际读取的响应字节数*/
+        public long bytesFetched;
+        /**本地已加载、因为提前停止而不用重新下载的页数*/
+        public int pagesSaved;
+        /**按已下载页的平均大小估算的节省字节数*/
+        public long bytesSaved;
+        /**是否遇到了本地已有的条目，false 表示本地数据和新数据之间有断层*/
+        public boolean reachedKnown;
+
+        @Override
+        public String toString() {
+            return "delta sync: " + newCount + " new in " + pagesFetched + " pages, " + bytesFetched
+                    + " bytes; saved " + pagesSaved + " pages, ~" + bytesSaved + " bytes"
+                    + (reachedKnown ? "" : ", gap to local data");
+        }
+    }
+
+    private final String mType;
+    private final int mLimit;
+    private final Set<String> mKnownIds;
+    private final int mLoadedCount;
+
+    /***
+     * @param type 分类，见 {@link GankCloudApi#syncGoods}
+     * @param limit 每页条数
+     * @param knownIds 本地已经保存的 _id，会在后台线程读取，调用方不要再修改
+     * @param loadedCount 已经加载的条数，全量刷新需要重新下载，用于统计节省的流量
+     */
+    public DeltaSync(String type, int limit, Set<String> knownIds, int loadedCount) {
+        this.mType = type;
+        this.mLimit = limit;
+        this.mKnownIds = knownIds;
+        this.mLoadedCount = loadedCount;
+    }
+
+    /***
+     * 开始同步，每段数据只包含新增的条目
+     * @param report 同步结果，onCompleted 之后可以读取
+     */
+    public Observable<GoodsResult> sync(final Report report) {
+        return Observable.defer(new Func0<Observable<GoodsResult>>() {
+            @Override
+            public Observable<GoodsResult> call() {
+                final AtomicLong bytesRead = new AtomicLong();
+                return syncPage(1, report, bytesRead).doOnCompleted(new Action0() {
+                    @Override
+                    public void call() {
+                        report.bytesFetched = bytesRead.get();
+                        int loadedPages = (mLoadedCount + mLimit - 1) / mLimit;
+                        report.pagesSaved = Math.max(0, loadedPages - report.pagesFetched);
+                        if (report.pagesFetched > 0) {
+                            report.bytesSaved = report.pagesSaved * report.bytesFetched / report.pagesFetched;
+                        }
+                        Logger.d(mType + " " + report);
+                    }
+                });
+            }
+        });
+    }
+
+    private Observable<GoodsResult> syncPage(final int page, final Report report, final AtomicLong bytesRead) {
+        final int[] pageCount = new int[1];
+        report.pagesFetched = page;
+        Observable<GoodsResult> chunks = GankCloudApi.getInstance().syncGoods(mType, mLimit, page, bytesRead)
+                .map(new Func1<GoodsResult, GoodsResult>() {
+                    @Override
+                    public GoodsResult call(GoodsResult result) {
+                        pageCount[0] += result.getResults().size();
+                        return retainNew(result, report);
+                    }
+                })
+                //遇到已知条目后取消订阅，这一页剩下的部分不再下载
+                .takeUntil(new Func1<GoodsResult, Boolean>() {
+                    @Override
+                    public Boolean call(GoodsResult result) {
+                        return report.reachedKnown;
+                    }
+                });
+        return chunks.concatWith(Observable.defer(new Func0<Observable<GoodsResult>>() {
+            @Override
+            public Observable<GoodsResult> call() {
+                if (report.reachedKnown || pageCount[0] < mLimit || page >= MAX_SYNC_PAGES) {
+                    return Observable.empty();
+                }
+                return syncPage(page + 1, report, bytesRead);
+            }
+        }));
+    }
+
+    /***
+     * 去掉本地已有的条目，列表按发布时间倒序，第一个已知条目之后的都已经保存过
+     */
+    private GoodsResult retainNew(GoodsResult result, Report report) {
+        ArrayList<Goods> fresh = new ArrayList<>();
+        for (Goods goods : result.getResults()) {
+            if (mKnownIds.contains(goods.get_id())) {
+                report.reachedKnown = true;
+                break;
+            }
+            fresh.add(goods);
+        }
+        report.newCount += fresh.size();
+        GoodsResult retained = new GoodsResult(fresh);
+        retained.setError(result.isError());
+        return retained;
+    }
+}
@@ -0,0 +1,274 @@
+package com.android.ted.gank.data;
+
+import com.android.ted.gank.GankApplication;
+import com.android.ted.gank.db.CommonGoods;
+import com.android.ted.gank.db.GankRealmHelper;
+import com.android.ted.gank.db.Image;
+import com.android.ted.gank.model.DayGoods;
+import com.android.ted.gank.model.Goods;
+import com.android.ted.gank.model.GoodsResult;
+import com.android.ted.gank.network.GankCloudApi;
+import com.orhanobut.logger.Logger;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import io.realm.Realm;
+import io.realm.RealmResults;
+import rx.Observable;
+import rx.functions.Action0;
+import rx.functions.Action1;
+
+/**
+ * Android、iOS 分类干货的数据仓库：先读本地保存的列表，网络数据到达后按 _id 合并并保存
+ */
+public class GoodsRepository {
+    private static GoodsRepository instance;
+
+    public static GoodsRepository getIns() {
+        if (null == instance) {
+            synchronized (GoodsRepository.class) {
+                if (null == instance) {
+                    instance = new GoodsRepository();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /***
+     * 读取本地保存的干货，在主线程调用也很快，冷启动时直接显示
+     * @param category 分类名
+     * @return 按发布时间倒序的列表，没有数据时为空列表
+     */
+    public ArrayList<Goods> loadGoods(String category) {
+        ArrayList<Goods> list = new ArrayList<>();
+        Realm realm = GankRealmHelper.getRealm(GankApplication.getContext());
+        try {
+            RealmResults<CommonGoods> results = CommonGoods.queryGoodsByCategory(realm, category);
+            for (CommonGoods dbItem : results) {
+                list.add(CommonGoods.toGoods(dbItem));
+            }
+        } finally {
+            realm.close();
+        }
+        return list;
+    }
+
+    /***
+     * 从网络加载一页，每段数据到达时先保存到本地再往下传递
+     * @param category 分类名
+     * @param limit 每页条数
+     * @param page 页码
+     */
+    public Observable<GoodsResult> fetchGoods(final String category, int limit, int page) {
+        return GankCloudApi.getInstance().getCommonGoods(category, limit, page)
+                .doOnNext(new Action1<GoodsResult>() {
+                    @Override
+                    public void call(GoodsResult goodsResult) {
+                        if (null != goodsResult && null != goodsResult.getResults()) {
+                            saveGoods(category, goodsResult.getResults());
+                        }
+                    }
+                });
+    }
+
+    /***
+     * 下拉刷新时增量同步，新增的条目同样先保存再往下传递
+     * @param category 分类名
+     * @param knownIds 已经显示的条目 id
+     * @param loadedCount 已经加载的条数，用于统计节省的流量
+     * @param report 同步结果，onCompleted 之后读取
+     */
+    public Observable<GoodsResult> syncGoods(final String category, int limit, Set<String> knownIds,
+                                             int loadedCount, final DeltaSync.Report report) {
+        final Set<String> syncedIds = new HashSet<>();
+        return new DeltaSync(category, limit, knownIds, loadedCount).sync(report)
+                .doOnNext(new Action1<GoodsResult>() {
+                    @Override
+                    public void call(GoodsResult goodsResult) {
+                        saveGoods(category, goodsResult.getResults());
+                        for (Goods goods : goodsResult.getResults()) {
+                            syncedIds.add(goods.get_id());
+                        }
+                    }
+                })
+                .doOnCompleted(new Action0() {
+                    @Override
+                    public void call() {
+                        if (!report.reachedKnown) dropGoodsGap(category, syncedIds);
+                    }
+                });
+    }
+
+    /***
+     * 增量同步没有遇到已有条目时，本地数据和新数据之间有断层，删除这个分类中本次没有同步到的条目，
+     * 之后按全新列表从新数据往后加载。否则下次启动时断层两边会被当作连续的列表，断层中的条目永远不会加载
+     * @param syncedIds 本次同步保存的条目
+     * @return 删除的条数
+     */
+    public int dropGoodsGap(String category, Set<String> syncedIds) {
+        Realm realm = GankRealmHelper.getRealm(GankApplication.getContext());
+        try {
+            List<String> staleIds = new ArrayList<>();
+            for (CommonGoods dbItem : CommonGoods.queryGoodsByCategory(realm, category)) {
+                if (!syncedIds.contains(dbItem.get_id())) staleIds.add(dbItem.get_id());
+            }
+            if (staleIds.isEmpty()) return 0;
+            realm.beginTransaction();
+            for (String id : staleIds) {
+                CommonGoods dbItem = CommonGoods.queryGoodsById(realm, id);
+                if (null != dbItem) dbItem.removeFromRealm();
+            }
+            realm.commitTransaction();
+            Logger.d("drop " + staleIds.size() + " " + category + " goods behind the sync gap");
+            return staleIds.size();
+        } finally {
+            realm.close();
+        }
+    }
+
+    /***
+     * 福利图的断层处理，见 {@link #dropGoodsGap}
+     * @param syncedIds 本次同步保存的图片
+     * @return 删除的图片数
+     */
+    public int dropImageGap(Set<String> syncedIds) {
+        Realm realm = GankRealmHelper.getRealm(GankApplication.getContext());
+        try {
+            List<String> staleIds = new ArrayList<>();
+            for (Image image : realm.where(Image.class).findAll()) {
+                if (!syncedIds.contains(image.get_id())) staleIds.add(image.get_id());
+            }
+            if (staleIds.isEmpty()) return 0;
+            realm.beginTransaction();
+            for (String id : staleIds) {
+                Image image = Image.queryImageById(realm, id);
+                if (null != image) image.removeFromRealm();
+            }
+            realm.commitTransaction();
+            Logger.d("drop " + staleIds.size() + " images behind the sync gap");
+            return staleIds.size();
+        } finally {
+            realm.close();
+        }
+    }
+
+    /***
+     * 保存干货，已有的按 _id 更新，在调用线程上执行
+     */
+    public void saveGoods(String category, List<Goods> goodsList) {
+        if (goodsList.isEmpty()) return;
+        Realm realm = GankRealmHelper.getRealm(GankApplication.getContext());
+        try {
+            realm.beginTransaction();
+            saveGoods(realm, category, goodsList);
+            realm.commitTransaction();
+        } catch (RuntimeException e) {
+            //保存失败不影响显示，下次启动重新从网络加载
+            realm.cancelTransaction();
+            Logger.e(e, "Failed to save goods " + category);
+        } finally {
+            realm.close();
+        }
+    }
+
+    /***
+     * 在一个事务中保存一天的所有分类：福利保存为 {@link Image}，等待尺寸探测，
+     * 其他分类按分类名保存，Android、iOS 和列表使用相同的分类名
+     * @return 保存的条数
+     */
+    public int saveDayGoods(DayGoods dayGoods) {
+        if (null == dayGoods) return 0;
+        int saved = 0;
+        Realm realm = GankRealmHelper.getRealm(GankApplication.getContext());
+        try {
+            realm.beginTransaction();
+            saved += saveGoods(realm, "Android", dayGoods.getAndroidGoods());
+            saved += saveGoods(realm, "IOS", dayGoods.getIosGoods());
+            saved += saveGoods(realm, "瞎推荐", dayGoods.getRecommend());
+            saved += saveGoods(realm, "休息视频", dayGoods.getRestVideo());
+            saved += saveGoods(realm, "拓展资源", dayGoods.getExpandRes());
+            if (null != dayGoods.getBenefit()) {
+                for (Goods goods : dayGoods.getBenefit()) {
+                    Image image = Image.queryImageById(realm, goods.get_id());
+                    if (null == image) image = realm.createObject(Image.class);
+                    Image.updateDbGoods(image, goods);
+                    saved++;
+                }
+            }
+            realm.commitTransaction();
+        } catch (RuntimeException e) {
+            realm.cancelTransaction();
+            throw e;
+        } finally {
+            realm.close();
+        }
+        return saved;
+    }
+
+    private static int saveGoods(Realm realm, String category, List<Goods> goodsList) {
+        if (null == goodsList) return 0;
+        for (Goods goods : goodsList) {
+            CommonGoods dbItem = CommonGoods.queryGoodsById(realm, goods.get_id());
+            if (null == dbItem) dbItem = realm.createObject(CommonGoods.class);
+            CommonGoods.updateDbGoods(dbItem, category, goods);
+        }
+        return goodsList.size();
+    }
+
+    /***
+     * 把新数据按 _id 合并进已有列表：已有的原位替换，新条目按发布时间插入
+     * @param target 已有列表，按发布时间倒序
+     * @param incoming 新到达的数据
+     * @return 第一个有变化的位置，没有变化时为 target 原来的长度
+     */
+    public static int mergeById(List<Goods> target, List<Goods> incoming) {
+        int firstChanged = target.size();
+        for (Goods goods : incoming) {
+            int index = indexOf(target, goods.get_id());
+            if (index >= 0) {
+                if (!isSameContent(target.get(index), goods)) {
+                    target.set(index, goods);
+                    firstChanged = Math.min(firstChanged, index);
+                }
+                continue;
+            }
+            index = insertPosition(target, goods.getPublishedAt());
+            target.add(index, goods);
+            firstChanged = Math.min(firstChanged, index);
+        }
+        return firstChanged;
+    }
+
+    private static int indexOf(List<Goods> list, String id) {
+        if (null == id) return -1;
+        for (int i = 0; i < list.size(); i++) {
+            if (id.equals(list.get(i).get_id())) return i;
+        }
+        return -1;
+    }
+
+    /***
+     * 发布时间是 ISO 8601 格式，可以直接按字符串比较；没有时间的放在末尾
+     */
+    private static int insertPosition(List<Goods> list, String publishedAt) {
+        if (null == publishedAt) return list.size();
+        for (int i = list.size() - 1; i >= 0; i--) {
+            String other = list.get(i).getPublishedAt();
+            if (null != other && other.compareTo(publishedAt) >= 0) return i + 1;
+        }
+        return 0;
+    }
+
+    private static boolean isSameContent(Goods a, Goods b) {
+        return equals(a.getDesc(), b.getDesc()) && equals(a.getUrl(), b.getUrl())
+                && equals(a.getWho(), b.getWho()) && equals(a.getPublishedAt(), b.getPublishedAt());
+    }
+
+    private static boolean equals(String a, String b) {
+        return null == a ? null == b : a.equals(b);
+    }
+}
@@ -0,0 +1,351 @@
+package com.android.ted.gank.data;
+
+import android.content.Context;
+
+import com.android.ted.gank.model.DayGoodsResult;
+import com.android.ted.gank.model.DayHistoryResult;
+import com.android.ted.gank.network.CircuitBreaker;
+import com.android.ted.gank.network.GankCloudApi;
+import com.android.ted.gank.network.GankSchedulers;
+import com.android.ted.gank.utils.NetworkUtils;
+import com.orhanobut.logger.Logger;
+
+import net.grandcentrix.tray.TrayAppPreferences;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import rx.Observable;
+import rx.functions.Action0;
+import rx.functions.Func0;
+import rx.functions.Func1;
+
+/**
+ * 按天回填历史干货：先用 day/history 取得发布过干货的日期，没有发布的日期不请求，
+ * 再并发请求每一天的数据，所有分类在一个事务中保存，一次回填就能填满所有列表。
+ * 已经完成的连续日期区间保存在 Tray 中，中断后再次回填时跳过
+ */
+public class HistoryBackfill {
+
+    /**默认回填的天数*/
+    public static final int DEFAULT_DAYS = 90;
+    /**并发数上限*/
+    public static final int MAX_CONCURRENCY = 4;
+
+    /**已经完成的连续区间中最新和最早的日期，yyyy-MM-dd*/
+    private static final String KEY_BACKFILL_NEWEST = "key_backfill_newest";
+    private static final String KEY_BACKFILL_OLDEST = "key_backfill_oldest";
+
+    /**
+     * 一次回填的结果，onCompleted 之后读取
+     */
+    public static class Report {
+        /**日期范围内的天数*/
+        public int daysPlanned;
+        /**之前已经完成、本次跳过的天数*/
+        public int daysSkipped;
+        /**请求成功的天数*/
+        public int daysFetched;
+        /**请求成功但没有数据的天数*/
+        public int daysEmpty;
+        /**请求失败的天数，下次回填时重试*/
+        public int daysFailed;
+        /**保存的条数*/
+        public int goodsSaved;
+        /**保存的福利图数，需要探测尺寸后才能显示*/
+        public int imagesSaved;
+        /**是否用 day/history 跳过了没有发布的日期*/
+        public boolean usedHistory;
+        public long elapsedMillis;
+
+        @Override
+        public String toString() {
+            long millis = Math.max(1, elapsedMillis);
+            return "backfill: " + daysFetched + "/" + daysPlanned + " days (" + daysEmpty + " empty, "
+                    + daysSkipped + " skipped, " + daysFailed + " failed), " + goodsSaved + " goods in "
+                    + elapsedMillis + "ms, " + (daysFetched * 1000 / millis) + " days/s, "
+                    + (goodsSaved * 1000 / millis) + " goods/s" + (usedHistory ? "" : ", no history");
+        }
+    }
+
+    private final TrayAppPreferences mPreferences;
+    private final int mConcurrency;
+
+    /***
+     * @param concurrency 同时请求的天数，见 {@link #concurrencyFor}
+     */
+    public HistoryBackfill(Context context, int concurrency) {
+        this.mPreferences = new TrayAppPreferences(context);
+        this.mConcurrency = Math.max(1, Math.min(concurrency, MAX_CONCURRENCY));
+    }
+
+    /***
+     * 根据网络类型决定并发数
+     * @param networkType {@link NetworkUtils#getNetworkTypeName} 的返回值
+     */
+    public static int concurrencyFor(String networkType) {
+        if (NetworkUtils.NETWORK_TYPE_WIFI.equals(networkType)) return MAX_CONCURRENCY;
+        if (NetworkUtils.NETWORK_TYPE_2G.equals(networkType)
+                || NetworkUtils.NETWORK_TYPE_WAP.equals(networkType)) {
+            return 1;
+        }
+        return 2;
+    }
+
+    /***
+     * 回填最近 days 天
+     */
+    public Observable<String> backfill(int days, Report report) {
+        Calendar calendar = Calendar.getInstance();
+        Date to = calendar.getTime();
+        calendar.add(Calendar.DAY_OF_MONTH, 1 - days);
+        return backfill(calendar.getTime(), to, report);
+    }
+
+    /***
+     * 回填日期范围内的干货，熔断器打开时停止，其他失败跳过当天
+     * @param from 最早的日期，包含
+     * @param to 最新的日期，包含
+     * @param report 回填结果，onCompleted 之后读取
+     * @return 每保存完一天发送一次日期，yyyy-MM-dd，按完成顺序
+     */
+    public Observable<String> backfill(final Date from, final Date to, final Report report) {
+        return Observable.defer(new Func0<Observable<String>>() {
+            @Override
+            public Observable<String> call() {
+                final long start = System.currentTimeMillis();
+                final String today = format(new Date());
+                final String first = format(from);
+                final String last = format(to);
+                return listDays(first, last, report)
+                        .flatMap(new Func1<List<String>, Observable<String>>() {
+                            @Override
+                            public Observable<String> call(List<String> days) {
+                                Plan plan = new Plan(days, first, last, today);
+                                report.daysPlanned = days.size();
+                                report.daysSkipped = days.size() - plan.ordered.size();
+                                return Observable.from(plan.ordered)
+                                        .flatMap(fetchDay(plan, report), mConcurrency);
+                            }
+                        })
+                        .doOnCompleted(new Action0() {
+                            @Override
+                            public void call() {
+                                report.elapsedMillis = System.currentTimeMillis() - start;
+                                Logger.d(report.toString());
+                            }
+                        });
+            }
+        });
+    }
+
+    /***
+     * 范围内需要回填的日期，按时间倒序。取不到 day/history 时逐天请求，没有数据的日期很快返回
+     */
+    private Observable<List<String>> listDays(final String from, final String to, final Report report) {
+        return GankCloudApi.getInstance().getDayHistory()
+                .takeLast(1)
+                .map(new Func1<DayHistoryResult, List<String>>() {
+                    @Override
+                    public List<String> call(DayHistoryResult result) {
+                        List<String> days = new ArrayList<>();
+                        for (String day : result.getResults()) {
+                            if (day.compareTo(from) >= 0 && day.compareTo(to) <= 0) days.add(day);
+                        }
+                        Collections.sort(days, Collections.<String>reverseOrder());
+                        report.usedHistory = true;
+                        return days;
+                    }
+                })
+                .onErrorReturn(new Func1<Throwable, List<String>>() {
+                    @Override
+                    public List<String> call(Throwable throwable) {
+                        Logger.d("day history unavailable, walk every day: " + throwable);
+                        return calendarDays(from, to);
+                    }
+                });
+    }
+
+    private Func1<String, Observable<String>> fetchDay(final Plan plan, final Report report) {
+        return new Func1<String, Observable<String>>() {
+            @Override
+            public Observable<String> call(final String day) {
+                int[] date = parse(day);
+                return GankCloudApi.getInstance().getGoodsByDay(date[0], date[1], date[2])
+                        //有缓存时等验证完成，只保存最终的数据
+                        .takeLast(1)
+                        .map(new Func1<DayGoodsResult, String>() {
+                            @Override
+                            public String call(DayGoodsResult result) {
+                                int images = null == result.getResults() || null == result.getResults().getBenefit()
+                                        ? 0 : result.getResults().getBenefit().size();
+                                int saved = GoodsRepository.getIns().saveDayGoods(result.getResults());
+                                synchronized (report) {
+                                    report.daysFetched++;
+                                    if (saved == 0) report.daysEmpty++;
+                                    report.goodsSaved += saved;
+                                    report.imagesSaved += images;
+                                }
+                                plan.markDone(day);
+                                return day;
+                            }
+                        })
+                        .onErrorResumeNext(new Func1<Throwable, Observable<String>>() {
+                            @Override
+                            public Observable<String> call(Throwable throwable) {
+                                //熔断器打开后后面的日期也会失败，直接停止
+                                if (throwable instanceof CircuitBreaker.OpenException) {
+                                    return Observable.error(throwable);
+                                }
+                                Logger.d("Failed to backfill " + day + ": " + throwable);
+                                synchronized (report) {
+                                    report.daysFailed++;
+                                }
+                                return Observable.empty();
+                            }
+                        })
+                        .subscribeOn(GankSchedulers.getIns().io(GankSchedulers.LANE_PREFETCH));
+            }
+        };
+    }
+
+    /**
+     * 本次回填的顺序和进度：今天的数据还会更新，每次都请求且不记录进度；
+     * 之后先请求比已完成区间新的日期，从旧到新，再请求比区间旧的日期，从新到旧，
+     * 两边各自只在连续完成时扩大区间，失败的日期下次重试。
+     * 已完成区间和本次的日期范围不相连时，中间的日期不会被请求，区间不能跨过去扩大，重新开始记录
+     */
+    private class Plan {
+        final List<String> ordered = new ArrayList<>();
+        private final Watermark mNewer;
+        private final Watermark mOlder;
+
+        Plan(List<String> days, String from, String to, String today) {
+            String newest = mPreferences.getString(KEY_BACKFILL_NEWEST, null);
+            String oldest = mPreferences.getString(KEY_BACKFILL_OLDEST, newest);
+            if (null != newest && !touches(oldest, newest, from, to)) {
+                Logger.d("backfill range " + oldest + "~" + newest + " not adjacent to " + from + "~" + to
+                        + ", restart");
+                mPreferences.remove(KEY_BACKFILL_NEWEST);
+                mPreferences.remove(KEY_BACKFILL_OLDEST);
+                newest = null;
+                oldest = null;
+            }
+            List<String> newer = new ArrayList<>();
+            List<String> older = new ArrayList<>();
+            for (String day : days) {
+                if (day.compareTo(today) >= 0) {
+                    ordered.add(day);
+                } else if (null == newest || day.compareTo(oldest) < 0) {
+                    older.add(day);
+                } else if (day.compareTo(newest) > 0) {
+                    newer.add(0, day);
+                }
+            }
+            ordered.addAll(newer);
+            ordered.addAll(older);
+            mNewer = new Watermark(newer);
+            mOlder = new Watermark(older);
+        }
+
+        synchronized void markDone(String day) {
+            String advanced = mNewer.markDone(day);
+            if (null != advanced) {
+                mPreferences.put(KEY_BACKFILL_NEWEST, advanced);
+                return;
+            }
+            advanced = mOlder.markDone(day);
+            if (null != advanced) {
+                if (null == mPreferences.getString(KEY_BACKFILL_NEWEST, null)) {
+                    mPreferences.put(KEY_BACKFILL_NEWEST, mOlder.first());
+                }
+                mPreferences.put(KEY_BACKFILL_OLDEST, advanced);
+            }
+        }
+    }
+
+    /**
+     * 按顺序完成的位置，只有前面的日期都完成了才往后移动
+     */
+    static class Watermark {
+        private final List<String> mDays;
+        private final boolean[] mDone;
+        private int mNext = 0;
+
+        Watermark(List<String> days) {
+            this.mDays = days;
+            this.mDone = new boolean[days.size()];
+        }
+
+        String first() {
+            return mDays.get(0);
+        }
+
+        /***
+         * @return 连续完成的最后一个日期，没有移动或者不属于这里时为 null
+         */
+        String markDone(String day) {
+            int index = mDays.indexOf(day);
+            if (index < 0) return null;
+            mDone[index] = true;
+            int before = mNext;
+            while (mNext < mDone.length && mDone[mNext]) mNext++;
+            return mNext > before ? mDays.get(mNext - 1) : null;
+        }
+    }
+
+    /***
+     * 已完成区间 [oldest, newest] 和日期范围 [from, to] 是否重叠或者紧挨着
+     */
+    static boolean touches(String oldest, String newest, String from, String to) {
+        return newest.compareTo(shiftDay(from, -1)) >= 0 && oldest.compareTo(shiftDay(to, 1)) <= 0;
+    }
+
+    private static String shiftDay(String day, int delta) {
+        Calendar calendar = Calendar.getInstance();
+        try {
+            calendar.setTime(newFormat().parse(day));
+        } catch (ParseException e) {
+            return day;
+        }
+        calendar.add(Calendar.DAY_OF_MONTH, delta);
+        return format(calendar.getTime());
+    }
+
+    private static List<String> calendarDays(String from, String to) {
+        List<String> days = new ArrayList<>();
+        Calendar calendar = Calendar.getInstance();
+        try {
+            calendar.setTime(newFormat().parse(to));
+        } catch (ParseException e) {
+            return days;
+        }
+        String day = to;
+        while (day.compareTo(from) >= 0) {
+            days.add(day);
+            calendar.add(Calendar.DAY_OF_MONTH, -1);
+            day = format(calendar.getTime());
+        }
+        return days;
+    }
+
+    private static int[] parse(String day) {
+        String[] parts = day.split("-");
+        return new int[]{Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2])};
+    }
+
+    private static String format(Date date) {
+        return newFormat().format(date);
+    }
+
+    /**SimpleDateFormat 不是线程安全的，每次新建*/
+    private static SimpleDateFormat newFormat() {
+        return new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+    }
+}
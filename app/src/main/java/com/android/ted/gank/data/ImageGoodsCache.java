@@ -2,23 +2,43 @@ package com.android.ted.gank.data;
 
 import com.android.ted.gank.db.Image;
 import com.android.ted.gank.model.Goods;
+import com.android.ted.gank.model.GoodsResult;
+import com.android.ted.gank.network.GankCloudApi;
 
 import java.util.ArrayList;
-import java.util.Random;
+import java.util.List;
 
 import io.realm.RealmResults;
+import rx.Observable;
+import rx.functions.Func1;
 
 /**
  * Created by Ted on 2015/8/24.
- * 图片缓存
+ * 图片缓存，列表背景图从随机池中取，池中的图片不足时从 random/data/福利 补充
  */
 public class ImageGoodsCache {
     private static ImageGoodsCache instance;
 
-    private ArrayList<Image> mGankImageList;
+    private final RandomPool<Image> mImagePool;
 
     public ImageGoodsCache(){
-        mGankImageList = new ArrayList<>();
+        mImagePool = new RandomPool<>("福利", new RandomPool.Source<Image>() {
+            @Override
+            public Observable<List<Image>> fetch(int count) {
+                return GankCloudApi.getInstance().getRandomGoods("福利", count)
+                        .map(new Func1<GoodsResult, List<Image>>() {
+                            @Override
+                            public List<Image> call(GoodsResult goodsResult) {
+                                return toImages(goodsResult.getResults());
+                            }
+                        });
+            }
+
+            @Override
+            public String idOf(Image image) {
+                return image.get_id();
+            }
+        });
     }
 
     public static ImageGoodsCache getIns() {
@@ -32,38 +52,40 @@ public class ImageGoodsCache {
         return instance;
     }
 
-    private void addGoodsToImage(Goods goods){
-        Image image = new Image();
-        Image.updateDbGoods(image,goods);
-        mGankImageList.add(image);
-    }
-
-    public void addAllImageGoods(ArrayList<Goods> list){
-        if(null != list && list.size() > 0){
-            mGankImageList.clear();
-            for (Goods goods:list){
-                addGoodsToImage(goods);
-            }
+    private static List<Image> toImages(List<Goods> list){
+        List<Image> images = new ArrayList<>();
+        if (null == list) return images;
+        for (Goods goods:list){
+            Image image = new Image();
+            Image.updateDbGoods(image,goods);
+            images.add(image);
         }
+        return images;
     }
 
+    /***
+     * 用数据库中的图片初始化，只在主线程取用
+     */
     public void addAllImageGoods(RealmResults<Image> images){
-        mGankImageList.clear();
-        mGankImageList.addAll(images);
+        mImagePool.seed(images);
     }
 
-    public ArrayList<Image> getGankImageList() {
-        return mGankImageList;
+    /***
+     * 图片不足时在后台补充，启动时调用，之后取图片时会自动补充
+     */
+    public void prefill(){
+        mImagePool.prefill();
     }
 
-    public Image getImgGoodsRandom(int randomIndex){
-        int size = getGankImageList().size();
-        if(size == 0)return null;
-        Random random = new Random();
-        int randomInt = random.nextInt(size);
-        if(randomInt + randomIndex >= size){
-            return getGankImageList().get(randomInt);
-        }
-        return getGankImageList().get(randomInt + randomIndex);
+    /***
+     * 随机取一张图片，最近取过的不会重复，不会等待网络
+     * @return 没有图片时为 null
+     */
+    public Image getImgGoodsRandom(){
+        return mImagePool.next();
+    }
+
+    public RandomPool<Image> getImagePool() {
+        return mImagePool;
     }
 }
@@ -0,0 +1,183 @@
+package com.android.ted.gank.data;
+
+import com.android.ted.gank.network.GankSchedulers;
+import com.orhanobut.logger.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import rx.Observable;
+import rx.Subscriber;
+
+/**
+ * 本地随机内容池：随机取出一项是 O(1) 的，最近取出的 window 项不会重复，
+ * 没取过的条目不足时在后台补充，取的时候从不等待网络
+ */
+public class RandomPool<T> {
+
+    /**最近取出的条目数，这些条目暂时不会再被取到*/
+    public static final int DEFAULT_WINDOW = 10;
+    /**每次补充的条数*/
+    public static final int DEFAULT_REFILL_SIZE = 20;
+    /**最多保存的条数，超过后丢弃取过的条目*/
+    public static final int DEFAULT_CAPACITY = 100;
+    /**补充失败后等待的时间*/
+    private static final long REFILL_BACKOFF = 30 * 1000;
+
+    /**
+     * 补充数据的来源
+     */
+    public interface Source<T> {
+        /***
+         * 获取 count 条随机数据，在后台线程订阅
+         */
+        Observable<List<T>> fetch(int count);
+
+        /***
+         * 用于去重的 id，只在加入池的时候调用
+         */
+        String idOf(T item);
+    }
+
+    private static class Entry<T> {
+        final T item;
+        final String id;
+
+        Entry(T item, String id) {
+            this.item = item;
+            this.id = id;
+        }
+    }
+
+    private final String mName;
+    private final Source<T> mSource;
+    private final int mWindow;
+    private final int mRefillSize;
+    private final int mCapacity;
+
+    /**还没取过的条目*/
+    private final ArrayList<Entry<T>> mFresh = new ArrayList<>();
+    /**取过、已经离开窗口的条目，没有新条目时从这里取*/
+    private final ArrayList<Entry<T>> mSeen = new ArrayList<>();
+    /**最近取出的条目，按取出顺序*/
+    private final ArrayDeque<Entry<T>> mRecent = new ArrayDeque<>();
+    private final Set<String> mIds = new HashSet<>();
+    private final Random mRandom = new Random();
+
+    private boolean bRefilling = false;
+    private long mNextRefillTime = 0;
+
+    public RandomPool(String name, Source<T> source) {
+        this(name, source, DEFAULT_WINDOW, DEFAULT_REFILL_SIZE, DEFAULT_CAPACITY);
+    }
+
+    public RandomPool(String name, Source<T> source, int window, int refillSize, int capacity) {
+        this.mName = name;
+        this.mSource = source;
+        this.mWindow = window;
+        this.mRefillSize = refillSize;
+        this.mCapacity = Math.max(capacity, window + refillSize);
+    }
+
+    /***
+     * 随机取出一项，没有数据时返回 null。新条目不足一半补充量时在后台补充
+     */
+    public synchronized T next() {
+        Entry<T> entry = takeRandom(mFresh.isEmpty() ? mSeen : mFresh);
+        if (null == entry) entry = mRecent.pollFirst();
+        if (null != entry) {
+            mRecent.addLast(entry);
+            if (mRecent.size() > mWindow) mSeen.add(mRecent.pollFirst());
+        }
+        prefill();
+        return null == entry ? null : entry.item;
+    }
+
+    /***
+     * 用本地已有的数据替换池中的内容，例如启动时从数据库读取的列表
+     */
+    public synchronized void seed(List<T> items) {
+        mFresh.clear();
+        mSeen.clear();
+        mRecent.clear();
+        mIds.clear();
+        addAll(items);
+    }
+
+    /***
+     * 新条目不足时在后台补充，正在补充或者补充失败后的等待时间内不重复请求
+     */
+    public synchronized void prefill() {
+        if (bRefilling || mFresh.size() >= mRefillSize / 2
+                || System.currentTimeMillis() < mNextRefillTime) {
+            return;
+        }
+        bRefilling = true;
+        mSource.fetch(mRefillSize)
+                .subscribeOn(GankSchedulers.getIns().io(GankSchedulers.LANE_PREFETCH))
+                .subscribe(new Subscriber<List<T>>() {
+                    @Override
+                    public void onNext(List<T> items) {
+                        synchronized (RandomPool.this) {
+                            addAll(items);
+                        }
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        synchronized (RandomPool.this) {
+                            bRefilling = false;
+                        }
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        Logger.d("Failed to refill random " + mName + ": " + e);
+                        synchronized (RandomPool.this) {
+                            bRefilling = false;
+                            mNextRefillTime = System.currentTimeMillis() + REFILL_BACKOFF;
+                        }
+                    }
+                });
+    }
+
+    public synchronized int size() {
+        return mFresh.size() + mSeen.size() + mRecent.size();
+    }
+
+    private void addAll(List<T> items) {
+        if (null == items) return;
+        for (T item : items) {
+            String id = mSource.idOf(item);
+            if (null == id || !mIds.add(id)) continue;
+            mFresh.add(new Entry<>(item, id));
+        }
+        //超过容量时随机丢弃取过的条目
+        while (size() > mCapacity && !mSeen.isEmpty()) {
+            mIds.remove(takeRandom(mSeen).id);
+        }
+    }
+
+    /***
+     * 和最后一项交换后移除，不需要移动数组
+     */
+    private Entry<T> takeRandom(ArrayList<Entry<T>> list) {
+        int size = list.size();
+        if (size == 0) return null;
+        int index = mRandom.nextInt(size);
+        Entry<T> entry = list.get(index);
+        list.set(index, list.get(size - 1));
+        list.remove(size - 1);
+        return entry;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "random " + mName + ": " + mFresh.size() + " fresh, " + mSeen.size() + " seen, "
+                + mRecent.size() + " recent" + (bRefilling ? ", refilling" : "");
+    }
+}
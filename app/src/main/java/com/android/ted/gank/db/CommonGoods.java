@@ -0,0 +1,185 @@
+/*
+ *    Copyright 2015 TedXiong <xiong-wei@hotmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.android.ted.gank.db;
+
+import com.android.ted.gank.model.Goods;
+
+import io.realm.Realm;
+import io.realm.RealmObject;
+import io.realm.RealmResults;
+import io.realm.Sort;
+import io.realm.annotations.Index;
+import io.realm.annotations.PrimaryKey;
+
+/**
+ * DB Item for Android、iOS 等分类的 {@link com.android.ted.gank.model.Goods}，
+ * 福利图片保存在 {@link Image} 中
+ */
+public class CommonGoods extends RealmObject {
+
+    @PrimaryKey
+    private String _id;
+
+    /**请求时使用的分类名，和接口返回的 type 大小写可能不同*/
+    @Index
+    private String category;
+
+    private String who;
+    private String publishedAt;
+    private String desc;
+    private String type;
+    private String url;
+    private boolean used;
+
+    private String createdAt;
+    private String _ns;
+    private String source;
+
+    public static CommonGoods queryGoodsById(Realm realm, String objectId) {
+        return realm.where(CommonGoods.class).equalTo("_id", objectId).findFirst();
+    }
+
+    /***
+     * 查询一个分类下的所有干货，按发布时间倒序，和接口返回的顺序一致
+     */
+    public static RealmResults<CommonGoods> queryGoodsByCategory(Realm realm, String category) {
+        return realm.where(CommonGoods.class).equalTo("category", category)
+                .findAllSorted("publishedAt", Sort.DESCENDING);
+    }
+
+    public static CommonGoods updateDbGoods(CommonGoods dbItem, String category, Goods goods) {
+        dbItem.set_id(goods.get_id());
+        dbItem.setCategory(category);
+        dbItem.setWho(goods.getWho());
+        dbItem.setPublishedAt(goods.getPublishedAt());
+        dbItem.setDesc(goods.getDesc());
+        dbItem.setType(goods.getType());
+        dbItem.setUrl(goods.getUrl());
+        dbItem.setUsed(goods.isUsed());
+        dbItem.setCreatedAt(goods.getCreatedAt());
+        dbItem.set_ns(goods.get_ns());
+        dbItem.setSource(goods.getSource());
+        return dbItem;
+    }
+
+    /***
+     * 复制成普通对象，Realm 对象不能跨线程使用，关闭 Realm 后也不能再访问
+     */
+    public static Goods toGoods(CommonGoods dbItem) {
+        Goods goods = new Goods();
+        goods.set_id(dbItem.get_id());
+        goods.setWho(dbItem.getWho());
+        goods.setPublishedAt(dbItem.getPublishedAt());
+        goods.setDesc(dbItem.getDesc());
+        goods.setType(dbItem.getType());
+        goods.setUrl(dbItem.getUrl());
+        goods.setUsed(dbItem.isUsed());
+        goods.setCreatedAt(dbItem.getCreatedAt());
+        goods.set_ns(dbItem.get_ns());
+        goods.setSource(dbItem.getSource());
+        return goods;
+    }
+
+    public String get_id() {
+        return _id;
+    }
+
+    public void set_id(String _id) {
+        this._id = _id;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public void setCategory(String category) {
+        this.category = category;
+    }
+
+    public String getWho() {
+        return who;
+    }
+
+    public void setWho(String who) {
+        this.who = who;
+    }
+
+    public String getPublishedAt() {
+        return publishedAt;
+    }
+
+    public void setPublishedAt(String publishedAt) {
+        this.publishedAt = publishedAt;
+    }
+
+    public String getDesc() {
+        return desc;
+    }
+
+    public void setDesc(String desc) {
+        this.desc = desc;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public boolean isUsed() {
+        return used;
+    }
+
+    public void setUsed(boolean used) {
+        this.used = used;
+    }
+
+    public String getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(String createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public String get_ns() {
+        return _ns;
+    }
+
+    public void set_ns(String _ns) {
+        this._ns = _ns;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public void setSource(String source) {
+        this.source = source;
+    }
+}
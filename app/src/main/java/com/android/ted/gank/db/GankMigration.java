@@ -18,8 +18,9 @@
 package com.android.ted.gank.db;
 
 import io.realm.DynamicRealm;
-import io.realm.Realm;
+import io.realm.FieldAttribute;
 import io.realm.RealmMigration;
+import io.realm.RealmSchema;
 
 /**
  * Created by Ted on 2015/8/27.
@@ -27,6 +28,63 @@ import io.realm.RealmMigration;
 public class GankMigration implements RealmMigration{
 
     @Override public void migrate(DynamicRealm realm, long oldVersion, long newVersion) {
+        RealmSchema schema = realm.getSchema();
 
+        /**版本 1：Image 增加探测失败记录*/
+        if (oldVersion == 0) {
+            schema.get("Image")
+                    .addField("probeAttempts", int.class)
+                    .addField("lastProbeError", String.class)
+                    .addField("nextProbeTime", long.class);
+            oldVersion++;
+        }
+
+        /**版本 2：Image 增加占位图信息*/
+        if (oldVersion == 1) {
+            schema.get("Image")
+                    .addField("dominantColor", int.class)
+                    .addField("blurHash", String.class);
+            oldVersion++;
+        }
+
+        /**版本 3：Image 增加感知哈希，用于图片去重*/
+        if (oldVersion == 2) {
+            schema.get("Image")
+                    .addField("dHash", long.class, FieldAttribute.INDEXED)
+                    .addField("duplicateOf", String.class);
+            oldVersion++;
+        }
+
+        /**版本 4：增加后台任务队列*/
+        if (oldVersion == 3) {
+            schema.create("PendingJob")
+                    .addField("tag", String.class, FieldAttribute.PRIMARY_KEY)
+                    .addField("service", String.class)
+                    .addField("action", String.class)
+                    .addField("requiredNetwork", int.class)
+                    .addField("requiresCharging", boolean.class)
+                    .addField("requiresIdle", boolean.class)
+                    .addField("requiresBatteryNotLow", boolean.class)
+                    .addField("createTime", long.class)
+                    .addField("updateTime", long.class);
+            oldVersion++;
+        }
+
+        /**版本 5：Android、iOS 等分类的干货也保存到本地，启动时先显示*/
+        if (oldVersion == 4) {
+            schema.create("CommonGoods")
+                    .addField("_id", String.class, FieldAttribute.PRIMARY_KEY)
+                    .addField("category", String.class, FieldAttribute.INDEXED)
+                    .addField("who", String.class)
+                    .addField("publishedAt", String.class)
+                    .addField("desc", String.class)
+                    .addField("type", String.class)
+                    .addField("url", String.class)
+                    .addField("used", boolean.class)
+                    .addField("createdAt", String.class)
+                    .addField("_ns", String.class)
+                    .addField("source", String.class);
+            oldVersion++;
+        }
     }
 }
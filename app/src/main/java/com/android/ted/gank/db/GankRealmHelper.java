@@ -26,13 +26,25 @@ import io.realm.RealmConfiguration;
  * Created by Ted on 2015/8/27.
  */
 public class GankRealmHelper {
+    /**数据库版本，修改数据表后需要加一，并在 {@link GankMigration} 中补充迁移*/
+    public static final long SCHEMA_VERSION = 5;
+
+    private static RealmConfiguration sConfiguration;
+
+    /***
+     * 沿用默认的数据库文件，升级后已缓存的图片信息不会丢失
+     */
+    public static synchronized RealmConfiguration getConfiguration(Context context) {
+        if (null == sConfiguration) {
+            sConfiguration = new RealmConfiguration.Builder(context.getApplicationContext())
+                    .schemaVersion(SCHEMA_VERSION)
+                    .migration(new GankMigration())
+                    .build();
+        }
+        return sConfiguration;
+    }
+
     public static Realm getRealm(Context context){
-        RealmConfiguration configuration = new RealmConfiguration.Builder(context)
-                .name("gank.io")
-                .schemaVersion(0)
-                .build();
-        Realm.migrateRealm(configuration, new GankMigration());
-        Realm realm = Realm.getInstance(configuration);
-        return realm;
+        return Realm.getInstance(getConfiguration(context));
     }
 }
@@ -24,6 +24,7 @@ import io.realm.Realm;
 import io.realm.RealmObject;
 import io.realm.RealmResults;
 import io.realm.Sort;
+import io.realm.annotations.Index;
 import io.realm.annotations.PrimaryKey;
 
 /**
@@ -50,6 +51,32 @@ public class Image extends RealmObject {
     private String createdAt;
     private String _ns;
 
+    /**探测尺寸失败的次数，达到 {@link #MAX_PROBE_ATTEMPTS} 后不再探测*/
+    private int probeAttempts = 0;
+    private String lastProbeError;
+    /**下次允许探测的时间*/
+    private long nextProbeTime = 0;
+
+    /**主色调，0 表示还没有提取*/
+    private int dominantColor = 0;
+    /**模糊缩略图，见 {@link com.android.ted.gank.utils.BlurHash}*/
+    private String blurHash;
+
+    /**感知哈希，0 表示还没有计算，见 {@link com.android.ted.gank.utils.PerceptualHash}*/
+    @Index
+    private long dHash = 0;
+    /**与另一张图片内容重复时为那张图片的 id，列表中不再显示*/
+    private String duplicateOf;
+
+    /**列表和大图浏览共用的顺序：按发布时间倒序，相同时按 id，两边的位置才能对应*/
+    private static final String[] VISIBLE_SORT_FIELDS = {"publishedAt", "_id"};
+    private static final Sort[] VISIBLE_SORT_ORDERS = {Sort.DESCENDING, Sort.DESCENDING};
+
+    public static final int MAX_PROBE_ATTEMPTS = 6;
+    /**首次失败后的等待时间，之后每次失败翻倍*/
+    public static final long PROBE_BACKOFF_BASE = 2 * 60 * 1000;
+    public static final long PROBE_BACKOFF_MAX = 24 * 60 * 60 * 1000;
+
     public static Image queryImageById(Realm realm,String objectId){
         RealmResults<Image> results =  realm.where(Image.class).equalTo("_id",objectId).findAll();
         if(results.size() > 0){
@@ -78,7 +105,74 @@ public class Image extends RealmObject {
         return null;
     }
 
+    /***
+     * 查询列表中显示的图片：已经有尺寸且不是重复的图片
+     */
+    public static RealmResults<Image> queryVisibleImages(Realm realm) {
+        return realm.where(Image.class).notEqualTo("width", 0)
+                .isNull("duplicateOf")
+                .findAllSorted(VISIBLE_SORT_FIELDS, VISIBLE_SORT_ORDERS);
+    }
+
+    /***
+     * 和 {@link #queryVisibleImages} 相同的顺序，列表中逐批插入图片时用来确定位置
+     * @return a 排在 b 前面时为负数
+     */
+    public static int compareVisibleOrder(Image a, Image b) {
+        int result = compareDescending(a.getPublishedAt(), b.getPublishedAt());
+        return result != 0 ? result : compareDescending(a.get_id(), b.get_id());
+    }
+
+    private static int compareDescending(String a, String b) {
+        if (null == a) return null == b ? 0 : 1;
+        if (null == b) return -1;
+        return b.compareTo(a);
+    }
+
+    /***
+     * 查询所有计算过感知哈希且不是重复的图片，用来查找重复图片
+     */
+    public static RealmResults<Image> queryHashedImages(Realm realm) {
+        return realm.where(Image.class).notEqualTo("dHash", 0L)
+                .isNull("duplicateOf")
+                .findAll();
+    }
+
+    /***
+     * 查询当前可以探测尺寸的图片：尺寸为0、未放弃且已过退避时间
+     */
+    public static RealmResults<Image> queryProbeEligible(Realm realm, long now) {
+        return realm.where(Image.class).equalTo("width", 0)
+                .lessThan("probeAttempts", MAX_PROBE_ATTEMPTS)
+                .lessThanOrEqualTo("nextProbeTime", now)
+                .findAllSorted("position", Sort.DESCENDING);
+    }
+
+    public static long countProbeEligible(Realm realm, long now) {
+        return realm.where(Image.class).equalTo("width", 0)
+                .lessThan("probeAttempts", MAX_PROBE_ATTEMPTS)
+                .lessThanOrEqualTo("nextProbeTime", now)
+                .count();
+    }
+
+    /***
+     * 记录一次探测失败，按指数退避计算下次探测时间，需要在事务中调用
+     */
+    public static void recordProbeFailure(Image dbItem, String error, long now) {
+        int attempts = dbItem.getProbeAttempts() + 1;
+        long backoff = PROBE_BACKOFF_BASE << Math.min(attempts - 1, 16);
+        dbItem.setProbeAttempts(attempts);
+        dbItem.setLastProbeError(error);
+        dbItem.setNextProbeTime(now + Math.min(backoff, PROBE_BACKOFF_MAX));
+    }
+
     public static Image updateDbGoods(Image dbItem,Goods goods) {
+        //地址变了，之前的失败记录不再有效
+        if (dbItem.getWidth() == 0 && null != dbItem.getUrl() && !dbItem.getUrl().equals(goods.getUrl())) {
+            dbItem.setProbeAttempts(0);
+            dbItem.setLastProbeError(null);
+            dbItem.setNextProbeTime(0);
+        }
         dbItem.setWho(goods.getWho());
         dbItem.setPublishedAt(goods.getPublishedAt());
         dbItem.setDesc(goods.getDesc());
@@ -186,4 +280,60 @@ public class Image extends RealmObject {
     public void setPosition(int position) {
         this.position = position;
     }
+
+    public int getProbeAttempts() {
+        return probeAttempts;
+    }
+
+    public void setProbeAttempts(int probeAttempts) {
+        this.probeAttempts = probeAttempts;
+    }
+
+    public String getLastProbeError() {
+        return lastProbeError;
+    }
+
+    public void setLastProbeError(String lastProbeError) {
+        this.lastProbeError = lastProbeError;
+    }
+
+    public long getNextProbeTime() {
+        return nextProbeTime;
+    }
+
+    public void setNextProbeTime(long nextProbeTime) {
+        this.nextProbeTime = nextProbeTime;
+    }
+
+    public int getDominantColor() {
+        return dominantColor;
+    }
+
+    public void setDominantColor(int dominantColor) {
+        this.dominantColor = dominantColor;
+    }
+
+    public String getBlurHash() {
+        return blurHash;
+    }
+
+    public void setBlurHash(String blurHash) {
+        this.blurHash = blurHash;
+    }
+
+    public long getDHash() {
+        return dHash;
+    }
+
+    public void setDHash(long dHash) {
+        this.dHash = dHash;
+    }
+
+    public String getDuplicateOf() {
+        return duplicateOf;
+    }
+
+    public void setDuplicateOf(String duplicateOf) {
+        this.duplicateOf = duplicateOf;
+    }
 }
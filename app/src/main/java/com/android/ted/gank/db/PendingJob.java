@@ -0,0 +1,126 @@
+/*
+ *    Copyright 2015 TedXiong <xiong-wei@hotmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.android.ted.gank.db;
+
+import io.realm.Realm;
+import io.realm.RealmObject;
+import io.realm.RealmResults;
+import io.realm.annotations.PrimaryKey;
+
+/**
+ * 等待执行的后台任务，进程被杀后重启时继续执行
+ * 见 {@link com.android.ted.gank.service.GankJobManager}
+ */
+public class PendingJob extends RealmObject {
+
+    /**同一个 tag 的任务只保留一个*/
+    @PrimaryKey
+    private String tag;
+    /**执行任务的 Service 类名*/
+    private String service;
+    private String action;
+
+    private int requiredNetwork;
+    private boolean requiresCharging;
+    private boolean requiresIdle;
+    private boolean requiresBatteryNotLow;
+
+    private long createTime;
+    /**最后一次加入队列的时间，执行期间再次加入时任务完成后需要再执行一次*/
+    private long updateTime;
+
+    public static PendingJob queryJobByTag(Realm realm, String tag) {
+        return realm.where(PendingJob.class).equalTo("tag", tag).findFirst();
+    }
+
+    public static RealmResults<PendingJob> queryAllJobs(Realm realm) {
+        return realm.where(PendingJob.class).findAllSorted("createTime");
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public void setTag(String tag) {
+        this.tag = tag;
+    }
+
+    public String getService() {
+        return service;
+    }
+
+    public void setService(String service) {
+        this.service = service;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public void setAction(String action) {
+        this.action = action;
+    }
+
+    public int getRequiredNetwork() {
+        return requiredNetwork;
+    }
+
+    public void setRequiredNetwork(int requiredNetwork) {
+        this.requiredNetwork = requiredNetwork;
+    }
+
+    public boolean isRequiresCharging() {
+        return requiresCharging;
+    }
+
+    public void setRequiresCharging(boolean requiresCharging) {
+        this.requiresCharging = requiresCharging;
+    }
+
+    public boolean isRequiresIdle() {
+        return requiresIdle;
+    }
+
+    public void setRequiresIdle(boolean requiresIdle) {
+        this.requiresIdle = requiresIdle;
+    }
+
+    public boolean isRequiresBatteryNotLow() {
+        return requiresBatteryNotLow;
+    }
+
+    public void setRequiresBatteryNotLow(boolean requiresBatteryNotLow) {
+        this.requiresBatteryNotLow = requiresBatteryNotLow;
+    }
+
+    public long getCreateTime() {
+        return createTime;
+    }
+
+    public void setCreateTime(long createTime) {
+        this.createTime = createTime;
+    }
+
+    public long getUpdateTime() {
+        return updateTime;
+    }
+
+    public void setUpdateTime(long updateTime) {
+        this.updateTime = updateTime;
+    }
+}
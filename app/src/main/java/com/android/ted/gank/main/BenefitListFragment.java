@@ -34,32 +34,39 @@ import android.widget.Toast;
 
 import com.android.ted.gank.R;
 import com.android.ted.gank.adapter.BenefitGoodsItemAdapter;
+import com.android.ted.gank.data.DeltaSync;
+import com.android.ted.gank.data.GoodsRepository;
+import com.android.ted.gank.db.GankRealmHelper;
 import com.android.ted.gank.db.Image;
 import com.android.ted.gank.model.Goods;
 import com.android.ted.gank.model.GoodsResult;
+import com.android.ted.gank.network.CircuitBreaker;
 import com.android.ted.gank.network.GankCloudApi;
+import com.android.ted.gank.network.GankSchedulers;
+import com.android.ted.gank.network.PageSizeController;
+import com.android.ted.gank.service.GankJobManager;
 import com.android.ted.gank.service.ImageImproveService;
 import com.malinskiy.materialicons.IconDrawable;
 import com.malinskiy.materialicons.Iconify;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import butterknife.Bind;
 import butterknife.ButterKnife;
 import io.realm.Realm;
-import io.realm.RealmChangeListener;
 import io.realm.RealmResults;
 //import retrofit.RetrofitError;
 //import retrofit2.Retrofit;
 import okhttp3.OkHttpClient;
 import retrofit2.adapter.rxjava.HttpException;
+import rx.Observable;
 import rx.Observer;
 import rx.android.schedulers.AndroidSchedulers;
-import rx.schedulers.Schedulers;
 
-public class BenefitListFragment extends BaseLoadingFragment implements SwipeRefreshLayout.OnRefreshListener,
-        RealmChangeListener {
+public class BenefitListFragment extends BaseLoadingFragment implements SwipeRefreshLayout.OnRefreshListener {
 
     @Bind(R.id.benefit_recycler_view)
     RecyclerView mRecyclerView;
@@ -74,9 +81,15 @@ public class BenefitListFragment extends BaseLoadingFragment implements SwipeRef
 
     //是否正在更新图片信息
     private boolean bImproveDoing = false;
+    //本次更新中已经通过进度广播插入的图片数
+    private int mStreamedCount = 0;
     private boolean isALlLoad = false;
-    private int hasLoadPage = 0;
+    /**从列表头开始已经连续加载的位置，每页条数会根据网络变化*/
+    private final PageCursor mPageCursor = new PageCursor();
     private boolean isLoadMore = false;
+    private PagePrefetcher<GoodsResult> mPagePrefetcher;
+    /**正在加载的页*/
+    private PageCursor.Request mLoadingRequest;
 
 
     private Observer<GoodsResult> getBenefitGoodsObserver = new Observer<GoodsResult>() {
@@ -87,12 +100,10 @@ public class BenefitListFragment extends BaseLoadingFragment implements SwipeRef
                 return;
             }
             showContent();
-            if(goodsResult.getResults().size() == GankCloudApi.LOAD_LIMIT){
-                hasLoadPage++;
-            }else {
-                isALlLoad = true;
-            }
-            if (analysisNewImage(goodsResult))
+            //有缓存时同一页会先后收到缓存和新数据，按这一页的位置记录而不是累加
+            isALlLoad = mPageCursor.onLoaded(mLoadingRequest, goodsResult.getResults().size());
+            if (analysisNewImage(goodsResult)
+                    && Image.countProbeEligible(mRealm, System.currentTimeMillis()) > 0)
                 doImproveJob();
             else refreshBenefitGoods();
         }
@@ -115,6 +126,10 @@ public class BenefitListFragment extends BaseLoadingFragment implements SwipeRef
                 } else {
                     showError(errorDrawable,"莫名异常","外星人进攻地球了？","反击",mErrorRetryListener);
                 }
+            } else if (error instanceof CircuitBreaker.OpenException) {
+                Drawable errorDrawable = new IconDrawable(getContext(), Iconify.IconValue.zmdi_network_off)
+                        .colorRes(android.R.color.white);
+                showError(errorDrawable,"服务器暂时不可用","请稍后再试","重试",mErrorRetryListener);
             }
         }
     };
@@ -131,13 +146,6 @@ public class BenefitListFragment extends BaseLoadingFragment implements SwipeRef
         reloadData();
     }
 
-    @Override
-    public void onChange() {
-        if(!bImproveDoing)return;
-        if(!this.isVisible())return;
-        refreshBenefitGoods();
-    }
-
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -148,8 +156,13 @@ public class BenefitListFragment extends BaseLoadingFragment implements SwipeRef
                 startViewerActivity(v,position);
             }
         };
-        mRealm = Realm.getInstance(getActivity());
-        mRealm.addChangeListener(this);
+        mRealm = GankRealmHelper.getRealm(getActivity());
+        mPagePrefetcher = new PagePrefetcher<>(new PagePrefetcher.PageLoader<GoodsResult>() {
+            @Override
+            public Observable<GoodsResult> loadPage(PageCursor.Request request) {
+                return GankCloudApi.getInstance().getBenefitsGoods(request.limit, request.page);
+            }
+        });
     }
 
     @Override
@@ -188,17 +201,38 @@ public class BenefitListFragment extends BaseLoadingFragment implements SwipeRef
     @Override
     public void onDestroy() {
         super.onDestroy();
-        mRealm.removeChangeListener(this);
+        mPagePrefetcher.cancel();
         mRealm.close();
     }
 
     private void refreshBenefitGoods(){
         mAllBenefitImage.clear();
-        RealmResults<Image> results = mRealm.where(Image.class).notEqualTo("width",0).findAll();
+        RealmResults<Image> results = Image.queryVisibleImages(mRealm);
         mAllBenefitImage.addAll(results);
         mBenefitItemAdapter.replaceWith(mAllBenefitImage);
     }
 
+    /***
+     * 只插入本批次更新了尺寸的图片，不重新加载整个列表。
+     * 探测按完成顺序返回，每张图片按 {@link Image#queryVisibleImages} 的顺序插入到对应位置
+     * @param updatedIds 图片 id
+     */
+    private void insertBenefitGoods(List<String> updatedIds) {
+        //广播可能先于 Realm 的自动刷新到达
+        mRealm.refresh();
+        for (String id : updatedIds) {
+            Image image = Image.queryImageById(mRealm, id);
+            if (null == image || image.getWidth() == 0 || null != image.getDuplicateOf()) continue;
+            if (mAllBenefitImage.contains(image)) continue;
+            int index = mAllBenefitImage.size();
+            while (index > 0 && Image.compareVisibleOrder(mAllBenefitImage.get(index - 1), image) > 0) {
+                index--;
+            }
+            mAllBenefitImage.add(index, image);
+            mBenefitItemAdapter.add(index, image);
+        }
+    }
+
     private void setupBaseView() {
         mSwipeRefreshLayout.setColorSchemeColors(R.color.colorPrimary, R.color.colorPrimaryDark);
         mSwipeRefreshLayout.setOnRefreshListener(this);
@@ -213,6 +247,12 @@ public class BenefitListFragment extends BaseLoadingFragment implements SwipeRef
                     BenefitListFragment.this.onScrollStateChanged();
                 }
             }
+
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                super.onScrolled(recyclerView, dx, dy);
+                if (dy > 0 && !isLoadMore) prefetchIfNeeded();
+            }
         });
     }
 
@@ -227,6 +267,17 @@ public class BenefitListFragment extends BaseLoadingFragment implements SwipeRef
         }
     }
 
+    private void prefetchIfNeeded() {
+        int[] positions = new int[mStaggeredGridLayoutManager.getSpanCount()];
+        mStaggeredGridLayoutManager.findLastVisibleItemPositions(positions);
+        int lastVisible = -1;
+        for (int position : positions) {
+            lastVisible = Math.max(lastVisible, position);
+        }
+        mPagePrefetcher.onScrolled(lastVisible, mStaggeredGridLayoutManager.getItemCount(),
+                mPageCursor, isALlLoad);
+    }
+
     private void loadMore(){
         if(isALlLoad){
             Toast.makeText(getActivity(), "全部加载完毕", Toast.LENGTH_SHORT).show();
@@ -234,22 +285,75 @@ public class BenefitListFragment extends BaseLoadingFragment implements SwipeRef
         }
         if(isLoadMore)return;
         isLoadMore = true;
-        loadData(hasLoadPage + 1);
+        loadData(mPageCursor.next());
     }
 
     private void reloadData(){
         mSwipeRefreshLayout.setRefreshing(true);
-        mAllBenefitImage.clear();
         isALlLoad = false;
-        hasLoadPage = 0;
-        loadData(1);
+        mPagePrefetcher.cancel();
+        Set<String> knownIds = new HashSet<>();
+        for (Image image : mRealm.where(Image.class).findAll()) {
+            knownIds.add(image.get_id());
+        }
+        if (knownIds.isEmpty()) {
+            mAllBenefitImage.clear();
+            mPageCursor.reset(0);
+            loadData(mPageCursor.next());
+        } else {
+            syncData(knownIds);
+        }
+    }
+
+    /***
+     * 本地已有图片时只同步新增的部分，遇到已保存的图片就停止翻页
+     */
+    private void syncData(final Set<String> knownIds) {
+        final int limit = PageSizeController.getIns().getPageSize();
+        final DeltaSync.Report report = new DeltaSync.Report();
+        final Set<String> syncedIds = new HashSet<>();
+        new DeltaSync("福利", limit, knownIds, mPageCursor.getOffset()).sync(report)
+                .subscribeOn(GankSchedulers.getIns().forPage(getUserVisibleHint()))
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(new Observer<GoodsResult>() {
+                    @Override
+                    public void onNext(GoodsResult goodsResult) {
+                        for (Goods goods : goodsResult.getResults()) {
+                            syncedIds.add(goods.get_id());
+                        }
+                        if (!goodsResult.getResults().isEmpty()) analysisNewImage(goodsResult);
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        mSwipeRefreshLayout.setRefreshing(false);
+                        //本地数据和新数据之间有断层时，删除断层之后的旧图片，从新数据往后加载
+                        if (!report.reachedKnown && GoodsRepository.getIns().dropImageGap(syncedIds) > 0) {
+                            //列表中还持有删除的图片，访问已删除的 Realm 对象会抛异常
+                            mRealm.refresh();
+                            refreshBenefitGoods();
+                        }
+                        int loaded = report.reachedKnown ? knownIds.size() + report.newCount : report.newCount;
+                        mPageCursor.reset(loaded);
+                        if (report.newCount > 0
+                                && Image.countProbeEligible(mRealm, System.currentTimeMillis()) > 0)
+                            doImproveJob();
+                        else refreshBenefitGoods();
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        mSwipeRefreshLayout.setRefreshing(false);
+                        getBenefitGoodsObserver.onError(e);
+                    }
+                });
     }
 
-    private void loadData(int startPage){
-        GankCloudApi.getInstance()
-                .getBenefitsGoods(GankCloudApi.LOAD_LIMIT, startPage)
+    private void loadData(PageCursor.Request request){
+        mLoadingRequest = request;
+        mPagePrefetcher.take(request)
                 .cache()
-                .subscribeOn(Schedulers.newThread())
+                .subscribeOn(GankSchedulers.getIns().forPage(getUserVisibleHint()))
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(getBenefitGoodsObserver);
     }
@@ -278,9 +382,12 @@ public class BenefitListFragment extends BaseLoadingFragment implements SwipeRef
 
     private void doImproveJob() {
         bImproveDoing = true;
-        Intent intent = new Intent(getActivity(), ImageImproveService.class);
-        intent.setAction(ImageImproveService.ACTION_IMPROVE_IMAGE);
-        getActivity().startService(intent);
+        mStreamedCount = 0;
+        if (!GankJobManager.getIns().enqueue(ImageImproveService.newImproveJob())) {
+            //条件不满足，先显示已经探测过的图片
+            bImproveDoing = false;
+            refreshBenefitGoods();
+        }
     }
 
     private void showNoDataView(){
@@ -293,6 +400,8 @@ public class BenefitListFragment extends BaseLoadingFragment implements SwipeRef
     private void startViewerActivity(View itemView, int position) {
         Intent intent = new Intent(getActivity(), ViewerActivity.class);
         intent.putExtra("index", position);
+        //大图页按 id 定位，列表中还没插入的图片不会让位置错开
+        intent.putExtra("id", mAllBenefitImage.get(position).get_id());
 //        ActivityOptionsCompat options = ActivityOptionsCompat
 //                .makeSceneTransitionAnimation(getActivity(), itemView, mBenefitItemAdapter.get(position).getUrl());
         getActivity().startActivity(intent);
@@ -301,10 +410,20 @@ public class BenefitListFragment extends BaseLoadingFragment implements SwipeRef
     private class UpdateResultReceiver extends BroadcastReceiver {
         @Override
         public void onReceive(Context context, Intent intent) {
-            bImproveDoing = false;
             int count = intent.getIntExtra(ImageImproveService.EXTRA_CHANGE, 0);
-            if(count > 0)
+            if (intent.getBooleanExtra(ImageImproveService.EXTRA_PROGRESS, false)) {
+                List<String> updatedIds = intent.getStringArrayListExtra(ImageImproveService.EXTRA_UPDATED_IDS);
+                if (null != updatedIds) {
+                    insertBenefitGoods(updatedIds);
+                    mStreamedCount += count;
+                }
+                return;
+            }
+            bImproveDoing = false;
+            //错过了部分进度广播时才整体刷新
+            if(count > mStreamedCount)
                 refreshBenefitGoods();
+            mStreamedCount = 0;
         }
     }
 
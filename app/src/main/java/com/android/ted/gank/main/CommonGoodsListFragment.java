@@ -29,21 +29,28 @@ import android.widget.Toast;
 
 import com.android.ted.gank.R;
 import com.android.ted.gank.adapter.GoodsItemAdapter;
+import com.android.ted.gank.data.DeltaSync;
+import com.android.ted.gank.data.GoodsRepository;
 import com.android.ted.gank.model.Goods;
 import com.android.ted.gank.model.GoodsResult;
-import com.android.ted.gank.network.GankCloudApi;
+import com.android.ted.gank.network.CircuitBreaker;
+import com.android.ted.gank.network.GankSchedulers;
+import com.android.ted.gank.network.PageSizeController;
+import com.android.ted.gank.utils.StartupTrace;
 import com.malinskiy.materialicons.IconDrawable;
 import com.malinskiy.materialicons.Iconify;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import butterknife.Bind;
 import butterknife.ButterKnife;
 import retrofit2.adapter.rxjava.HttpException;
+import rx.Observable;
 import rx.Observer;
 import rx.android.schedulers.AndroidSchedulers;
-import rx.schedulers.Schedulers;
 
 //import retrofit.RetrofitError;
 
@@ -57,9 +64,14 @@ public class CommonGoodsListFragment extends BaseLoadingFragment implements Swip
     private GoodsItemAdapter mCommonItemAdapter;
     private int lastVisibleItem;
     private boolean isALlLoad = false;
-    private int hasLoadPage = 0;
+    /**从列表头开始已经连续加载的位置，每页条数会根据网络变化*/
+    private final PageCursor mPageCursor = new PageCursor();
     private boolean isLoadMore = false;
     private String mType = "Android";
+    private PagePrefetcher<GoodsResult> mPagePrefetcher;
+    /**正在加载的页和这一页已经收到的条数，数据是分段到达的*/
+    private PageCursor.Request mLoadingRequest;
+    private int mLoadingPageCount = 0;
 
     public static CommonGoodsListFragment newFragment(String type) {
         Bundle bundle = new Bundle();
@@ -80,6 +92,7 @@ public class CommonGoodsListFragment extends BaseLoadingFragment implements Swip
         @Override
         public void onCompleted() {
             mSwipeRefreshLayout.setRefreshing(false);
+            onPageLoaded();
         }
 
         @Override
@@ -101,6 +114,8 @@ public class CommonGoodsListFragment extends BaseLoadingFragment implements Swip
                 } else {
                     showError(errorDrawable,"数据异常","","重试",mErrorRetryListener);
                 }
+            } else if (error instanceof CircuitBreaker.OpenException) {
+                showError(errorDrawable,"服务器暂时不可用","请稍后再试","重试",mErrorRetryListener);
             } else {
                 showError(errorDrawable,"无法访问网络","请检查网络连接","重试",mErrorRetryListener);
             }
@@ -119,6 +134,10 @@ public class CommonGoodsListFragment extends BaseLoadingFragment implements Swip
         public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
             super.onScrolled(recyclerView, dx, dy);
             lastVisibleItem = ((LinearLayoutManager) recyclerView.getLayoutManager()).findLastVisibleItemPosition();
+            if (dy > 0 && !isLoadMore) {
+                mPagePrefetcher.onScrolled(lastVisibleItem, mCommonItemAdapter.getItemCount(),
+                        mPageCursor, isALlLoad);
+            }
         }
 
         @Override
@@ -143,6 +162,18 @@ public class CommonGoodsListFragment extends BaseLoadingFragment implements Swip
         mType = getArguments().getString("type", "common");
         mAllCommonGoods = new ArrayList<>();
         mCommonItemAdapter = new GoodsItemAdapter(getActivity());
+        mPagePrefetcher = new PagePrefetcher<>(new PagePrefetcher.PageLoader<GoodsResult>() {
+            @Override
+            public Observable<GoodsResult> loadPage(PageCursor.Request request) {
+                return GoodsRepository.getIns().fetchGoods(mType, request.limit, request.page);
+            }
+        });
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mPagePrefetcher.cancel();
     }
 
     @Override
@@ -160,10 +191,25 @@ public class CommonGoodsListFragment extends BaseLoadingFragment implements Swip
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
         super.onActivityCreated(savedInstanceState);
-        showLoading();
+        showCachedGoods();
         reloadData();
     }
 
+    /***
+     * 先显示本地保存的数据，已经保存的页不再重复加载
+     */
+    private void showCachedGoods() {
+        ArrayList<Goods> cached = GoodsRepository.getIns().loadGoods(mType);
+        if (cached.isEmpty()) {
+            showLoading();
+            return;
+        }
+        mAllCommonGoods.addAll(cached);
+        mPageCursor.reset(cached.size());
+        showContent();
+        mCommonItemAdapter.updateItems(mAllCommonGoods, true);
+    }
+
     private void setupBaseView() {
         mRecyclerView.setLayoutManager(new LinearLayoutManager(mRecyclerView.getContext()));
         mRecyclerView.setAdapter(mCommonItemAdapter);
@@ -181,40 +227,113 @@ public class CommonGoodsListFragment extends BaseLoadingFragment implements Swip
             return;
         }
         isLoadMore = true;
-        loadData(hasLoadPage + 1);
+        loadData(mPageCursor.next());
     }
 
     private void reloadData() {
         mSwipeRefreshLayout.setRefreshing(true);
-        mAllCommonGoods.clear();
         isALlLoad = false;
-        hasLoadPage = 0;
-        loadData(1);
+        mPagePrefetcher.cancel();
+        if (mAllCommonGoods.isEmpty()) {
+            mPageCursor.reset(0);
+            loadData(mPageCursor.next());
+        } else {
+            syncData();
+        }
     }
 
-    private void loadData(int startPage) {
-        GankCloudApi.getInstance()
-                .getCommonGoods(mType, GankCloudApi.LOAD_LIMIT, startPage)
-                .cache()
-                .subscribeOn(Schedulers.newThread())
+    /***
+     * 已经有数据时只同步新增的条目，遇到已有的条目就停止翻页
+     */
+    private void syncData() {
+        Set<String> knownIds = new HashSet<>();
+        for (Goods goods : mAllCommonGoods) {
+            knownIds.add(goods.get_id());
+        }
+        final int limit = PageSizeController.getIns().getPageSize();
+        final DeltaSync.Report report = new DeltaSync.Report();
+        GoodsRepository.getIns().syncGoods(mType, limit, knownIds, mPageCursor.getOffset(), report)
+                .subscribeOn(GankSchedulers.getIns().forPage(getUserVisibleHint()))
                 .observeOn(AndroidSchedulers.mainThread())
-                .subscribe(getCommonGoodsObserver);
+                .subscribe(new Observer<GoodsResult>() {
+                    @Override
+                    public void onNext(GoodsResult goodsResult) {
+                        mLoadingPageCount = 0;
+                        disposeResults(goodsResult);
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        mSwipeRefreshLayout.setRefreshing(false);
+                        onSynced(report, limit);
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        getCommonGoodsObserver.onError(e);
+                    }
+                });
     }
 
-    private void disposeResults(final GoodsResult goodsResult) {
-        if (mAllCommonGoods.isEmpty() && goodsResult.getResults().isEmpty()) {
+    /***
+     * 没有遇到已有条目时，新数据和本地数据之间有断层，只保留新数据，之后从新数据往后加载
+     */
+    private void onSynced(DeltaSync.Report report, int limit) {
+        if (!report.reachedKnown) {
+            mAllCommonGoods.subList(report.newCount, mAllCommonGoods.size()).clear();
+            mCommonItemAdapter.updateItems(mAllCommonGoods, false);
+            isALlLoad = report.newCount < report.pagesFetched * limit;
+        }
+        if (mAllCommonGoods.isEmpty()) {
             showNoDataView();
             return;
         }
+        mPageCursor.reset(mAllCommonGoods.size());
+    }
+
+    private void loadData(PageCursor.Request request) {
+        mLoadingRequest = request;
+        mLoadingPageCount = 0;
+        mPagePrefetcher.take(request)
+                .cache()
+                .subscribeOn(GankSchedulers.getIns().forPage(getUserVisibleHint()))
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(getCommonGoodsObserver);
+    }
+
+    /***
+     * 收到一段数据就按 _id 合并到列表，不等整页下载完；
+     * 本地已有的条目原位更新，新条目按发布时间插入
+     */
+    private void disposeResults(final GoodsResult goodsResult) {
+        //内容有变化，这一页重新计数
+        if (goodsResult.isRevalidated()) mLoadingPageCount = 0;
+        ArrayList<Goods> goods = goodsResult.getResults();
+        if (goods.isEmpty()) return;
         showContent();
-        if (goodsResult.getResults().size() == GankCloudApi.LOAD_LIMIT) {
-            hasLoadPage++;
+        StartupTrace.markOnce("first page shown", mType);
+        mLoadingPageCount += goods.size();
+        int oldSize = mAllCommonGoods.size();
+        int firstChanged = GoodsRepository.mergeById(mAllCommonGoods, goods);
+        if (oldSize == 0) {
+            mCommonItemAdapter.updateItems(mAllCommonGoods, true);
+        } else if (firstChanged == oldSize) {
+            mCommonItemAdapter.appendItems(mAllCommonGoods.subList(oldSize, mAllCommonGoods.size()));
+        } else {
+            mCommonItemAdapter.updateItems(mAllCommonGoods, false);
+        }
+    }
+
+    /***
+     * 一页的数据全部到达后再判断是否还有下一页
+     */
+    private void onPageLoaded() {
+        if (mAllCommonGoods.isEmpty()) {
+            showNoDataView();
         } else {
-            isALlLoad = true;
+            isALlLoad = mPageCursor.onLoaded(mLoadingRequest, mLoadingPageCount);
         }
         isLoadMore = false;
-        mAllCommonGoods.addAll(goodsResult.getResults());
-        mCommonItemAdapter.updateItems(mAllCommonGoods, hasLoadPage == 1);
     }
 
     private void showNoDataView() {
@@ -16,7 +16,10 @@
 
 package com.android.ted.gank.main;
 
+import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.design.widget.FloatingActionButton;
@@ -31,23 +34,23 @@ import android.support.v7.widget.Toolbar;
 import android.view.MenuItem;
 import android.widget.Toast;
 
+import com.android.ted.gank.BuildConfig;
 import com.android.ted.gank.R;
 import com.android.ted.gank.adapter.MainFragmentPagerAdapter;
 import com.android.ted.gank.config.Constants;
+import com.android.ted.gank.data.HistoryBackfill;
 import com.android.ted.gank.data.ImageGoodsCache;
+import com.android.ted.gank.db.GankRealmHelper;
 import com.android.ted.gank.db.Image;
-import com.android.ted.gank.model.GoodsResult;
-import com.android.ted.gank.network.GankCloudApi;
-import com.orhanobut.logger.Logger;
+import com.android.ted.gank.service.GankJobManager;
+import com.android.ted.gank.service.GankSyncService;
+import com.android.ted.gank.service.ImageImproveService;
 import com.umeng.analytics.MobclickAgent;
 
 import butterknife.Bind;
 import butterknife.ButterKnife;
 import io.realm.Realm;
 import io.realm.RealmResults;
-import rx.Observer;
-import rx.android.schedulers.AndroidSchedulers;
-import rx.schedulers.Schedulers;
 
 
 public class MainActivity extends AppCompatActivity {
@@ -69,36 +72,14 @@ public class MainActivity extends AppCompatActivity {
     private Bundle mReenterState;
     private MainFragmentPagerAdapter mPagerAdapter;
     private BenefitListFragment mBenefitListFragment;
-
-    /***
-     * 获取福利图的回调接口，拿到数据用来做背景
-     */
-    private Observer<GoodsResult> getImageGoodsObserver = new Observer<GoodsResult>() {
-        @Override
-        public void onNext(final GoodsResult goodsResult) {
-            if (null != goodsResult && null != goodsResult.getResults()) {
-                ImageGoodsCache.getIns().addAllImageGoods(goodsResult.getResults());
-            }
-        }
-
-        @Override
-        public void onCompleted() {
-            Logger.d("获取背景图服务完成");
-        }
-
-        @Override
-        public void onError(final Throwable error) {
-            Logger.e(error,"获取背景图服务失败");
-        }
-    };
-
+    private SyncResultReceiver mSyncResultReceiver = new SyncResultReceiver();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        mRealm = Realm.getInstance(this);
+        mRealm = GankRealmHelper.getRealm(this);
 
         ButterKnife.bind(this);
 
@@ -123,6 +104,8 @@ public class MainActivity extends AppCompatActivity {
         //setExitSharedElementCallback(mSharedElementCallback);
 
         loadAllImageGoods();
+        //离开应用后在 Wi-Fi 下同步新干货，下次打开直接显示
+        GankJobManager.getIns().enqueue(GankSyncService.newSyncJob());
     }
 
     @Override
@@ -139,12 +122,15 @@ public class MainActivity extends AppCompatActivity {
     protected void onResume() {
         super.onResume();
         MobclickAgent.onResume(this);
+        registerReceiver(mSyncResultReceiver, new IntentFilter(GankSyncService.ACTION_SYNC_RESULT),
+                ImageImproveService.PERMISSION_ACCESS_UPDATE_RESULT, null);
     }
 
     @Override
     protected void onPause() {
         super.onPause();
         MobclickAgent.onPause(this);
+        unregisterReceiver(mSyncResultReceiver);
     }
 
     @Override
@@ -164,6 +150,7 @@ public class MainActivity extends AppCompatActivity {
 
     private void setupDrawerContent(NavigationView navigationView) {
         navigationView.getMenu().findItem(R.id.nav_home).setChecked(true);
+        navigationView.getMenu().findItem(R.id.nav_network_stats).setVisible(BuildConfig.LOG_DEBUG);
         navigationView.setNavigationItemSelectedListener(
                 new NavigationView.OnNavigationItemSelectedListener() {
                     @Override
@@ -179,30 +166,64 @@ public class MainActivity extends AppCompatActivity {
     private void disposeMenuAction(MenuItem item){
         switch (item.getItemId()){
             case R.id.nav_collect:
-            case R.id.nav_time:
                 Toast.makeText(this,"功能开发中",Toast.LENGTH_SHORT).show();
                 break;
+            case R.id.nav_time:
+                backfillHistory();
+                break;
             case R.id.nav_code:
                 callWebView(Constants.GITHUB_URL);
                 break;
             case R.id.nav_author:
                 callWebView(Constants.AUTHOR_URL);
                 break;
+            case R.id.nav_network_stats:
+                startActivity(new Intent(this, NetworkStatsActivity.class));
+                break;
         }
     }
 
+    /***
+     * 按天回填最近的历史干货，所有分类一次保存，之后打开各个列表都直接显示本地数据。
+     * 由 {@link GankJobManager} 调度，没有网络时等待，进程被杀后继续执行
+     */
+    private void backfillHistory() {
+        if (GankJobManager.getIns().getRunningJobs().contains(GankSyncService.JOB_TAG_BACKFILL_HISTORY)) {
+            Toast.makeText(this, "正在同步历史干货", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (GankJobManager.getIns().enqueue(GankSyncService.newBackfillJob())) {
+            Toast.makeText(this, "开始同步最近" + HistoryBackfill.DEFAULT_DAYS + "天的干货", Toast.LENGTH_SHORT).show();
+        } else {
+            Toast.makeText(this, "网络恢复后开始同步历史干货", Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    private class SyncResultReceiver extends BroadcastReceiver {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (!GankSyncService.ACTION_BACKFILL_HISTORY.equals(intent.getStringExtra(GankSyncService.EXTRA_ACTION))) {
+                return;
+            }
+            if (intent.getBooleanExtra(GankSyncService.EXTRA_SUCCESS, false)) {
+                Toast.makeText(MainActivity.this, "同步完成，共" + intent.getIntExtra(GankSyncService.EXTRA_DAYS, 0)
+                        + "天" + intent.getIntExtra(GankSyncService.EXTRA_GOODS_SAVED, 0) + "条干货",
+                        Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(MainActivity.this, "同步失败，请稍后重试", Toast.LENGTH_SHORT).show();
+            }
+        }
+    }
+
+    /***
+     * 列表背景图：先用本地保存的福利图，不够时随机池从 random/data/福利 补充
+     */
     private void loadAllImageGoods() {
         RealmResults<Image> allImage = mRealm.where(Image.class).findAll();
-        if (allImage.size() == 0) {
-            GankCloudApi.getInstance()
-                    .getBenefitsGoods(GankCloudApi.LOAD_LIMIT, 1)
-                    .cache()
-                    .subscribeOn(Schedulers.newThread())
-                    .observeOn(AndroidSchedulers.mainThread())
-                    .subscribe(getImageGoodsObserver);
-        } else {
+        if (allImage.size() > 0) {
             ImageGoodsCache.getIns().addAllImageGoods(allImage);
         }
+        ImageGoodsCache.getIns().prefill();
     }
 
 
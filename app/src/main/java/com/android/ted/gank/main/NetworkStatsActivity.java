@@ -0,0 +1,115 @@
+/*
+ *    Copyright 2015 TedXiong <xiong-wei@hotmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.android.ted.gank.main;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.Toolbar;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.widget.TextView;
+
+import com.android.ted.gank.R;
+import com.android.ted.gank.network.ApiMetrics;
+import com.android.ted.gank.network.GankCloudApi;
+import com.android.ted.gank.network.GankHttpClient;
+import com.android.ted.gank.network.GankSchedulers;
+import com.android.ted.gank.network.PageSizeController;
+
+import butterknife.Bind;
+import butterknife.ButterKnife;
+
+/**
+ * 调试用的网络统计页面：各接口的耗时直方图、流量和缓存命中，以及连接池、线程池和熔断器的状态，
+ * 可以导出为 JSON 分享出去
+ */
+public class NetworkStatsActivity extends AppCompatActivity {
+
+    @Bind(R.id.toolbar)
+    Toolbar mToolbar;
+    @Bind(R.id.txt_stats)
+    TextView mTxtStats;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_network_stats);
+        ButterKnife.bind(this);
+
+        setSupportActionBar(mToolbar);
+        setTitle("网络统计");
+        mToolbar.setNavigationIcon(R.drawable.ic_arrow_back_white_24dp);
+        mToolbar.setNavigationOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                finish();
+            }
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        showStats();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_network_stats, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.action_refresh:
+                showStats();
+                return true;
+            case R.id.action_export:
+                exportJson();
+                return true;
+            case R.id.action_reset:
+                ApiMetrics.getIns().reset();
+                showStats();
+                return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    private void showStats() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("[接口]\n").append(ApiMetrics.getIns()).append("\n\n");
+        builder.append("[请求合并]\n").append(GankCloudApi.getInstance().getRequestStats()).append("\n\n");
+        builder.append("[熔断器]\n").append(GankCloudApi.getInstance().getCircuitStats()).append("\n\n");
+        builder.append("[连接池]\n").append(GankHttpClient.getIns().getStats()).append("\n\n");
+        builder.append("[线程池]\n").append(GankSchedulers.getIns().getStats()).append("\n\n");
+        builder.append("[分页]\n").append(PageSizeController.getIns());
+        mTxtStats.setText(builder.toString());
+    }
+
+    private void exportJson() {
+        Intent intent = new Intent(Intent.ACTION_SEND);
+        intent.setType("application/json");
+        intent.putExtra(Intent.EXTRA_SUBJECT, "gank network stats");
+        intent.putExtra(Intent.EXTRA_TEXT, ApiMetrics.getIns().toJson());
+        startActivity(Intent.createChooser(intent, "导出网络统计"));
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ *    Copyright 2015 TedXiong <xiong-wei@hotmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.android.ted.gank.main;
+
+import com.android.ted.gank.network.PageSizeController;
+
+/**
+ * 按偏移量记录列表加载进度，每页条数可以在中途变化。
+ * 接口只支持按页码请求，偏移量不能被每页条数整除时请求包含它的那一页，
+ * 前面重复的条目由订阅方按 _id 合并
+ */
+class PageCursor {
+
+    /**
+     * 一次分页请求
+     */
+    static class Request {
+        /**请求时已经加载的条数*/
+        final int offset;
+        final int limit;
+        /**从 1 开始*/
+        final int page;
+
+        Request(int offset, int limit, int page) {
+            this.offset = offset;
+            this.limit = limit;
+            this.page = page;
+        }
+
+        /**这一页第一条的位置*/
+        int start() {
+            return (page - 1) * limit;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Request)) return false;
+            Request other = (Request) o;
+            return offset == other.offset && limit == other.limit;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * offset + limit;
+        }
+
+        @Override
+        public String toString() {
+            return "offset " + offset + " (page " + page + " x " + limit + ")";
+        }
+    }
+
+    /**从列表头开始连续加载的条数*/
+    private int mOffset = 0;
+    /**当前偏移量对应的下一次请求，偏移量变化前不重新计算*/
+    private Request mNext;
+
+    /***
+     * 从某个位置开始，例如显示了本地保存的数据之后
+     */
+    void reset(int offset) {
+        mOffset = Math.max(0, offset);
+        mNext = null;
+    }
+
+    int getOffset() {
+        return mOffset;
+    }
+
+    /***
+     * 下一次请求，每页条数由 {@link PageSizeController} 决定。
+     * 每页只在第一次调用时读取一次网络类型，滑动时每帧调用也不会重复查询，
+     * 预加载和滑到底部时拿到的是同一个请求
+     */
+    Request next() {
+        if (null == mNext) {
+            mNext = requestAt(mOffset, PageSizeController.getIns().getPageSize());
+        }
+        return mNext;
+    }
+
+    /***
+     * 优先使用不超过 preferredLimit 且能整除偏移量的条数，这样不会重复下载；
+     * 都不能整除时使用 preferredLimit，请求包含偏移量的那一页
+     */
+    static Request requestAt(int offset, int preferredLimit) {
+        int[] sizes = PageSizeController.SIZES;
+        for (int i = sizes.length - 1; i >= 0; i--) {
+            int size = sizes[i];
+            if (size <= preferredLimit && offset % size == 0) {
+                return new Request(offset, size, offset / size + 1);
+            }
+        }
+        return new Request(offset, preferredLimit, offset / preferredLimit + 1);
+    }
+
+    /***
+     * 一页全部到达后调用，同一页收到多次（先缓存后新数据）时结果不变
+     * @param request 请求
+     * @param received 这一页收到的条数
+     * @return 是否已经全部加载
+     */
+    boolean onLoaded(Request request, int received) {
+        int offset = Math.max(mOffset, request.start() + received);
+        if (offset != mOffset) {
+            mOffset = offset;
+            mNext = null;
+        }
+        return received < request.limit;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ *    Copyright 2015 TedXiong <xiong-wei@hotmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.android.ted.gank.main;
+
+import android.os.SystemClock;
+
+import com.android.ted.gank.network.GankSchedulers;
+import com.orhanobut.logger.Logger;
+
+import rx.Observable;
+import rx.Observer;
+import rx.Subscription;
+import rx.android.schedulers.AndroidSchedulers;
+import rx.observables.ConnectableObservable;
+
+/**
+ * 列表分页预加载：滑动到已加载条目的一定比例时提前请求下一页，
+ * 滑到底部时直接使用已经返回或者正在进行的请求。页面由 {@link PageCursor.Request} 描述，
+ * 偏移量和每页条数都相同时才使用预加载的结果。只在主线程使用
+ */
+class PagePrefetcher<T> {
+
+    /**默认滑过已加载条目的 60% 时预加载*/
+    static final float DEFAULT_THRESHOLD = 0.6f;
+    /**预加载失败后，同一页在这段时间内不再预加载，毫秒*/
+    static final long FAILURE_BACKOFF = 30 * 1000;
+
+    interface PageLoader<T> {
+        Observable<T> loadPage(PageCursor.Request request);
+    }
+
+    private final PageLoader<T> mLoader;
+    private final float mThreshold;
+
+    private PageCursor.Request mPrefetchRequest;
+    private Observable<T> mPrefetched;
+    private Subscription mSubscription;
+    /**预加载请求的连接，取消订阅后上游的请求中断*/
+    private Subscription mConnection;
+    /**最近一次预加载失败的请求，滑到底部加载或者超过 {@link #FAILURE_BACKOFF} 之前不再预加载*/
+    private PageCursor.Request mFailedRequest;
+    private long mFailedAt;
+
+    PagePrefetcher(PageLoader<T> loader) {
+        this(loader, DEFAULT_THRESHOLD);
+    }
+
+    PagePrefetcher(PageLoader<T> loader, float threshold) {
+        this.mLoader = loader;
+        this.mThreshold = threshold;
+    }
+
+    /***
+     * 滑动时调用，超过阈值时开始预加载
+     * @param lastVisiblePosition 最后一个可见条目的位置
+     * @param loadedCount 已经加载的条目数
+     * @param cursor 列表的分页进度，超过阈值后才取下一页的请求
+     * @param allLoaded 是否已经全部加载
+     */
+    void onScrolled(int lastVisiblePosition, int loadedCount, PageCursor cursor, boolean allLoaded) {
+        if (allLoaded || loadedCount <= 0) return;
+        if (lastVisiblePosition + 1 < loadedCount * mThreshold) return;
+        PageCursor.Request next = cursor.next();
+        if (next.equals(mPrefetchRequest)) return;
+        //失败的请求不在每次滑动时重试，4xx 和熔断都会立即失败
+        if (next.equals(mFailedRequest) && SystemClock.elapsedRealtime() - mFailedAt < FAILURE_BACKOFF) return;
+        prefetch(next);
+    }
+
+    private void prefetch(final PageCursor.Request request) {
+        cancel();
+        Logger.d("prefetch " + request);
+        //replay() 让预加载的结果可以被滑到底部时的订阅直接拿到，取消时断开连接，请求随之中断
+        final ConnectableObservable<T> prefetched = mLoader.loadPage(request)
+                .subscribeOn(GankSchedulers.getIns().io(GankSchedulers.LANE_PREFETCH))
+                .replay();
+        mPrefetchRequest = request;
+        mPrefetched = prefetched;
+        mSubscription = prefetched
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(new Observer<T>() {
+                    @Override
+                    public void onCompleted() {
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        //预加载失败不提示，滑到底部时重新请求
+                        if (discard(prefetched)) {
+                            mFailedRequest = request;
+                            mFailedAt = SystemClock.elapsedRealtime();
+                        }
+                    }
+
+                    @Override
+                    public void onNext(T t) {
+                    }
+                });
+        mConnection = prefetched.connect();
+    }
+
+    /***
+     * 获取某一页的数据，预加载过的直接返回，否则发起请求
+     */
+    Observable<T> take(PageCursor.Request request) {
+        //滑到底部时总是重新请求失败过的页
+        mFailedRequest = null;
+        if (request.equals(mPrefetchRequest) && null != mPrefetched) {
+            Observable<T> prefetched = mPrefetched;
+            //交给调用方后不再取消
+            mPrefetchRequest = null;
+            mPrefetched = null;
+            mSubscription = null;
+            mConnection = null;
+            return prefetched;
+        }
+        return mLoader.loadPage(request);
+    }
+
+    /***
+     * @return 是否是当前的预加载，已经被取消或者交给调用方的返回 false
+     */
+    private boolean discard(Observable<T> prefetched) {
+        if (prefetched != mPrefetched) return false;
+        mPrefetchRequest = null;
+        mPrefetched = null;
+        mSubscription = null;
+        mConnection = null;
+        return true;
+    }
+
+    /***
+     * 取消预加载，重新加载或者界面销毁时调用
+     */
+    void cancel() {
+        if (null != mSubscription) mSubscription.unsubscribe();
+        if (null != mConnection) mConnection.unsubscribe();
+        mSubscription = null;
+        mConnection = null;
+        mPrefetched = null;
+        mPrefetchRequest = null;
+        mFailedRequest = null;
+    }
+}
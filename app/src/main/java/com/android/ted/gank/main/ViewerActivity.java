@@ -31,6 +31,7 @@ import android.view.View;
 import android.widget.Toast;
 
 import com.android.ted.gank.R;
+import com.android.ted.gank.db.GankRealmHelper;
 import com.android.ted.gank.db.Image;
 import com.umeng.analytics.MobclickAgent;
 
@@ -82,7 +83,7 @@ public class ViewerActivity extends AppCompatActivity implements RealmChangeList
         ButterKnife.bind(this);
         mAppPreferences = new TrayAppPreferences(this);
         images = new ArrayList<>();
-        mRealm = Realm.getInstance(this);
+        mRealm = GankRealmHelper.getRealm(this);
         mRealm.addChangeListener(this);
         loadAllImage();
 
@@ -95,7 +96,7 @@ public class ViewerActivity extends AppCompatActivity implements RealmChangeList
             }
         });
 
-        index = getIntent().getIntExtra("index", 0);
+        index = indexOf(getIntent().getStringExtra("id"), getIntent().getIntExtra("index", 0));
 
         adapter = new PagerAdapter();
 
@@ -166,10 +167,23 @@ public class ViewerActivity extends AppCompatActivity implements RealmChangeList
     }
 
     private void loadAllImage() {
-        RealmResults<Image> results = mRealm.where(Image.class).notEqualTo("width", 0).findAll();
+        //和列表使用同一个查询，保证位置一致
+        RealmResults<Image> results = Image.queryVisibleImages(mRealm);
+        images.clear();
         images.addAll(results);
     }
 
+    /***
+     * 按 id 查找图片的位置，找不到时使用列表传过来的位置
+     */
+    private int indexOf(String id, int fallback) {
+        if (null == id) return fallback;
+        for (int i = 0; i < images.size(); i++) {
+            if (id.equals(images.get(i).get_id())) return i;
+        }
+        return fallback;
+    }
+
     public void toggleToolbar() {
         if (toolbar.getTranslationY() == 0) {
             hideSystemUi();
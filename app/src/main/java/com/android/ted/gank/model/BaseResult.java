@@ -5,6 +5,8 @@ package com.android.ted.gank.model;
  */
 public class BaseResult {
     private boolean error;
+    /**重新验证后发生了变化的数据，替换之前收到的同一页，不参与解析*/
+    private transient boolean revalidated;
 
     public boolean isError() {
         return error;
@@ -13,4 +15,12 @@ public class BaseResult {
     public void setError(boolean error) {
         this.error = error;
     }
+
+    public boolean isRevalidated() {
+        return revalidated;
+    }
+
+    public void setRevalidated(boolean revalidated) {
+        this.revalidated = revalidated;
+    }
 }
@@ -0,0 +1,18 @@
+package com.android.ted.gank.model;
+
+import java.util.ArrayList;
+
+/**
+ * day/history 接口的结果：所有发布过干货的日期，格式为 yyyy-MM-dd，按时间倒序
+ */
+public class DayHistoryResult extends BaseResult {
+    private ArrayList<String> results;
+
+    public ArrayList<String> getResults() {
+        return results;
+    }
+
+    public void setResults(ArrayList<String> results) {
+        this.results = results;
+    }
+}
@@ -0,0 +1,371 @@
+package com.android.ted.gank.model;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * 手写的 TypeAdapter，避免 Gson 第一次解析时反射创建 Field 的开销。
+ * 未知字段直接 skipValue，不会创建对象。Model 增加字段时需要同步修改这里
+ */
+public class GankTypeAdapterFactory implements TypeAdapterFactory {
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        Class<? super T> rawType = type.getRawType();
+        if (rawType == Goods.class) {
+            return (TypeAdapter<T>) new GoodsAdapter();
+        }
+        if (rawType == GoodsResult.class) {
+            return (TypeAdapter<T>) new GoodsResultAdapter(new GoodsAdapter());
+        }
+        if (rawType == DayGoods.class) {
+            return (TypeAdapter<T>) new DayGoodsAdapter(new GoodsAdapter());
+        }
+        if (rawType == DayGoodsResult.class) {
+            return (TypeAdapter<T>) new DayGoodsResultAdapter(new DayGoodsAdapter(new GoodsAdapter()));
+        }
+        if (rawType == DayHistoryResult.class) {
+            return (TypeAdapter<T>) new DayHistoryResultAdapter();
+        }
+        return null;
+    }
+
+    private static String nextStringOrNull(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
+    }
+
+    private static boolean nextBooleanOrFalse(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return false;
+        }
+        return in.nextBoolean();
+    }
+
+    private static <E> ArrayList<E> readList(JsonReader in, TypeAdapter<E> elementAdapter) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        ArrayList<E> list = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            list.add(elementAdapter.read(in));
+        }
+        in.endArray();
+        return list;
+    }
+
+    private static <E> void writeList(JsonWriter out, ArrayList<E> list, TypeAdapter<E> elementAdapter)
+            throws IOException {
+        if (null == list) {
+            out.nullValue();
+            return;
+        }
+        out.beginArray();
+        for (E element : list) {
+            elementAdapter.write(out, element);
+        }
+        out.endArray();
+    }
+
+    private static final TypeAdapter<String> STRING_ADAPTER = new TypeAdapter<String>() {
+        @Override
+        public void write(JsonWriter out, String value) throws IOException {
+            out.value(value);
+        }
+
+        @Override
+        public String read(JsonReader in) throws IOException {
+            return nextStringOrNull(in);
+        }
+    };
+
+    static class GoodsAdapter extends TypeAdapter<Goods> {
+        @Override
+        public void write(JsonWriter out, Goods goods) throws IOException {
+            if (null == goods) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("who").value(goods.getWho());
+            out.name("publishedAt").value(goods.getPublishedAt());
+            out.name("desc").value(goods.getDesc());
+            out.name("type").value(goods.getType());
+            out.name("url").value(goods.getUrl());
+            out.name("used").value(goods.isUsed());
+            out.name("_id").value(goods.get_id());
+            out.name("createdAt").value(goods.getCreatedAt());
+            out.name("_ns").value(goods.get_ns());
+            out.name("source").value(goods.getSource());
+            out.endObject();
+        }
+
+        @Override
+        public Goods read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            Goods goods = new Goods();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "who":
+                        goods.setWho(nextStringOrNull(in));
+                        break;
+                    case "publishedAt":
+                        goods.setPublishedAt(nextStringOrNull(in));
+                        break;
+                    case "desc":
+                        goods.setDesc(nextStringOrNull(in));
+                        break;
+                    case "type":
+                        goods.setType(nextStringOrNull(in));
+                        break;
+                    case "url":
+                        goods.setUrl(nextStringOrNull(in));
+                        break;
+                    case "used":
+                        goods.setUsed(nextBooleanOrFalse(in));
+                        break;
+                    case "_id":
+                        goods.set_id(nextStringOrNull(in));
+                        break;
+                    case "createdAt":
+                        goods.setCreatedAt(nextStringOrNull(in));
+                        break;
+                    case "_ns":
+                        goods.set_ns(nextStringOrNull(in));
+                        break;
+                    case "source":
+                        goods.setSource(nextStringOrNull(in));
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            return goods;
+        }
+    }
+
+    static class GoodsResultAdapter extends TypeAdapter<GoodsResult> {
+        private final TypeAdapter<Goods> mGoodsAdapter;
+
+        GoodsResultAdapter(TypeAdapter<Goods> goodsAdapter) {
+            this.mGoodsAdapter = goodsAdapter;
+        }
+
+        @Override
+        public void write(JsonWriter out, GoodsResult result) throws IOException {
+            if (null == result) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("error").value(result.isError());
+            out.name("results");
+            writeList(out, result.getResults(), mGoodsAdapter);
+            out.endObject();
+        }
+
+        @Override
+        public GoodsResult read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            GoodsResult result = new GoodsResult(null);
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "error":
+                        result.setError(nextBooleanOrFalse(in));
+                        break;
+                    case "results":
+                        result.setResults(readList(in, mGoodsAdapter));
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            return result;
+        }
+    }
+
+    static class DayGoodsAdapter extends TypeAdapter<DayGoods> {
+        private final TypeAdapter<Goods> mGoodsAdapter;
+
+        DayGoodsAdapter(TypeAdapter<Goods> goodsAdapter) {
+            this.mGoodsAdapter = goodsAdapter;
+        }
+
+        @Override
+        public void write(JsonWriter out, DayGoods dayGoods) throws IOException {
+            if (null == dayGoods) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("iOS");
+            writeList(out, dayGoods.getIosGoods(), mGoodsAdapter);
+            out.name("Android");
+            writeList(out, dayGoods.getAndroidGoods(), mGoodsAdapter);
+            out.name("瞎推荐");
+            writeList(out, dayGoods.getRecommend(), mGoodsAdapter);
+            out.name("福利");
+            writeList(out, dayGoods.getBenefit(), mGoodsAdapter);
+            out.name("休息视频");
+            writeList(out, dayGoods.getRestVideo(), mGoodsAdapter);
+            out.name("拓展资源");
+            writeList(out, dayGoods.getExpandRes(), mGoodsAdapter);
+            out.endObject();
+        }
+
+        @Override
+        public DayGoods read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            DayGoods dayGoods = new DayGoods();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "iOS":
+                        dayGoods.setIosGoods(readList(in, mGoodsAdapter));
+                        break;
+                    case "Android":
+                        dayGoods.setAndroidGoods(readList(in, mGoodsAdapter));
+                        break;
+                    case "瞎推荐":
+                        dayGoods.setRecommend(readList(in, mGoodsAdapter));
+                        break;
+                    case "福利":
+                        dayGoods.setBenefit(readList(in, mGoodsAdapter));
+                        break;
+                    case "休息视频":
+                        dayGoods.setRestVideo(readList(in, mGoodsAdapter));
+                        break;
+                    case "拓展资源":
+                        dayGoods.setExpandRes(readList(in, mGoodsAdapter));
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            return dayGoods;
+        }
+    }
+
+    static class DayGoodsResultAdapter extends TypeAdapter<DayGoodsResult> {
+        private final TypeAdapter<DayGoods> mDayGoodsAdapter;
+
+        DayGoodsResultAdapter(TypeAdapter<DayGoods> dayGoodsAdapter) {
+            this.mDayGoodsAdapter = dayGoodsAdapter;
+        }
+
+        @Override
+        public void write(JsonWriter out, DayGoodsResult result) throws IOException {
+            if (null == result) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("error").value(result.isError());
+            out.name("category");
+            writeList(out, result.getCategory(), STRING_ADAPTER);
+            out.name("results");
+            mDayGoodsAdapter.write(out, result.getResults());
+            out.endObject();
+        }
+
+        @Override
+        public DayGoodsResult read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            DayGoodsResult result = new DayGoodsResult();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "error":
+                        result.setError(nextBooleanOrFalse(in));
+                        break;
+                    case "category":
+                        result.setCategory(readList(in, STRING_ADAPTER));
+                        break;
+                    case "results":
+                        result.setResults(mDayGoodsAdapter.read(in));
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            return result;
+        }
+    }
+
+    static class DayHistoryResultAdapter extends TypeAdapter<DayHistoryResult> {
+        @Override
+        public void write(JsonWriter out, DayHistoryResult result) throws IOException {
+            if (null == result) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("error").value(result.isError());
+            out.name("results");
+            writeList(out, result.getResults(), STRING_ADAPTER);
+            out.endObject();
+        }
+
+        @Override
+        public DayHistoryResult read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            DayHistoryResult result = new DayHistoryResult();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "error":
+                        result.setError(nextBooleanOrFalse(in));
+                        break;
+                    case "results":
+                        result.setResults(readList(in, STRING_ADAPTER));
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,392 @@
+/*
+ *    Copyright 2015 TedXiong <xiong-wei@hotmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.android.ted.gank.network;
+
+import com.android.ted.gank.utils.StartupTrace;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.SocketFactory;
+
+import okhttp3.Dns;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+/**
+ * 接口请求的统计：按接口模板记录 DNS、TCP 连接、首字节和响应内容的耗时直方图，
+ * 网络传输和解压后的字节数、缓存命中情况和状态码。
+ * OkHttp 3.2 没有 EventListener，DNS 和连接耗时由包装的 {@link Dns} 和 {@link SocketFactory} 测量，
+ * 接口请求是同步执行的，用 ThreadLocal 把它们归到当前请求
+ */
+public class ApiMetrics {
+
+    /**最多统计的接口模板数，超过后记到 {@link #OTHER_ENDPOINT}*/
+    private static final int MAX_ENDPOINTS = 32;
+    private static final String OTHER_ENDPOINT = "other";
+
+    /**缓存命中情况*/
+    public static final String CACHE_HIT = "hit";
+    public static final String CACHE_CONDITIONAL_HIT = "conditional_hit";
+    public static final String CACHE_CONDITIONAL_MISS = "conditional_miss";
+    public static final String CACHE_MISS = "miss";
+    /**只读缓存的请求没有缓存，OkHttp 直接返回 504，没有访问网络*/
+    public static final String CACHE_ONLY_MISS = "cache_only_miss";
+
+    private static ApiMetrics instance;
+
+    public static ApiMetrics getIns() {
+        if (null == instance) {
+            synchronized (ApiMetrics.class) {
+                if (null == instance) {
+                    instance = new ApiMetrics();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 一个接口模板的统计
+     */
+    static class EndpointStats {
+        final LatencyHistogram total = new LatencyHistogram();
+        final LatencyHistogram dns = new LatencyHistogram();
+        final LatencyHistogram connect = new LatencyHistogram();
+        final LatencyHistogram firstByte = new LatencyHistogram();
+        final LatencyHistogram body = new LatencyHistogram();
+        final AtomicLong wireBytes = new AtomicLong();
+        final AtomicLong decodedBytes = new AtomicLong();
+        final Map<String, Long> cache = new TreeMap<>();
+        final Map<Integer, Long> status = new TreeMap<>();
+        long failures = 0;
+
+        synchronized void count(String cacheResult, int code) {
+            increment(cache, cacheResult);
+            increment(status, code);
+        }
+
+        synchronized void fail() {
+            failures++;
+        }
+
+        private static <K> void increment(Map<K, Long> map, K key) {
+            Long count = map.get(key);
+            map.put(key, null == count ? 1 : count + 1);
+        }
+
+        synchronized void writeJson(JsonWriter writer) throws IOException {
+            writer.beginObject();
+            writer.name("failures").value(failures);
+            writer.name("wire_bytes").value(wireBytes.get());
+            writer.name("decoded_bytes").value(decodedBytes.get());
+            writer.name("cache").beginObject();
+            for (Map.Entry<String, Long> entry : cache.entrySet()) {
+                writer.name(entry.getKey()).value(entry.getValue());
+            }
+            writer.endObject();
+            writer.name("status").beginObject();
+            for (Map.Entry<Integer, Long> entry : status.entrySet()) {
+                writer.name(String.valueOf(entry.getKey())).value(entry.getValue());
+            }
+            writer.endObject();
+            writer.name("total_ms");
+            total.writeJson(writer);
+            writer.name("dns_ms");
+            dns.writeJson(writer);
+            writer.name("connect_ms");
+            connect.writeJson(writer);
+            writer.name("first_byte_ms");
+            firstByte.writeJson(writer);
+            writer.name("body_ms");
+            body.writeJson(writer);
+            writer.endObject();
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "  total " + total + "\n  dns " + dns + "\n  connect " + connect
+                    + "\n  first byte " + firstByte + "\n  body " + body
+                    + "\n  bytes wire " + wireBytes.get() + " / decoded " + decodedBytes.get()
+                    + "\n  cache " + cache + "\n  status " + status
+                    + (failures > 0 ? "\n  failures " + failures : "");
+        }
+    }
+
+    /**
+     * 当前线程上正在执行的请求，DNS 和连接耗时记到这里
+     */
+    private static class CallTiming {
+        long dnsMillis = -1;
+        long connectMillis = -1;
+        long firstByteMillis = -1;
+        final AtomicLong wireBytes = new AtomicLong();
+    }
+
+    private final ThreadLocal<CallTiming> mCurrentCall = new ThreadLocal<>();
+    private final Map<String, EndpointStats> mEndpoints = new LinkedHashMap<>();
+    private final long mStartTime = System.currentTimeMillis();
+    private ApiMetrics() {
+    }
+
+    /***
+     * 接口模板：去掉接口地址部分，数字换成 {n}，例如 "data/Android/{n}/{n}"
+     * @param pathPrefixSize 接口地址中路径的段数，"api/" 的最后一段为空不计入
+     */
+    static String endpointOf(HttpUrl url, int pathPrefixSize) {
+        List<String> segments = url.pathSegments();
+        StringBuilder builder = new StringBuilder();
+        for (int i = Math.min(pathPrefixSize, segments.size()); i < segments.size(); i++) {
+            String segment = segments.get(i);
+            if (builder.length() > 0) builder.append('/');
+            builder.append(isNumber(segment) ? "{n}" : segment);
+        }
+        return builder.toString();
+    }
+
+    private static boolean isNumber(String segment) {
+        if (segment.isEmpty()) return false;
+        for (int i = 0; i < segment.length(); i++) {
+            if (!Character.isDigit(segment.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    private EndpointStats statsFor(String endpoint) {
+        synchronized (mEndpoints) {
+            EndpointStats stats = mEndpoints.get(endpoint);
+            if (null == stats) {
+                if (mEndpoints.size() >= MAX_ENDPOINTS) endpoint = OTHER_ENDPOINT;
+                stats = mEndpoints.get(endpoint);
+                if (null == stats) {
+                    stats = new EndpointStats();
+                    mEndpoints.put(endpoint, stats);
+                }
+            }
+            return stats;
+        }
+    }
+
+    /***
+     * 缓存命中情况：只有缓存时命中，缓存和网络都有时为条件请求，服务器返回 304 时命中
+     */
+    static String cacheResultOf(Response response) {
+        Response cacheResponse = response.cacheResponse();
+        Response networkResponse = response.networkResponse();
+        if (null != cacheResponse && null == networkResponse) return CACHE_HIT;
+        if (null != cacheResponse) {
+            return networkResponse.code() == 304 ? CACHE_CONDITIONAL_HIT : CACHE_CONDITIONAL_MISS;
+        }
+        return null == networkResponse ? CACHE_ONLY_MISS : CACHE_MISS;
+    }
+
+    /***
+     * 应用拦截器，放在接口客户端拦截器的第一个，统计总耗时、缓存、状态码和解压后的字节数
+     * @param pathPrefixSize 客户端接口地址中路径的段数，见 {@link #endpointOf}
+     */
+    public Interceptor newInterceptor(final int pathPrefixSize) {
+        return new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                String endpoint = endpointOf(chain.request().url(), pathPrefixSize);
+                final EndpointStats stats = statsFor(endpoint);
+                final CallTiming timing = new CallTiming();
+                CallTiming outer = mCurrentCall.get();
+                mCurrentCall.set(timing);
+                long start = System.currentTimeMillis();
+                Response response;
+                try {
+                    response = chain.proceed(chain.request());
+                } catch (IOException | RuntimeException e) {
+                    stats.fail();
+                    throw e;
+                } finally {
+                    mCurrentCall.set(outer);
+                }
+                final long headersAt = System.currentTimeMillis();
+                stats.total.record(headersAt - start);
+                if (timing.dnsMillis >= 0) stats.dns.record(timing.dnsMillis);
+                if (timing.connectMillis >= 0) stats.connect.record(timing.connectMillis);
+                if (timing.firstByteMillis >= 0) stats.firstByte.record(timing.firstByteMillis);
+                stats.count(cacheResultOf(response), response.code());
+                //预连接生效时第一个请求的 dns 和 connect 为 -1，表示复用了连接；只看真正访问网络的响应
+                if (null != response.networkResponse()) {
+                    StartupTrace.markOnce("first api response", endpoint
+                            + (timing.connectMillis < 0 ? " reused warm connection" : " opened new connection")
+                            + ", dns=" + timing.dnsMillis + "ms connect=" + timing.connectMillis + "ms");
+                }
+                if (null == response.body()) return response;
+                return response.newBuilder()
+                        .body(new CountingResponseBody(response.body(), stats.decodedBytes,
+                                new CountingResponseBody.OnClosedListener() {
+                                    @Override
+                                    public void onClosed(long bytesRead) {
+                                        stats.body.record(System.currentTimeMillis() - headersAt);
+                                        stats.wireBytes.addAndGet(timing.wireBytes.get());
+                                    }
+                                }))
+                        .build();
+            }
+        };
+    }
+
+    /***
+     * 网络拦截器，统计真正发到服务器的请求的首字节耗时和传输的字节数
+     */
+    public Interceptor newNetworkInterceptor() {
+        return new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                CallTiming timing = mCurrentCall.get();
+                long start = System.currentTimeMillis();
+                Response response = chain.proceed(chain.request());
+                if (null == timing || null == response.body()) return response;
+                timing.firstByteMillis = System.currentTimeMillis() - start;
+                return response.newBuilder()
+                        .body(new CountingResponseBody(response.body(), timing.wireBytes))
+                        .build();
+            }
+        };
+    }
+
+    /***
+     * 测量 DNS 解析耗时
+     */
+    public Dns newDns() {
+        return new Dns() {
+            @Override
+            public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+                long start = System.currentTimeMillis();
+                List<InetAddress> addresses = Dns.SYSTEM.lookup(hostname);
+                CallTiming timing = mCurrentCall.get();
+                if (null != timing) timing.dnsMillis = System.currentTimeMillis() - start;
+                return addresses;
+            }
+        };
+    }
+
+    /***
+     * 测量 TCP 连接耗时，不包括 TLS 握手
+     */
+    public SocketFactory newSocketFactory() {
+        return new TimedSocketFactory();
+    }
+
+    private class TimedSocketFactory extends SocketFactory {
+        private final SocketFactory mDelegate = SocketFactory.getDefault();
+
+        @Override
+        public Socket createSocket() {
+            return new Socket() {
+                @Override
+                public void connect(SocketAddress endpoint, int timeout) throws IOException {
+                    long start = System.currentTimeMillis();
+                    super.connect(endpoint, timeout);
+                    CallTiming timing = mCurrentCall.get();
+                    if (null != timing) timing.connectMillis = System.currentTimeMillis() - start;
+                }
+            };
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return mDelegate.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort)
+                throws IOException {
+            return mDelegate.createSocket(host, port, localHost, localPort);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return mDelegate.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+                throws IOException {
+            return mDelegate.createSocket(address, port, localAddress, localPort);
+        }
+    }
+
+    /***
+     * 清空所有统计
+     */
+    public void reset() {
+        synchronized (mEndpoints) {
+            mEndpoints.clear();
+        }
+    }
+
+    private List<Map.Entry<String, EndpointStats>> snapshot() {
+        synchronized (mEndpoints) {
+            return new ArrayList<>(mEndpoints.entrySet());
+        }
+    }
+
+    /***
+     * 导出为 JSON，直方图只包含非空的桶，见 {@link LatencyHistogram}
+     */
+    public String toJson() {
+        StringWriter out = new StringWriter();
+        JsonWriter writer = new JsonWriter(out);
+        writer.setIndent("  ");
+        try {
+            writer.beginObject();
+            writer.name("since").value(mStartTime);
+            writer.name("exported_at").value(System.currentTimeMillis());
+            writer.name("endpoints").beginObject();
+            for (Map.Entry<String, EndpointStats> entry : snapshot()) {
+                writer.name(entry.getKey());
+                entry.getValue().writeJson(writer);
+            }
+            writer.endObject();
+            writer.endObject();
+            writer.close();
+        } catch (IOException e) {
+            //写到内存中不会失败
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, EndpointStats> entry : snapshot()) {
+            if (builder.length() > 0) builder.append("\n");
+            builder.append(entry.getKey()).append("\n").append(entry.getValue());
+        }
+        return builder.length() == 0 ? "no requests" : builder.toString();
+    }
+}
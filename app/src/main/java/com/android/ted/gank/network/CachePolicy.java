@@ -0,0 +1,73 @@
+/*
+ *    Copyright 2015 TedXiong <xiong-wei@hotmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.android.ted.gank.network;
+
+/**
+ * 接口的缓存策略：在 fresh 时间内直接使用缓存，过期后先返回缓存再带上
+ * If-None-Match/If-Modified-Since 到服务器验证，缓存最多使用 maxStale 时间
+ */
+public class CachePolicy {
+
+    private static final int MINUTE = 60;
+    private static final int DAY = 24 * 60 * MINUTE;
+
+    /**列表分页：一分钟内不重复请求*/
+    public static final CachePolicy PAGE = new CachePolicy(MINUTE, 28 * DAY);
+    /**每日数据：发布后基本不会变化*/
+    public static final CachePolicy DAY_GOODS = new CachePolicy(DAY, 28 * DAY);
+    /**不使用缓存*/
+    public static final CachePolicy NETWORK_ONLY = new CachePolicy(0, 0);
+
+    /**不读也不写缓存的请求头，用于每次结果都不同的接口*/
+    static final String NO_STORE_CONTROL = "no-store";
+
+    /**缓存不需要验证的时间，秒*/
+    public final int freshSeconds;
+    /**缓存最多可以使用的时间，秒，0 表示不先返回缓存*/
+    public final int maxStaleSeconds;
+
+    public CachePolicy(int freshSeconds, int maxStaleSeconds) {
+        this.freshSeconds = freshSeconds;
+        this.maxStaleSeconds = maxStaleSeconds;
+    }
+
+    /***
+     * 写入缓存时替换服务器返回的 Cache-Control，ETag 和 Last-Modified 保持不变
+     */
+    String responseCacheControl() {
+        return "public, max-age=" + freshSeconds;
+    }
+
+    /***
+     * 只读缓存的请求头
+     */
+    String cacheOnlyControl() {
+        return "only-if-cached, max-stale=" + maxStaleSeconds;
+    }
+
+    /***
+     * 是否是 {@link #cacheOnlyControl()} 生成的只读缓存请求头
+     */
+    static boolean isCacheOnly(String cacheControl) {
+        return null != cacheControl && cacheControl.startsWith("only-if-cached");
+    }
+
+    boolean serveStale() {
+        return maxStaleSeconds > 0;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ *    Copyright 2015 TedXiong <xiong-wei@hotmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.android.ted.gank.network;
+
+import java.io.IOException;
+
+/**
+ * 按接口分组的熔断器：连续失败达到阈值后打开，打开期间直接失败不再访问服务器，
+ * 超过等待时间后放行一个试探请求，成功则关闭，失败则重新打开
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * 状态变化回调，在发起请求的线程上执行
+     */
+    public interface OnStateChangeListener {
+        void onStateChanged(CircuitBreaker breaker, State from, State to);
+    }
+
+    /**
+     * 熔断器打开时请求直接失败，调用方可以继续使用缓存
+     */
+    public static class OpenException extends IOException {
+        public OpenException(String name) {
+            super("circuit open: " + name);
+        }
+    }
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_MILLIS = 30 * 1000;
+
+    private final String mName;
+    private final int mFailureThreshold;
+    private final long mOpenMillis;
+    private OnStateChangeListener mListener;
+
+    private State mState = State.CLOSED;
+    private int mConsecutiveFailures = 0;
+    private long mOpenedAt = 0;
+    /**半开状态下是否已经放行了试探请求*/
+    private boolean mTrialInFlight = false;
+
+    private int mRejectedCount = 0;
+    private int mTripCount = 0;
+
+    public CircuitBreaker(String name) {
+        this(name, DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS);
+    }
+
+    public CircuitBreaker(String name, int failureThreshold, long openMillis) {
+        this.mName = name;
+        this.mFailureThreshold = Math.max(1, failureThreshold);
+        this.mOpenMillis = openMillis;
+    }
+
+    public void setOnStateChangeListener(OnStateChangeListener listener) {
+        this.mListener = listener;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /***
+     * 发起请求前调用
+     * @return false 表示熔断器打开，不应该发出请求
+     */
+    public boolean allowRequest() {
+        State from;
+        synchronized (this) {
+            if (mState == State.CLOSED) return true;
+            if (mState == State.OPEN) {
+                if (now() - mOpenedAt < mOpenMillis) {
+                    mRejectedCount++;
+                    return false;
+                }
+                from = mState;
+                mState = State.HALF_OPEN;
+                mTrialInFlight = true;
+            } else {
+                //半开时只放行一个试探请求
+                if (mTrialInFlight) {
+                    mRejectedCount++;
+                    return false;
+                }
+                mTrialInFlight = true;
+                return true;
+            }
+        }
+        notifyStateChanged(from, State.HALF_OPEN);
+        return true;
+    }
+
+    public void onSuccess() {
+        State from;
+        synchronized (this) {
+            mConsecutiveFailures = 0;
+            mTrialInFlight = false;
+            if (mState == State.CLOSED) return;
+            from = mState;
+            mState = State.CLOSED;
+        }
+        notifyStateChanged(from, State.CLOSED);
+    }
+
+    public void onFailure() {
+        State from;
+        synchronized (this) {
+            mConsecutiveFailures++;
+            mTrialInFlight = false;
+            if (mState == State.OPEN) return;
+            if (mState == State.CLOSED && mConsecutiveFailures < mFailureThreshold) return;
+            from = mState;
+            mState = State.OPEN;
+            mOpenedAt = now();
+            mTripCount++;
+        }
+        notifyStateChanged(from, State.OPEN);
+    }
+
+    /***
+     * 请求在收到结果之前被取消，例如预加载取消或者页面销毁。
+     * 取消的如果是试探请求，释放试探名额，下一个请求重新试探，否则半开状态会一直拒绝请求
+     */
+    public synchronized void onCancelled() {
+        if (mState == State.HALF_OPEN) mTrialInFlight = false;
+    }
+
+    public synchronized State getState() {
+        return mState;
+    }
+
+    /***
+     * 强制关闭，例如网络恢复时
+     */
+    public void reset() {
+        State from;
+        synchronized (this) {
+            from = mState;
+            mState = State.CLOSED;
+            mConsecutiveFailures = 0;
+            mTrialInFlight = false;
+        }
+        if (from != State.CLOSED) notifyStateChanged(from, State.CLOSED);
+    }
+
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    private void notifyStateChanged(State from, State to) {
+        OnStateChangeListener listener = mListener;
+        if (null != listener) listener.onStateChanged(this, from, to);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return mName + ": " + mState + ", " + mConsecutiveFailures + " failures, tripped " + mTripCount
+                + " times, rejected " + mRejectedCount;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ *    Copyright 2015 TedXiong <xiong-wei@hotmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.android.ted.gank.network;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * 统计实际读取的响应字节数，提前关闭时只计算已经读取的部分
+ */
+class CountingResponseBody extends ResponseBody {
+
+    /**
+     * 响应内容全部读完时回调，提前关闭时不回调
+     */
+    interface OnExhaustedListener {
+        void onExhausted(long bytesRead);
+    }
+
+    /**
+     * 响应内容关闭时回调一次，不管有没有读完
+     */
+    interface OnClosedListener {
+        void onClosed(long bytesRead);
+    }
+
+    private final ResponseBody mDelegate;
+    private final AtomicLong mBytesRead;
+    private final OnExhaustedListener mListener;
+    private final OnClosedListener mClosedListener;
+    private BufferedSource mSource;
+    private long mTotalRead = 0;
+    private boolean bClosed = false;
+
+    CountingResponseBody(ResponseBody delegate, AtomicLong bytesRead) {
+        this(delegate, bytesRead, null, null);
+    }
+
+    CountingResponseBody(ResponseBody delegate, AtomicLong bytesRead, OnExhaustedListener listener) {
+        this(delegate, bytesRead, listener, null);
+    }
+
+    CountingResponseBody(ResponseBody delegate, AtomicLong bytesRead, OnClosedListener closedListener) {
+        this(delegate, bytesRead, null, closedListener);
+    }
+
+    private CountingResponseBody(ResponseBody delegate, AtomicLong bytesRead, OnExhaustedListener listener,
+                                 OnClosedListener closedListener) {
+        this.mDelegate = delegate;
+        this.mBytesRead = bytesRead;
+        this.mListener = listener;
+        this.mClosedListener = closedListener;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return mDelegate.contentType();
+    }
+
+    @Override
+    public long contentLength() {
+        return mDelegate.contentLength();
+    }
+
+    @Override
+    public BufferedSource source() {
+        if (null == mSource) {
+            mSource = Okio.buffer(new ForwardingSource(mDelegate.source()) {
+                @Override
+                public long read(Buffer sink, long byteCount) throws IOException {
+                    long read = super.read(sink, byteCount);
+                    if (read > 0) {
+                        mTotalRead += read;
+                        mBytesRead.addAndGet(read);
+                    } else if (read == -1 && null != mListener) {
+                        mListener.onExhausted(mTotalRead);
+                    }
+                    return read;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    if (!bClosed && null != mClosedListener) {
+                        bClosed = true;
+                        mClosedListener.onClosed(mTotalRead);
+                    }
+                }
+            });
+        }
+        return mSource;
+    }
+}
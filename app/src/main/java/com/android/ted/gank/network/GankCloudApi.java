@@ -1,29 +1,51 @@
 package com.android.ted.gank.network;
 
 
-import com.android.ted.gank.GankApplication;
+import android.content.Context;
+
 import com.android.ted.gank.config.Constants;
 import com.android.ted.gank.model.DayGoodsResult;
+import com.android.ted.gank.model.DayHistoryResult;
+import com.android.ted.gank.model.GankTypeAdapterFactory;
 import com.android.ted.gank.model.GoodsResult;
 import com.android.ted.gank.utils.NetworkUtils;
+import com.android.ted.gank.utils.StartupTrace;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.orhanobut.logger.Logger;
 
-import java.io.File;
 import java.io.IOException;
-
-import okhttp3.Cache;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.CacheControl;
+import okhttp3.HttpUrl;
 import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 import retrofit2.Retrofit;
+import retrofit2.adapter.rxjava.HttpException;
 import retrofit2.adapter.rxjava.RxJavaCallAdapterFactory;
 import retrofit2.converter.gson.GsonConverterFactory;
 import retrofit2.http.GET;
+import retrofit2.http.Header;
 import retrofit2.http.Path;
 import retrofit2.http.Query;
+import retrofit2.http.Streaming;
 import rx.Observable;
+import rx.Scheduler;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.functions.Func0;
+import rx.functions.Func1;
 
 //import com.squareup.okhttp.Cache;
 //import com.squareup.okhttp.Interceptor;
@@ -50,69 +72,205 @@ public class GankCloudApi {
         return instance;
     }
 
+    /**第一个网络请求最多等待预连接的时间，超时后自己建立连接*/
+    private static final long WARM_UP_TIMEOUT = 2000;
+    /**预连接结束时计数归零，没有调用 {@link #warmUp} 时为 null*/
+    private static volatile CountDownLatch sWarmUpLatch;
+
+    /***
+     * 启动时在后台创建接口实例并预连接服务器，第一页请求不用再等待解析接口注解、DNS 和 TLS 握手。
+     * OkHttp 不会复用还在握手的连接，所以第一个网络请求会等预连接结束，见 {@link #awaitWarmUp}
+     */
+    public static void warmUp(final Context context) {
+        final CountDownLatch latch = new CountDownLatch(1);
+        sWarmUpLatch = latch;
+        final Scheduler.Worker worker = GankSchedulers.getIns().io(GankSchedulers.LANE_VISIBLE).createWorker();
+        worker.schedule(new Action0() {
+            @Override
+            public void call() {
+                try {
+                    long begin = StartupTrace.begin("api create");
+                    GankCloudApi api = getInstance();
+                    StartupTrace.end("api create", begin);
+                    if (NetworkUtils.isNetworkConnected(context)) api.preconnect();
+                } finally {
+                    latch.countDown();
+                    worker.unsubscribe();
+                }
+            }
+        });
+    }
+
+    /***
+     * 等待预连接结束，最多等 {@link #WARM_UP_TIMEOUT}，预连接结束后直接返回
+     * @return 预连接是否已经结束
+     */
+    static boolean awaitWarmUp() {
+        CountDownLatch latch = sWarmUpLatch;
+        if (null == latch || latch.getCount() == 0) return true;
+        long begin = System.currentTimeMillis();
+        boolean done = false;
+        try {
+            done = latch.await(WARM_UP_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        StartupTrace.markOnce("first request waited for warm-up",
+                (System.currentTimeMillis() - begin) + "ms" + (done ? "" : ", timed out"));
+        return done;
+    }
+
+    /***
+     * 网络请求先等预连接结束，只读缓存的请求不等待
+     */
+    private static final Interceptor AWAIT_WARM_UP_INTERCEPTOR = new Interceptor() {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            if (!chain.request().cacheControl().onlyIfCached()) awaitWarmUp();
+            return chain.proceed(chain.request());
+        }
+    };
+
+    /***
+     * 向接口地址发一个 HEAD 请求，完成 DNS 解析、TCP 连接和 TLS 握手后连接留在连接池中。
+     * 不经过拦截器，不计入接口统计和每页条数的测量
+     */
+    private void preconnect() {
+        OkHttpClient.Builder builder = mClient.newBuilder();
+        builder.interceptors().clear();
+        builder.networkInterceptors().clear();
+        Request request = new Request.Builder()
+                .url(mEndpoint)
+                .head()
+                .cacheControl(CacheControl.FORCE_NETWORK)
+                .build();
+        long begin = StartupTrace.begin("api preconnect");
+        try {
+            builder.build().newCall(request).execute().body().close();
+        } catch (IOException e) {
+            Logger.d("Failed to preconnect " + mEndpoint + ": " + e);
+        } finally {
+            StartupTrace.end("api preconnect", begin);
+        }
+    }
+
     /**每次加载条目*/
     public static final int LOAD_LIMIT = 20;
     /**加载起始页面*/
     public static final int LOAD_START = 1;
 
     public static final String ENDPOINT = Constants.GANK_SERVER_IP;
+    /**接口地址中路径的段数，"api/" 的最后一段为空*/
+    private final int mEndpointPathSize;
+    private final String mEndpoint;
+    /**不带缓存的 client，和各缓存分区共用连接池、DNS 和 SocketFactory，预连接的连接可以直接复用*/
+    private final OkHttpClient mClient;
 
     private final GankCloudService mWebService;
 
-    public static Gson gson = new GsonBuilder().setDateFormat("yyyy-MM-dd HH:mm:ss").create();
+    /**相同参数的请求结果保留的时间*/
+    private static final long RESULT_CACHE_TTL = 15 * 1000;
+    private static final int RESULT_CACHE_SIZE = 16;
+
+    /**合并同时发出的相同请求*/
+    private final SingleFlight mSingleFlight = new SingleFlight(RESULT_CACHE_TTL, RESULT_CACHE_SIZE);
+
+    /**Model 使用手写的 TypeAdapter 解析，见 {@link GankTypeAdapterFactory}*/
+    public static Gson gson = new GsonBuilder()
+            .setDateFormat("yyyy-MM-dd HH:mm:ss")
+            .registerTypeAdapterFactory(new GankTypeAdapterFactory())
+            .create();
+
+    /**各接口分组的熔断器，key 为 "data/Android" 这样的分组名*/
+    private final Map<String, CircuitBreaker> mCircuitBreakers = new LinkedHashMap<>();
+    private final RetryPolicy mRetryPolicy = new RetryPolicy();
+    private CircuitBreaker.OnStateChangeListener mCircuitStateChangeListener;
+
+    private final CircuitBreaker.OnStateChangeListener mCircuitStateListener =
+            new CircuitBreaker.OnStateChangeListener() {
+                @Override
+                public void onStateChanged(CircuitBreaker breaker, CircuitBreaker.State from,
+                                           CircuitBreaker.State to) {
+                    Logger.d("circuit " + breaker.getName() + ": " + from + " -> " + to);
+                    CircuitBreaker.OnStateChangeListener listener = mCircuitStateChangeListener;
+                    if (null != listener) listener.onStateChanged(breaker, from, to);
+                }
+            };
+
+    /**各接口的缓存策略，key 为 "data/福利" 或者 "day" 这样的路径前缀*/
+    private final Map<String, CachePolicy> mCachePolicies = new HashMap<>();
 
-    private static final Interceptor REWRITE_CACHE_CONTROL_INTERCEPTOR = new Interceptor() {
+    /***
+     * 按接口的缓存策略改写响应的 Cache-Control，离线时由 {@link StaleWhileRevalidate} 读取缓存
+     */
+    private final Interceptor REWRITE_CACHE_CONTROL_INTERCEPTOR = new Interceptor() {
         @Override
         public Response intercept(Interceptor.Chain chain) throws IOException {
             Response originalResponse = chain.proceed(chain.request());
-            if (NetworkUtils.isNetworkConnected(GankApplication.getContext())) {
-                int maxAge = 60; // read from cache for 1 minute
-                return originalResponse.newBuilder()
-                        .header("Cache-Control", "public, max-age=" + maxAge)
-                        .build();
-            } else {
-                int maxStale = 60 * 60 * 24 * 28; // tolerate 4-weeks stale
-                return originalResponse.newBuilder()
-                        .header("Cache-Control", "public, only-if-cached, max-stale=" + maxStale)
-                        .build();
+            CachePolicy policy = getCachePolicy(chain.request().url());
+            if (!originalResponse.isSuccessful() || policy == CachePolicy.NETWORK_ONLY) {
+                return originalResponse;
             }
+            return originalResponse.newBuilder()
+                    .header("Cache-Control", policy.responseCacheControl())
+                    .removeHeader("Pragma")
+                    .build();
         }
     };
 
+    /***
+     * 与图片加载共用连接池，接口数据使用磁盘缓存
+     */
     public GankCloudApi() {
-        Cache cache;
-        OkHttpClient.Builder okHttpClient = null;
-        try {
-            File cacheDir = new File(GankApplication.getContext().getCacheDir().getPath(), "gank_cache.json");
-            cache = new Cache(cacheDir, 20 * 1024 * 1024);// 20M
-            okHttpClient = new OkHttpClient.Builder();
-            okHttpClient
-                    .addInterceptor(new Interceptor() {
-                        @Override
-                        public Response intercept(Chain chain) throws IOException {
-                            Request original = chain.request();
-
-                            // Customize the request
-                            Request request = original.newBuilder()
-//                                    .header("Accept", "application/json")
-//                                    .header("Authorization", "auth-token")
-                                    .addHeader("Cache-Control", "public, max-age=" + 60 * 60 * 4)
-                                    .addHeader("Content-Type", "application/json")
-                                    .method(original.method(), original.body())
-                                    .build();
-
-                            Response response = chain.proceed(request);
-
-                            // Customize or return the response
-                            return response;
-                        }
-                    })
-                    .cache(cache)
-                    .networkInterceptors().add(REWRITE_CACHE_CONTROL_INTERCEPTOR)
-            ;
-        } catch (Exception e) {
+        this(ENDPOINT, GankHttpClient.getIns().newClientBuilder(GankHttpClient.CONSUMER_API),
+                GankHttpClient.getIns().getCache());
+    }
 
-        }
+    /***
+     * 指定接口地址和 client，用于连接本地的模拟服务器做压测或者回放录制的数据
+     * @param endpoint 接口地址，以 "/" 结尾，例如 "http://127.0.0.1:8080/api/"
+     * @param okHttpClient 不带缓存的 client，拦截器会加在这里
+     * @param cache 接口数据的分区缓存，为 null 时不使用缓存
+     */
+    public GankCloudApi(String endpoint, OkHttpClient.Builder okHttpClient, PartitionedCache cache) {
+        mEndpoint = endpoint;
+        mEndpointPathSize = HttpUrl.parse(endpoint).pathSegments().size() - 1;
+        mCachePolicies.put("data", CachePolicy.PAGE);
+        mCachePolicies.put("day", CachePolicy.DAY_GOODS);
+        mCachePolicies.put("day/history", CachePolicy.PAGE);
+
+        /**按接口统计耗时、流量和缓存命中，见 {@link ApiMetrics}*/
+        ApiMetrics metrics = ApiMetrics.getIns();
+        //等待的时间不计入接口耗时
+        okHttpClient.addInterceptor(AWAIT_WARM_UP_INTERCEPTOR);
+        okHttpClient.addInterceptor(metrics.newInterceptor(mEndpointPathSize))
+                .dns(metrics.newDns())
+                .socketFactory(metrics.newSocketFactory());
+        okHttpClient
+                .addInterceptor(new Interceptor() {
+                    @Override
+                    public Response intercept(Chain chain) throws IOException {
+                        Request original = chain.request();
+
+                        // Customize the request
+                        Request request = original.newBuilder()
+//                                .header("Accept", "application/json")
+//                                .header("Authorization", "auth-token")
+                                .addHeader("Content-Type", "application/json")
+                                .method(original.method(), original.body())
+                                .build();
+
+                        Response response = chain.proceed(request);
+
+                        // Customize or return the response
+                        return response;
+                    }
+                })
+                .networkInterceptors().add(REWRITE_CACHE_CONTROL_INTERCEPTOR)
+        ;
+        /**测量延迟和吞吐量，用于调整每页条数*/
+        okHttpClient.addNetworkInterceptor(PageSizeController.getIns().newInterceptor());
+        okHttpClient.addNetworkInterceptor(metrics.newNetworkInterceptor());
 
         /**
          * 1.0
@@ -127,11 +285,14 @@ public class GankCloudApi {
         /**
          * 2.0
          */
+        mClient = okHttpClient.build();
         Retrofit retrofit = new Retrofit.Builder()
-                .baseUrl(ENDPOINT)
-                .client(okHttpClient.build())
+                .baseUrl(endpoint)
+                .callFactory(null == cache ? mClient : cache.newCallFactory(mClient, mEndpointPathSize))
                 .addConverterFactory(GsonConverterFactory.create(gson))
                 .addCallAdapterFactory(RxJavaCallAdapterFactory.create())
+                //创建时解析所有接口方法的注解，不留到第一次请求
+                .validateEagerly(true)
                 .build();
         mWebService = retrofit.create(GankCloudService.class);
     }
@@ -147,68 +308,365 @@ public class GankCloudApi {
 //        }
 //    };
 
+    /**
+     * 所有接口都返回完整的 Response，并且可以指定 Cache-Control，见 {@link StaleWhileRevalidate}
+     */
     public interface GankCloudService {
 
         @GET("data/Android/{limit}/{page}")
-        Observable<GoodsResult> getAndroidGoods(
+        Observable<retrofit2.Response<GoodsResult>> getAndroidGoods(
                 @Path("limit") int limit,
-                @Path("page") int page
+                @Path("page") int page,
+                @Header("Cache-Control") String cacheControl
         );
 
         @GET("data/iOS/{limit}/{page}")
-        Observable<GoodsResult> getIosGoods(
+        Observable<retrofit2.Response<GoodsResult>> getIosGoods(
                 @Path("limit") int limit,
-                @Path("page") int page
+                @Path("page") int page,
+                @Header("Cache-Control") String cacheControl
         );
 
         @GET("data/all/{limit}/{page}")
-        Observable<GoodsResult> getAllGoods(
+        Observable<retrofit2.Response<GoodsResult>> getAllGoods(
+                @Path("limit") int limit,
+                @Path("page") int page,
+                @Header("Cache-Control") String cacheControl
+        );
+
+        /**以下 stream 开头的接口不缓冲响应内容，由 {@link GoodsStreamParser} 边下载边解析*/
+        @Streaming
+        @GET("data/Android/{limit}/{page}")
+        Observable<retrofit2.Response<ResponseBody>> streamAndroidGoods(
                 @Path("limit") int limit,
-                @Path("page") int page
+                @Path("page") int page,
+                @Header("Cache-Control") String cacheControl
         );
 
+        @Streaming
+        @GET("data/iOS/{limit}/{page}")
+        Observable<retrofit2.Response<ResponseBody>> streamIosGoods(
+                @Path("limit") int limit,
+                @Path("page") int page,
+                @Header("Cache-Control") String cacheControl
+        );
+
+        @GET("data/福利/{limit}/{page}")
+        Observable<retrofit2.Response<GoodsResult>> getBenefitsGoods(
+                @Path("limit") int limit,
+                @Path("page") int page,
+                @Header("Cache-Control") String cacheControl
+        );
+
+        @Streaming
         @GET("data/福利/{limit}/{page}")
-        Observable<GoodsResult> getBenefitsGoods(
+        Observable<retrofit2.Response<ResponseBody>> streamBenefitsGoods(
                 @Path("limit") int limit,
-                @Path("page") int page
+                @Path("page") int page,
+                @Header("Cache-Control") String cacheControl
         );
 
         @GET("day/{year}/{month}/{day}")
-        Observable<DayGoodsResult> getGoodsByDay(
+        Observable<retrofit2.Response<DayGoodsResult>> getGoodsByDay(
                 @Path("year") int year,
                 @Path("month") int month,
-                @Path("day") int day
+                @Path("day") int day,
+                @Header("Cache-Control") String cacheControl
+        );
+
+        @GET(Constants.GANK_RANDOM_IP + "{category}/{count}")
+        Observable<retrofit2.Response<GoodsResult>> getRandomGoods(
+                @Path("category") String category,
+                @Path("count") int count,
+                @Header("Cache-Control") String cacheControl
+        );
+
+        @GET("day/history")
+        Observable<retrofit2.Response<DayHistoryResult>> getDayHistory(
+                @Header("Cache-Control") String cacheControl
         );
     }
 
-    public Observable<GoodsResult> getCommonGoods(String type,int limit, int page) {
-        if("Android".equalsIgnoreCase(type)){
-            return mWebService.getAndroidGoods(limit, page);
-        }
+    /***
+     * 边下载边解析，每次 onNext 只包含 {@link GoodsStreamParser#DEFAULT_CHUNK_SIZE} 条，
+     * 一页的数据全部发送完后 onCompleted。有缓存时先发送缓存，内容变化后再发送一遍，
+     * 第一段标记为 {@link GoodsResult#isRevalidated()}
+     */
+    public Observable<GoodsResult> getCommonGoods(String type, final int limit, final int page) {
         if("IOS".equalsIgnoreCase(type)){
-            return mWebService.getIosGoods(limit, page);
+            return mSingleFlight.execute("stream/iOS/" + limit + "/" + page,
+                    StaleWhileRevalidate.fetchStream(getCachePolicy("data/iOS"),
+                            resilient("data/iOS", new StaleWhileRevalidate.Fetcher<ResponseBody>() {
+                                @Override
+                                public Observable<retrofit2.Response<ResponseBody>> fetch(String cacheControl) {
+                                    return mWebService.streamIosGoods(limit, page, cacheControl);
+                                }
+                            }), STREAM_PARSER));
+        }
+        return mSingleFlight.execute("stream/Android/" + limit + "/" + page,
+                StaleWhileRevalidate.fetchStream(getCachePolicy("data/Android"),
+                        resilient("data/Android", new StaleWhileRevalidate.Fetcher<ResponseBody>() {
+                            @Override
+                            public Observable<retrofit2.Response<ResponseBody>> fetch(String cacheControl) {
+                                return mWebService.streamAndroidGoods(limit, page, cacheControl);
+                            }
+                        }), STREAM_PARSER));
+    }
+
+    /***
+     * 增量同步用：不先返回缓存，每次都到服务器验证，边下载边解析
+     * @param type 分类，"Android"、"IOS" 或者 "福利"
+     * @param bytesRead 累加读取的响应字节数，提前取消订阅时只计算已读部分
+     */
+    public Observable<GoodsResult> syncGoods(final String type, final int limit, final int page,
+                                             final AtomicLong bytesRead) {
+        String family = "IOS".equalsIgnoreCase(type) ? "data/iOS" : "福利".equals(type) ? "data/福利" : "data/Android";
+        return StaleWhileRevalidate.fetchStreamValidated(resilient(family, new StaleWhileRevalidate.Fetcher<ResponseBody>() {
+            @Override
+            public Observable<retrofit2.Response<ResponseBody>> fetch(String cacheControl) {
+                if ("IOS".equalsIgnoreCase(type)) return mWebService.streamIosGoods(limit, page, cacheControl);
+                if ("福利".equals(type)) return mWebService.streamBenefitsGoods(limit, page, cacheControl);
+                return mWebService.streamAndroidGoods(limit, page, cacheControl);
+            }
+        }), new Func1<ResponseBody, Observable<GoodsResult>>() {
+            @Override
+            public Observable<GoodsResult> call(ResponseBody body) {
+                return STREAM_PARSER.call(new CountingResponseBody(body, bytesRead));
+            }
+        });
+    }
+
+    private static final Func1<ResponseBody, Observable<GoodsResult>> STREAM_PARSER =
+            new Func1<ResponseBody, Observable<GoodsResult>>() {
+                @Override
+                public Observable<GoodsResult> call(ResponseBody body) {
+                    return GoodsStreamParser.parse(body, gson, GoodsStreamParser.DEFAULT_CHUNK_SIZE);
+                }
+            };
+
+    /***
+     * 以下接口有缓存时先发送缓存，内容变化后再发送标记了 {@link GoodsResult#isRevalidated()} 的新数据
+     */
+    public Observable<GoodsResult> getAndroidGoods(final int limit, final int page) {
+        return mSingleFlight.execute("Android/" + limit + "/" + page,
+                StaleWhileRevalidate.fetch(getCachePolicy("data/Android"),
+                        resilient("data/Android", new StaleWhileRevalidate.Fetcher<GoodsResult>() {
+                            @Override
+                            public Observable<retrofit2.Response<GoodsResult>> fetch(String cacheControl) {
+                                return mWebService.getAndroidGoods(limit, page, cacheControl);
+                            }
+                        }), gson));
+    }
+
+    public Observable<GoodsResult> getIosGoods(final int limit, final int page) {
+        return mSingleFlight.execute("iOS/" + limit + "/" + page,
+                StaleWhileRevalidate.fetch(getCachePolicy("data/iOS"),
+                        resilient("data/iOS", new StaleWhileRevalidate.Fetcher<GoodsResult>() {
+                            @Override
+                            public Observable<retrofit2.Response<GoodsResult>> fetch(String cacheControl) {
+                                return mWebService.getIosGoods(limit, page, cacheControl);
+                            }
+                        }), gson));
+    }
+
+    public Observable<GoodsResult> getAllGoods(final int limit, final int page) {
+        return mSingleFlight.execute("all/" + limit + "/" + page,
+                StaleWhileRevalidate.fetch(getCachePolicy("data/all"),
+                        resilient("data/all", new StaleWhileRevalidate.Fetcher<GoodsResult>() {
+                            @Override
+                            public Observable<retrofit2.Response<GoodsResult>> fetch(String cacheControl) {
+                                return mWebService.getAllGoods(limit, page, cacheControl);
+                            }
+                        }), gson));
+    }
+
+    public Observable<GoodsResult> getBenefitsGoods(final int limit, final int page) {
+        return mSingleFlight.execute("福利/" + limit + "/" + page,
+                StaleWhileRevalidate.fetch(getCachePolicy("data/福利"),
+                        resilient("data/福利", new StaleWhileRevalidate.Fetcher<GoodsResult>() {
+                            @Override
+                            public Observable<retrofit2.Response<GoodsResult>> fetch(String cacheControl) {
+                                return mWebService.getBenefitsGoods(limit, page, cacheControl);
+                            }
+                        }), gson));
+    }
+
+    public Observable<DayGoodsResult> getGoodsByDay(final int year, final int month, final int day) {
+        return mSingleFlight.execute("day/" + year + "/" + month + "/" + day,
+                StaleWhileRevalidate.fetch(getCachePolicy("day"),
+                        resilient("day", new StaleWhileRevalidate.Fetcher<DayGoodsResult>() {
+                            @Override
+                            public Observable<retrofit2.Response<DayGoodsResult>> fetch(String cacheControl) {
+                                return mWebService.getGoodsByDay(year, month, day, cacheControl);
+                            }
+                        }), gson));
+    }
+
+    /***
+     * 所有发布过干货的日期，按时间倒序，和每日数据共用一个熔断器
+     */
+    public Observable<DayHistoryResult> getDayHistory() {
+        return mSingleFlight.execute("day/history",
+                StaleWhileRevalidate.fetch(getCachePolicy("day/history"),
+                        resilient("day", new StaleWhileRevalidate.Fetcher<DayHistoryResult>() {
+                            @Override
+                            public Observable<retrofit2.Response<DayHistoryResult>> fetch(String cacheControl) {
+                                return mWebService.getDayHistory(cacheControl);
+                            }
+                        }), gson));
+    }
+
+    /***
+     * 随机数据，每次都请求服务器，不使用缓存和请求合并
+     * @param category 分类名，例如 "福利"、"Android"
+     */
+    public Observable<GoodsResult> getRandomGoods(final String category, final int count) {
+        return resilient("random", new StaleWhileRevalidate.Fetcher<GoodsResult>() {
+            @Override
+            public Observable<retrofit2.Response<GoodsResult>> fetch(String cacheControl) {
+                return mWebService.getRandomGoods(category, count, cacheControl);
+            }
+        }).fetch(CachePolicy.NO_STORE_CONTROL)
+                .flatMap(new Func1<retrofit2.Response<GoodsResult>, Observable<GoodsResult>>() {
+                    @Override
+                    public Observable<GoodsResult> call(retrofit2.Response<GoodsResult> response) {
+                        if (!response.isSuccessful()) return Observable.error(new HttpException(response));
+                        return Observable.just(response.body());
+                    }
+                });
+    }
+
+    /***
+     * 给网络请求加上自动重试和熔断，只读缓存的请求不经过这里。
+     * 熔断器打开时直接失败，{@link StaleWhileRevalidate} 已经发送了缓存时界面不受影响
+     * @param family 接口分组，每组一个熔断器
+     */
+    private <T> StaleWhileRevalidate.Fetcher<T> resilient(final String family,
+                                                           final StaleWhileRevalidate.Fetcher<T> fetcher) {
+        final CircuitBreaker breaker = getCircuitBreaker(family);
+        return new StaleWhileRevalidate.Fetcher<T>() {
+            @Override
+            public Observable<retrofit2.Response<T>> fetch(final String cacheControl) {
+                if (CachePolicy.isCacheOnly(cacheControl)) return fetcher.fetch(cacheControl);
+                return Observable.defer(new Func0<Observable<retrofit2.Response<T>>>() {
+                    @Override
+                    public Observable<retrofit2.Response<T>> call() {
+                        if (!breaker.allowRequest()) {
+                            return Observable.error(new CircuitBreaker.OpenException(family));
+                        }
+                        /**是否已经把结果告诉熔断器，取消的请求 Retrofit 不会回调 onError*/
+                        final AtomicBoolean reported = new AtomicBoolean();
+                        return fetcher.fetch(cacheControl)
+                                .doOnError(new Action1<Throwable>() {
+                                    @Override
+                                    public void call(Throwable throwable) {
+                                        if (reported.compareAndSet(false, true)) breaker.onFailure();
+                                    }
+                                })
+                                .flatMap(new Func1<retrofit2.Response<T>, Observable<retrofit2.Response<T>>>() {
+                                    @Override
+                                    public Observable<retrofit2.Response<T>> call(retrofit2.Response<T> response) {
+                                        reported.set(true);
+                                        //服务器出错才算失败，4xx 说明服务器是正常的
+                                        if (response.code() >= 500 || response.code() == 429) {
+                                            breaker.onFailure();
+                                            return Observable.error(new HttpException(response));
+                                        }
+                                        breaker.onSuccess();
+                                        return Observable.just(response);
+                                    }
+                                })
+                                .doOnUnsubscribe(new Action0() {
+                                    @Override
+                                    public void call() {
+                                        if (reported.compareAndSet(false, true)) breaker.onCancelled();
+                                    }
+                                });
+                    }
+                }).retryWhen(mRetryPolicy.retryWhen(breaker,
+                        GankSchedulers.getIns().io(GankSchedulers.LANE_OFFSCREEN)));
+            }
+        };
+    }
+
+    /***
+     * 获取接口分组的熔断器，用于查看状态或者在网络恢复时重置
+     * @param family 例如 "data/Android"、"data/iOS"、"data/福利" 或者 "day"
+     */
+    public CircuitBreaker getCircuitBreaker(String family) {
+        synchronized (mCircuitBreakers) {
+            CircuitBreaker breaker = mCircuitBreakers.get(family);
+            if (null == breaker) {
+                breaker = new CircuitBreaker(family);
+                breaker.setOnStateChangeListener(mCircuitStateListener);
+                mCircuitBreakers.put(family, breaker);
+            }
+            return breaker;
         }
-        return mWebService.getAndroidGoods(limit, page);
     }
 
-    public Observable<GoodsResult> getAndroidGoods(int limit, int page) {
-        return mWebService.getAndroidGoods(limit, page);
+    /***
+     * 监听所有熔断器的状态变化
+     */
+    public void setOnCircuitStateChangeListener(CircuitBreaker.OnStateChangeListener listener) {
+        this.mCircuitStateChangeListener = listener;
     }
 
-    public Observable<GoodsResult> getIosGoods(int limit, int page) {
-        return mWebService.getIosGoods(limit, page);
+    /***
+     * 各接口分组熔断器的状态
+     */
+    public String getCircuitStats() {
+        StringBuilder builder = new StringBuilder();
+        synchronized (mCircuitBreakers) {
+            for (CircuitBreaker breaker : mCircuitBreakers.values()) {
+                if (builder.length() > 0) builder.append("\n");
+                builder.append(breaker);
+            }
+        }
+        return builder.toString();
+    }
+
+    /***
+     * 设置接口的缓存策略
+     * @param endpoint 路径前缀，例如 "data/福利"、"data" 或者 "day"，越长的前缀优先
+     */
+    public void setCachePolicy(String endpoint, CachePolicy policy) {
+        synchronized (mCachePolicies) {
+            mCachePolicies.put(endpoint, policy);
+        }
     }
 
-    public Observable<GoodsResult> getAllGoods(int limit, int page) {
-        return mWebService.getAllGoods(limit, page);
+    private CachePolicy getCachePolicy(String endpoint) {
+        synchronized (mCachePolicies) {
+            String key = endpoint;
+            while (true) {
+                CachePolicy policy = mCachePolicies.get(key);
+                if (null != policy) return policy;
+                int index = key.lastIndexOf('/');
+                if (index < 0) return CachePolicy.NETWORK_ONLY;
+                key = key.substring(0, index);
+            }
+        }
     }
 
-    public Observable<GoodsResult> getBenefitsGoods(int limit, int page) {
-        return mWebService.getBenefitsGoods(limit, page);
+    /***
+     * 按请求路径查找缓存策略，路径中去掉接口地址的部分
+     */
+    private CachePolicy getCachePolicy(HttpUrl url) {
+        List<String> segments = url.pathSegments();
+        StringBuilder endpoint = new StringBuilder();
+        for (int i = mEndpointPathSize; i < segments.size(); i++) {
+            if (endpoint.length() > 0) endpoint.append('/');
+            endpoint.append(segments.get(i));
+        }
+        return getCachePolicy(endpoint.toString());
     }
 
-    public Observable<DayGoodsResult> getGoodsByDay(int year,int month,int day) {
-        return mWebService.getGoodsByDay(year, month,day);
+    /***
+     * 请求合并的统计：结果缓存命中、合并到进行中的请求和真正发出的请求数
+     */
+    public String getRequestStats() {
+        return mSingleFlight.toString();
     }
 
 }
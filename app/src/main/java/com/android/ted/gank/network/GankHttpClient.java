@@ -0,0 +1,201 @@
+/*
+ *    Copyright 2015 TedXiong <xiong-wei@hotmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.android.ted.gank.network;
+
+import android.content.Context;
+
+import com.android.ted.gank.GankApplication;
+import com.orhanobut.logger.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Cache;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import rx.functions.Action0;
+
+/**
+ * 进程内共享的 OkHttpClient，接口请求、图片尺寸探测和 Glide 都从这里创建 client，
+ * 共用连接池和线程池，同一个域名的连接和 TLS 会话可以复用。
+ * 每个使用方通过 {@link #newClientBuilder(String)} 添加自己的拦截器，并单独统计请求数和新建连接数
+ */
+public class GankHttpClient {
+
+    public static final String CONSUMER_API = "api";
+    public static final String CONSUMER_PROBE = "probe";
+    public static final String CONSUMER_IMAGE = "image";
+
+    /**接口数据的磁盘缓存，按接口分区，总共 20MB，图片由 Glide 自己缓存，不放在这里*/
+    private static final long MB = 1024 * 1024;
+    private static final String CACHE_DIR = "gank_http_cache";
+    /**之前不分区的缓存目录，启动后删除*/
+    private static final String LEGACY_CACHE_DIR = "gank_cache.json";
+
+    /**图片服务器的连接比接口多，多保留一些空闲连接*/
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
+    private static GankHttpClient instance;
+
+    private final OkHttpClient mBaseClient;
+    private final PartitionedCache mCache;
+    private final Map<String, ConsumerStats> mConsumerStats =
+            Collections.synchronizedMap(new LinkedHashMap<String, ConsumerStats>());
+    /**见过的连接，用来区分新建连接和复用连接*/
+    private final Map<Connection, Boolean> mSeenConnections =
+            Collections.synchronizedMap(new WeakHashMap<Connection, Boolean>());
+
+    public static GankHttpClient getIns() {
+        if (null == instance) {
+            synchronized (GankHttpClient.class) {
+                if (null == instance) {
+                    instance = new GankHttpClient(GankApplication.getContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    private GankHttpClient(Context context) {
+        mCache = new PartitionedCache(new File(context.getCacheDir(), CACHE_DIR), "other", 2 * MB)
+                .addPartition("android", 4 * MB, "data/Android")
+                .addPartition("ios", 4 * MB, "data/iOS")
+                .addPartition("benefit", 6 * MB, "data/福利")
+                .addPartition("day", 4 * MB, "day");
+        deleteLegacyCache(new File(context.getCacheDir(), LEGACY_CACHE_DIR));
+        mBaseClient = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                .dispatcher(new Dispatcher())
+                .connectTimeout(15, TimeUnit.SECONDS)
+                .readTimeout(20, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /***
+     * 创建共用连接池的 client，不带磁盘缓存，接口请求通过
+     * {@link PartitionedCache#newCallFactory} 使用 {@link #getCache()}
+     * @param consumer 使用方名称，用于统计
+     */
+    public OkHttpClient.Builder newClientBuilder(String consumer) {
+        OkHttpClient.Builder builder = mBaseClient.newBuilder();
+        builder.networkInterceptors().add(new StatsInterceptor(getConsumerStats(consumer)));
+        return builder;
+    }
+
+    public PartitionedCache getCache() {
+        return mCache;
+    }
+
+    /***
+     * 在后台删除旧的缓存目录
+     */
+    private static void deleteLegacyCache(final File directory) {
+        if (!directory.exists()) return;
+        GankSchedulers.getIns().io(GankSchedulers.LANE_PREFETCH).createWorker().schedule(new Action0() {
+            @Override
+            public void call() {
+                try {
+                    new Cache(directory, 1).delete();
+                } catch (IOException e) {
+                    Logger.d("Failed to delete legacy cache " + e);
+                }
+            }
+        });
+    }
+
+    private ConsumerStats getConsumerStats(String consumer) {
+        synchronized (mConsumerStats) {
+            ConsumerStats stats = mConsumerStats.get(consumer);
+            if (null == stats) {
+                stats = new ConsumerStats(consumer);
+                mConsumerStats.put(consumer, stats);
+            }
+            return stats;
+        }
+    }
+
+    /***
+     * 当前连接池、缓存和各使用方的统计
+     */
+    public String getStats() {
+        ConnectionPool pool = mBaseClient.connectionPool();
+        StringBuilder builder = new StringBuilder();
+        builder.append("pool: ").append(pool.connectionCount()).append(" connections, ")
+                .append(pool.idleConnectionCount()).append(" idle");
+        builder.append("\n").append(mCache.getStats());
+        synchronized (mConsumerStats) {
+            for (ConsumerStats stats : mConsumerStats.values()) {
+                builder.append("\n").append(stats);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 使用方的请求统计
+     */
+    private static class ConsumerStats {
+        final String name;
+        final AtomicInteger requestCount = new AtomicInteger();
+        final AtomicInteger newConnectionCount = new AtomicInteger();
+
+        ConsumerStats(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            int requests = requestCount.get();
+            int newConnections = newConnectionCount.get();
+            return name + ": " + requests + " requests, " + newConnections + " new connections, "
+                    + (requests - newConnections) + " reused";
+        }
+    }
+
+    /**
+     * 网络拦截器中可以拿到实际使用的连接，第一次见到的连接就是新建的
+     */
+    private class StatsInterceptor implements Interceptor {
+        private final ConsumerStats mStats;
+
+        StatsInterceptor(ConsumerStats stats) {
+            this.mStats = stats;
+        }
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            mStats.requestCount.incrementAndGet();
+            Connection connection = chain.connection();
+            if (null != connection && null == mSeenConnections.put(connection, Boolean.TRUE)) {
+                mStats.newConnectionCount.incrementAndGet();
+            }
+            return chain.proceed(chain.request());
+        }
+    }
+}
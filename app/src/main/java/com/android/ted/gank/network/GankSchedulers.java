@@ -0,0 +1,187 @@
+/*
+ *    Copyright 2015 TedXiong <xiong-wei@hotmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.android.ted.gank.network;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rx.Scheduler;
+import rx.schedulers.Schedulers;
+
+/**
+ * 网络和磁盘读写共用的有界线程池，代替每次请求新建线程的 Schedulers.newThread()。
+ * 任务按优先级排队：当前可见的页面最先执行，其次是不可见的页面，最后是预加载，
+ * 同一优先级按提交顺序执行
+ */
+public class GankSchedulers {
+
+    /**当前可见页面的请求*/
+    public static final int LANE_VISIBLE = 0;
+    /**已经创建但不可见的页面的请求*/
+    public static final int LANE_OFFSCREEN = 1;
+    /**预加载和其他可以推迟的请求*/
+    public static final int LANE_PREFETCH = 2;
+
+    private static final String[] LANE_NAMES = {"visible", "offscreen", "prefetch"};
+
+    /**请求大多在等网络，线程数比 CPU 核数多一些，但不能无限增长*/
+    private static final int POOL_SIZE = 4;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static GankSchedulers instance;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final Lane[] mLanes = new Lane[LANE_NAMES.length];
+    /**同一优先级按提交顺序执行*/
+    private final AtomicLong mSequence = new AtomicLong();
+
+    public static GankSchedulers getIns() {
+        if (null == instance) {
+            synchronized (GankSchedulers.class) {
+                if (null == instance) {
+                    instance = new GankSchedulers();
+                }
+            }
+        }
+        return instance;
+    }
+
+    private GankSchedulers() {
+        mExecutor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new IoThreadFactory());
+        mExecutor.allowCoreThreadTimeOut(true);
+        for (int i = 0; i < mLanes.length; i++) {
+            mLanes[i] = new Lane(i);
+        }
+    }
+
+    /***
+     * 获取某一优先级的 Scheduler
+     * @param lane {@link #LANE_VISIBLE}、{@link #LANE_OFFSCREEN} 或者 {@link #LANE_PREFETCH}
+     */
+    public Scheduler io(int lane) {
+        return mLanes[Math.max(0, Math.min(lane, mLanes.length - 1))].mScheduler;
+    }
+
+    /***
+     * 页面请求的 Scheduler，按页面当前是否可见决定优先级
+     */
+    public Scheduler forPage(boolean visible) {
+        return io(visible ? LANE_VISIBLE : LANE_OFFSCREEN);
+    }
+
+    /***
+     * 各优先级的排队数和等待时间
+     */
+    public String getStats() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("io: ").append(mExecutor.getActiveCount()).append("/").append(POOL_SIZE)
+                .append(" active, ").append(mExecutor.getQueue().size()).append(" queued");
+        for (Lane lane : mLanes) {
+            builder.append("\n").append(lane);
+        }
+        return builder.toString();
+    }
+
+    public int getQueueDepth(int lane) {
+        return mLanes[lane].mQueued.get();
+    }
+
+    /**
+     * 一个优先级，提交的任务包装成 {@link PriorityTask} 放入共用的队列
+     */
+    private class Lane implements Executor {
+        final int mPriority;
+        final Scheduler mScheduler;
+        final AtomicInteger mQueued = new AtomicInteger();
+        final AtomicLong mExecuted = new AtomicLong();
+        final AtomicLong mTotalWait = new AtomicLong();
+        final AtomicLong mMaxWait = new AtomicLong();
+
+        Lane(int priority) {
+            this.mPriority = priority;
+            this.mScheduler = Schedulers.from(this);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            mQueued.incrementAndGet();
+            mExecutor.execute(new PriorityTask(this, command, mSequence.getAndIncrement()));
+        }
+
+        void onStart(long waitMillis) {
+            mQueued.decrementAndGet();
+            mExecuted.incrementAndGet();
+            mTotalWait.addAndGet(waitMillis);
+            long max;
+            do {
+                max = mMaxWait.get();
+            } while (waitMillis > max && !mMaxWait.compareAndSet(max, waitMillis));
+        }
+
+        @Override
+        public String toString() {
+            long executed = mExecuted.get();
+            return LANE_NAMES[mPriority] + ": " + mQueued.get() + " queued, " + executed + " executed, wait avg "
+                    + (executed == 0 ? 0 : mTotalWait.get() / executed) + "ms max " + mMaxWait.get() + "ms";
+        }
+    }
+
+    private static class PriorityTask implements Runnable, Comparable<PriorityTask> {
+        private final Lane mLane;
+        private final Runnable mCommand;
+        private final long mSequence;
+        private final long mEnqueueTime = System.currentTimeMillis();
+
+        PriorityTask(Lane lane, Runnable command, long sequence) {
+            this.mLane = lane;
+            this.mCommand = command;
+            this.mSequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            mLane.onStart(System.currentTimeMillis() - mEnqueueTime);
+            mCommand.run();
+        }
+
+        @Override
+        public int compareTo(PriorityTask another) {
+            if (mLane.mPriority != another.mLane.mPriority) {
+                return mLane.mPriority < another.mLane.mPriority ? -1 : 1;
+            }
+            return mSequence < another.mSequence ? -1 : (mSequence == another.mSequence ? 0 : 1);
+        }
+    }
+
+    private static class IoThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "GankIO #" + mCount.getAndIncrement());
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ *    Copyright 2015 TedXiong <xiong-wei@hotmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.android.ted.gank.network;
+
+import com.android.ted.gank.model.Goods;
+import com.android.ted.gank.model.GoodsResult;
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import okhttp3.ResponseBody;
+import rx.Observable;
+import rx.Subscriber;
+
+/**
+ * 边下载边解析 GoodsResult，results 数组每读到 chunkSize 条就发送一次，
+ * 列表不用等整个响应下载完就可以开始显示
+ */
+public class GoodsStreamParser {
+
+    /**默认每次发送的条数*/
+    public static final int DEFAULT_CHUNK_SIZE = 5;
+
+    /***
+     * 解析响应，每次 onNext 的 GoodsResult 只包含本次读到的条目，所有条目读完后 onCompleted
+     * @param body 响应内容，解析结束或者取消订阅后关闭
+     * @param gson 解析单个条目
+     * @param chunkSize 每次发送的条数
+     */
+    public static Observable<GoodsResult> parse(final ResponseBody body, final Gson gson, final int chunkSize) {
+        return Observable.create(new Observable.OnSubscribe<GoodsResult>() {
+            @Override
+            public void call(Subscriber<? super GoodsResult> subscriber) {
+                JsonReader reader = new JsonReader(body.charStream());
+                try {
+                    readResult(reader, gson, Math.max(1, chunkSize), subscriber);
+                    if (!subscriber.isUnsubscribed()) subscriber.onCompleted();
+                } catch (IOException | RuntimeException e) {
+                    if (!subscriber.isUnsubscribed()) subscriber.onError(e);
+                } finally {
+                    body.close();
+                }
+            }
+        });
+    }
+
+    private static void readResult(JsonReader reader, Gson gson, int chunkSize,
+                                   Subscriber<? super GoodsResult> subscriber) throws IOException {
+        TypeAdapter<Goods> goodsAdapter = gson.getAdapter(Goods.class);
+        boolean error = false;
+        boolean emitted = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("error".equals(name)) {
+                error = reader.nextBoolean();
+            } else if ("results".equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                ArrayList<Goods> chunk = new ArrayList<>(chunkSize);
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (subscriber.isUnsubscribed()) return;
+                    Goods goods = goodsAdapter.read(reader);
+                    if (null != goods) chunk.add(goods);
+                    if (chunk.size() >= chunkSize) {
+                        subscriber.onNext(newResult(chunk, error));
+                        emitted = true;
+                        chunk = new ArrayList<>(chunkSize);
+                    }
+                }
+                reader.endArray();
+                if (!chunk.isEmpty()) {
+                    subscriber.onNext(newResult(chunk, error));
+                    emitted = true;
+                }
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        //空列表也要发送一次，订阅方据此判断没有数据
+        if (!emitted && !subscriber.isUnsubscribed()) {
+            subscriber.onNext(newResult(new ArrayList<Goods>(0), error));
+        }
+    }
+
+    private static GoodsResult newResult(ArrayList<Goods> goods, boolean error) {
+        GoodsResult result = new GoodsResult(goods);
+        result.setError(error);
+        return result;
+    }
+}
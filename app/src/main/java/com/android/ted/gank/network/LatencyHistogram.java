@@ -0,0 +1,130 @@
+/*
+ *    Copyright 2015 TedXiong <xiong-wei@hotmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.android.ted.gank.network;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * 固定内存的延迟直方图，按 HdrHistogram 的方式分桶：小于 8ms 每毫秒一个桶，
+ * 之后每个 2 的幂区间分成 8 个桶，相对误差不超过 12.5%，超过 {@link #MAX_VALUE} 的记到最后一个桶
+ */
+public class LatencyHistogram {
+
+    /**每个 2 的幂区间的桶数，必须是 2 的幂*/
+    private static final int SUB_BUCKETS = 8;
+    private static final int SUB_BUCKET_BITS = 3;
+    /**能准确记录的最大值，毫秒*/
+    public static final long MAX_VALUE = 1L << 17;
+    private static final int BUCKET_COUNT = bucketIndex(MAX_VALUE - 1) + 1;
+
+    private final long[] mCounts = new long[BUCKET_COUNT];
+    private long mTotalCount = 0;
+    private long mSum = 0;
+    private long mMin = Long.MAX_VALUE;
+    private long mMax = 0;
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) return (int) Math.max(0, value);
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BUCKET_BITS;
+        int sub = (int) (value >> shift) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + shift * SUB_BUCKETS + sub;
+    }
+
+    /***
+     * 桶的下界，桶内的值都按下界计算
+     */
+    static long bucketLowerBound(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        int sub = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub) << shift;
+    }
+
+    public synchronized void record(long value) {
+        long clamped = Math.max(0, Math.min(value, MAX_VALUE - 1));
+        mCounts[bucketIndex(clamped)]++;
+        mTotalCount++;
+        mSum += Math.max(0, value);
+        mMin = Math.min(mMin, Math.max(0, value));
+        mMax = Math.max(mMax, value);
+    }
+
+    public synchronized long getCount() {
+        return mTotalCount;
+    }
+
+    /***
+     * @param percentile 0 到 100
+     * @return 百分位所在桶的下界，没有样本时为 0
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (mTotalCount == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(mTotalCount * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            seen += mCounts[i];
+            if (seen >= target) return Math.min(bucketLowerBound(i), mMax);
+        }
+        return mMax;
+    }
+
+    public synchronized long getMean() {
+        return mTotalCount == 0 ? 0 : mSum / mTotalCount;
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(mCounts, 0);
+        mTotalCount = 0;
+        mSum = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = 0;
+    }
+
+    /***
+     * 写出统计值和非空的桶，桶为 [下界, 数目]
+     */
+    synchronized void writeJson(JsonWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name("count").value(mTotalCount);
+        writer.name("min").value(mTotalCount == 0 ? 0 : mMin);
+        writer.name("max").value(mMax);
+        writer.name("mean").value(getMean());
+        writer.name("p50").value(getPercentile(50));
+        writer.name("p90").value(getPercentile(90));
+        writer.name("p99").value(getPercentile(99));
+        writer.name("buckets").beginArray();
+        for (int i = 0; i < mCounts.length; i++) {
+            if (mCounts[i] == 0) continue;
+            writer.beginArray().value(bucketLowerBound(i)).value(mCounts[i]).endArray();
+        }
+        writer.endArray();
+        writer.endObject();
+    }
+
+    @Override
+    public synchronized String toString() {
+        if (mTotalCount == 0) return "-";
+        return "n=" + mTotalCount + " p50=" + getPercentile(50) + " p90=" + getPercentile(90)
+                + " p99=" + getPercentile(99) + " max=" + mMax;
+    }
+}
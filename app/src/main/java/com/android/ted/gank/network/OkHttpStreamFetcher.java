@@ -0,0 +1,86 @@
+/*
+ *    Copyright 2015 TedXiong <xiong-wei@hotmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.android.ted.gank.network;
+
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.load.data.DataFetcher;
+import com.bumptech.glide.load.model.GlideUrl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * 用 OkHttp 下载图片数据
+ */
+class OkHttpStreamFetcher implements DataFetcher<InputStream> {
+
+    private final OkHttpClient mClient;
+    private final GlideUrl mUrl;
+    private volatile Call mCall;
+    private ResponseBody mResponseBody;
+    private InputStream mStream;
+
+    OkHttpStreamFetcher(OkHttpClient client, GlideUrl url) {
+        this.mClient = client;
+        this.mUrl = url;
+    }
+
+    @Override
+    public InputStream loadData(Priority priority) throws Exception {
+        Request.Builder requestBuilder = new Request.Builder().url(mUrl.toStringUrl());
+        for (Map.Entry<String, String> header : mUrl.getHeaders().entrySet()) {
+            requestBuilder.addHeader(header.getKey(), header.getValue());
+        }
+        mCall = mClient.newCall(requestBuilder.build());
+        Response response = mCall.execute();
+        mResponseBody = response.body();
+        if (!response.isSuccessful()) {
+            throw new IOException("Request failed with code: " + response.code());
+        }
+        mStream = mResponseBody.byteStream();
+        return mStream;
+    }
+
+    @Override
+    public void cleanup() {
+        try {
+            if (null != mStream) mStream.close();
+        } catch (IOException e) {
+            //忽略
+        }
+        if (null != mResponseBody) mResponseBody.close();
+    }
+
+    @Override
+    public String getId() {
+        return mUrl.getCacheKey();
+    }
+
+    @Override
+    public void cancel() {
+        Call call = mCall;
+        if (null != call) call.cancel();
+    }
+}
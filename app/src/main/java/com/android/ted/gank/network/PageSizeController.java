@@ -0,0 +1,156 @@
+/*
+ *    Copyright 2015 TedXiong <xiong-wei@hotmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.android.ted.gank.network;
+
+import android.content.Context;
+
+import com.android.ted.gank.GankApplication;
+import com.android.ted.gank.utils.NetworkUtils;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+/**
+ * 根据网络类型和实际测得的延迟、吞吐量决定每页加载的条数：
+ * Wi-Fi 下一次多拿一些减少请求次数，慢速网络下每页少一些让列表更快显示
+ */
+public class PageSizeController {
+
+    /**可选的每页条数，都是 10 的倍数，方便按偏移量换算页码，见 {@link #SIZES}*/
+    public static final int SIZE_SMALL = 10;
+    public static final int SIZE_NORMAL = 20;
+    public static final int SIZE_LARGE = 50;
+    /**从小到大排列*/
+    public static final int[] SIZES = {SIZE_SMALL, SIZE_NORMAL, SIZE_LARGE};
+
+    /**首字节延迟超过该值时降一档*/
+    private static final long SLOW_LATENCY = 1500;
+    /**首字节延迟低于该值且吞吐量足够时升一档*/
+    private static final long FAST_LATENCY = 300;
+    /**吞吐量低于该值时降一档，字节每秒*/
+    private static final long SLOW_THROUGHPUT = 20 * 1024;
+    private static final long FAST_THROUGHPUT = 200 * 1024;
+    /**移动平均中新样本的权重*/
+    private static final float SMOOTHING = 0.3f;
+    /**太小的响应测不出吞吐量*/
+    private static final long MIN_THROUGHPUT_BYTES = 4 * 1024;
+
+    private static PageSizeController instance;
+
+    private final Context mContext;
+    /**平均首字节延迟，毫秒，-1 表示还没有样本*/
+    private long mLatency = -1;
+    /**平均吞吐量，字节每秒，-1 表示还没有样本*/
+    private long mThroughput = -1;
+    private long mSampleCount = 0;
+
+    public static PageSizeController getIns() {
+        if (null == instance) {
+            synchronized (PageSizeController.class) {
+                if (null == instance) {
+                    instance = new PageSizeController(GankApplication.getContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    private PageSizeController(Context context) {
+        this.mContext = context;
+    }
+
+    /***
+     * 当前应该使用的每页条数
+     */
+    public int getPageSize() {
+        return pageSizeFor(NetworkUtils.getNetworkTypeName(mContext));
+    }
+
+    /***
+     * @param networkType {@link NetworkUtils#getNetworkTypeName} 的返回值
+     */
+    public synchronized int pageSizeFor(String networkType) {
+        int level = baseLevel(networkType);
+        boolean slow = (mLatency > SLOW_LATENCY) || (mThroughput >= 0 && mThroughput < SLOW_THROUGHPUT);
+        boolean fast = mLatency >= 0 && mLatency < FAST_LATENCY && mThroughput > FAST_THROUGHPUT;
+        if (slow) {
+            level--;
+        } else if (fast) {
+            level++;
+        }
+        return SIZES[Math.max(0, Math.min(level, SIZES.length - 1))];
+    }
+
+    private static int baseLevel(String networkType) {
+        if (NetworkUtils.NETWORK_TYPE_WIFI.equals(networkType)) return 2;
+        if (NetworkUtils.NETWORK_TYPE_2G.equals(networkType)
+                || NetworkUtils.NETWORK_TYPE_WAP.equals(networkType)) return 0;
+        return 1;
+    }
+
+    /***
+     * 记录一次请求的首字节延迟
+     */
+    public synchronized void recordLatency(long latencyMillis) {
+        mLatency = mLatency < 0 ? latencyMillis : (long) (mLatency + SMOOTHING * (latencyMillis - mLatency));
+        mSampleCount++;
+    }
+
+    /***
+     * 记录一次响应内容的下载速度
+     */
+    public synchronized void recordTransfer(long bytes, long millis) {
+        if (bytes < MIN_THROUGHPUT_BYTES) return;
+        long throughput = bytes * 1000 / Math.max(1, millis);
+        mThroughput = mThroughput < 0 ? throughput : (long) (mThroughput + SMOOTHING * (throughput - mThroughput));
+    }
+
+    /***
+     * 测量接口请求的网络拦截器，只统计真正访问了网络的请求
+     */
+    public Interceptor newInterceptor() {
+        return new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                long start = System.currentTimeMillis();
+                Response response = chain.proceed(chain.request());
+                final long headersAt = System.currentTimeMillis();
+                recordLatency(headersAt - start);
+                if (null == response.body()) return response;
+                return response.newBuilder()
+                        .body(new CountingResponseBody(response.body(), new AtomicLong(),
+                                new CountingResponseBody.OnExhaustedListener() {
+                                    @Override
+                                    public void onExhausted(long bytesRead) {
+                                        recordTransfer(bytesRead, System.currentTimeMillis() - headersAt);
+                                    }
+                                }))
+                        .build();
+            }
+        };
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "page size: latency " + mLatency + "ms, throughput " + mThroughput + "B/s, "
+                + mSampleCount + " samples";
+    }
+}
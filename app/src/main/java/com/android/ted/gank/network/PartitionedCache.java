@@ -0,0 +1,237 @@
+/*
+ *    Copyright 2015 TedXiong <xiong-wei@hotmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.android.ted.gank.network;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import okhttp3.Cache;
+import okhttp3.Call;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 按接口分区的磁盘缓存：每个分区是一个独立的 OkHttp {@link Cache}，有自己的容量，
+ * 分区内按 LRU 淘汰，福利列表再大也不会挤掉 Android、iOS 的列表页。
+ * 通过 {@link #newCallFactory} 按请求路径选择分区对应的 client
+ */
+public class PartitionedCache {
+
+    /**每个分区最多记录的写入 url，用于统计淘汰数*/
+    private static final int MAX_TRACKED_URLS = 1024;
+
+    private static class Partition {
+        final String name;
+        final String[] prefixes;
+        final Cache cache;
+        /**写入过缓存的 url，按写入顺序，不在缓存中的就是被淘汰了*/
+        final Set<String> writtenUrls = new LinkedHashSet<>();
+
+        Partition(String name, File directory, long maxSize, String[] prefixes) {
+            this.name = name;
+            this.prefixes = prefixes;
+            this.cache = new Cache(directory, maxSize);
+        }
+
+        /***
+         * 匹配的最长前缀长度，不匹配时为 -1
+         */
+        int match(String path) {
+            int longest = -1;
+            for (String prefix : prefixes) {
+                if ((path.equals(prefix) || path.startsWith(prefix + "/")) && prefix.length() > longest) {
+                    longest = prefix.length();
+                }
+            }
+            return longest;
+        }
+
+        void onWritten(String url) {
+            synchronized (writtenUrls) {
+                writtenUrls.remove(url);
+                writtenUrls.add(url);
+                if (writtenUrls.size() > MAX_TRACKED_URLS) {
+                    Iterator<String> iterator = writtenUrls.iterator();
+                    iterator.next();
+                    iterator.remove();
+                }
+            }
+        }
+
+        /***
+         * 写入过但已经不在缓存中的 url 数
+         */
+        int countEvicted() throws IOException {
+            Set<String> present = new HashSet<>();
+            Iterator<String> urls = cache.urls();
+            while (urls.hasNext()) {
+                present.add(urls.next());
+            }
+            int evicted = 0;
+            synchronized (writtenUrls) {
+                for (String url : writtenUrls) {
+                    if (!present.contains(url)) evicted++;
+                }
+            }
+            return evicted;
+        }
+
+        @Override
+        public String toString() {
+            long size = -1;
+            int evicted = -1;
+            try {
+                size = cache.size();
+                evicted = countEvicted();
+            } catch (IOException e) {
+                //缓存还没有初始化
+            }
+            int requests = cache.requestCount();
+            int hits = cache.hitCount();
+            return name + ": " + size + "/" + cache.maxSize() + " bytes, "
+                    + hits + "/" + requests + " hits (" + (requests == 0 ? 0 : hits * 100 / requests) + "%), "
+                    + cache.networkCount() + " network, " + evicted + " evicted";
+        }
+    }
+
+    private final File mDirectory;
+    private final List<Partition> mPartitions = new ArrayList<>();
+    private final Partition mDefaultPartition;
+
+    /***
+     * @param directory 缓存根目录，每个分区一个子目录
+     * @param defaultName 其他请求使用的分区
+     * @param defaultMaxSize 其他请求的缓存容量
+     */
+    public PartitionedCache(File directory, String defaultName, long defaultMaxSize) {
+        this.mDirectory = directory;
+        this.mDefaultPartition = new Partition(defaultName, new File(directory, defaultName),
+                defaultMaxSize, new String[0]);
+    }
+
+    /***
+     * 增加一个分区，需要在 {@link #newCallFactory} 之前调用
+     * @param name 分区名，同时是子目录名
+     * @param prefixes 路径前缀，不包括接口地址，例如 "data/Android"，最长的前缀优先
+     */
+    public PartitionedCache addPartition(String name, long maxSize, String... prefixes) {
+        mPartitions.add(new Partition(name, new File(mDirectory, name), maxSize, prefixes));
+        return this;
+    }
+
+    private Partition partitionFor(String path) {
+        Partition matched = mDefaultPartition;
+        int longest = -1;
+        for (Partition partition : mPartitions) {
+            int length = partition.match(path);
+            if (length > longest) {
+                longest = length;
+                matched = partition;
+            }
+        }
+        return matched;
+    }
+
+    /***
+     * 按请求路径把请求交给对应分区的 client，各分区的 client 共用连接池和拦截器
+     * @param client 不带缓存的 client
+     * @param pathPrefixSize 接口地址中路径的段数，匹配分区时去掉这部分
+     */
+    public Call.Factory newCallFactory(OkHttpClient client, final int pathPrefixSize) {
+        final List<OkHttpClient> clients = new ArrayList<>();
+        for (Partition partition : mPartitions) {
+            clients.add(newPartitionClient(client, partition));
+        }
+        final OkHttpClient defaultClient = newPartitionClient(client, mDefaultPartition);
+        return new Call.Factory() {
+            @Override
+            public Call newCall(Request request) {
+                Partition partition = partitionFor(pathOf(request.url(), pathPrefixSize));
+                int index = mPartitions.indexOf(partition);
+                return (index < 0 ? defaultClient : clients.get(index)).newCall(request);
+            }
+        };
+    }
+
+    private static OkHttpClient newPartitionClient(OkHttpClient client, final Partition partition) {
+        OkHttpClient.Builder builder = client.newBuilder().cache(partition.cache);
+        //放在最外层，看到的是其他拦截器改写过缓存头之后的响应
+        builder.networkInterceptors().add(0, new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                Response response = chain.proceed(chain.request());
+                if (isCacheWrite(chain.request(), response)) {
+                    partition.onWritten(chain.request().url().toString());
+                }
+                return response;
+            }
+        });
+        return builder.build();
+    }
+
+    /***
+     * 会写入缓存的响应：GET 请求成功且请求和响应都没有 no-store
+     */
+    private static boolean isCacheWrite(Request request, Response response) {
+        return "GET".equals(request.method()) && response.code() == 200
+                && !request.cacheControl().noStore() && !response.cacheControl().noStore();
+    }
+
+    private static String pathOf(HttpUrl url, int pathPrefixSize) {
+        List<String> segments = url.pathSegments();
+        StringBuilder builder = new StringBuilder();
+        for (int i = Math.min(pathPrefixSize, segments.size()); i < segments.size(); i++) {
+            if (builder.length() > 0) builder.append('/');
+            builder.append(segments.get(i));
+        }
+        return builder.toString();
+    }
+
+    /***
+     * 所有分区的容量之和
+     */
+    public long maxSize() {
+        long maxSize = mDefaultPartition.cache.maxSize();
+        for (Partition partition : mPartitions) {
+            maxSize += partition.cache.maxSize();
+        }
+        return maxSize;
+    }
+
+    /***
+     * 各分区的大小、命中率和淘汰数，淘汰数只统计最近写入的 {@link #MAX_TRACKED_URLS} 个 url
+     */
+    public String getStats() {
+        StringBuilder builder = new StringBuilder();
+        for (Partition partition : mPartitions) {
+            builder.append("cache ").append(partition).append("\n");
+        }
+        builder.append("cache ").append(mDefaultPartition);
+        return builder.toString();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ *    Copyright 2015 TedXiong <xiong-wei@hotmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.android.ted.gank.network;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import retrofit2.adapter.rxjava.HttpException;
+import rx.Observable;
+import rx.Scheduler;
+import rx.functions.Func1;
+import rx.functions.Func2;
+
+/**
+ * 幂等 GET 请求的自动重试：指数退避加随机抖动，多个客户端同时失败时不会在同一时刻一起重试。
+ * 只重试网络异常和服务器 5xx、429，熔断器打开后不再重试
+ */
+public class RetryPolicy {
+
+    public static final int DEFAULT_MAX_RETRIES = 3;
+    public static final long DEFAULT_BASE_DELAY = 500;
+    public static final long DEFAULT_MAX_DELAY = 8 * 1000;
+
+    private final int mMaxRetries;
+    private final long mBaseDelay;
+    private final long mMaxDelay;
+    private final Random mRandom = new Random();
+
+    public RetryPolicy() {
+        this(DEFAULT_MAX_RETRIES, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY);
+    }
+
+    public RetryPolicy(int maxRetries, long baseDelay, long maxDelay) {
+        this.mMaxRetries = maxRetries;
+        this.mBaseDelay = baseDelay;
+        this.mMaxDelay = maxDelay;
+    }
+
+    /***
+     * 第 attempt 次重试前的等待时间：在 [0, min(max, base * 2^attempt)) 中随机取值
+     * @param attempt 从 0 开始
+     */
+    public long delayFor(int attempt) {
+        long ceiling = Math.min(mMaxDelay, mBaseDelay << Math.min(attempt, 16));
+        return (long) (mRandom.nextDouble() * ceiling);
+    }
+
+    public static boolean isRetryable(Throwable error) {
+        if (error instanceof CircuitBreaker.OpenException) return false;
+        if (error instanceof HttpException) {
+            int code = ((HttpException) error).code();
+            return code >= 500 || code == 429;
+        }
+        return error instanceof IOException;
+    }
+
+    /***
+     * 用于 {@link Observable#retryWhen}
+     * @param breaker 熔断器打开后停止重试，可以为 null
+     * @param scheduler 等待和重新请求所在的线程
+     */
+    public Func1<Observable<? extends Throwable>, Observable<?>> retryWhen(final CircuitBreaker breaker,
+                                                                          final Scheduler scheduler) {
+        return new Func1<Observable<? extends Throwable>, Observable<?>>() {
+            @Override
+            public Observable<?> call(Observable<? extends Throwable> errors) {
+                return errors.zipWith(Observable.range(0, mMaxRetries + 1),
+                        new Func2<Throwable, Integer, Observable<Long>>() {
+                            @Override
+                            public Observable<Long> call(Throwable error, Integer attempt) {
+                                if (attempt >= mMaxRetries || !isRetryable(error)
+                                        || (null != breaker && breaker.getState() == CircuitBreaker.State.OPEN)) {
+                                    return Observable.error(error);
+                                }
+                                return Observable.timer(delayFor(attempt), TimeUnit.MILLISECONDS, scheduler);
+                            }
+                        })
+                        .flatMap(new Func1<Observable<Long>, Observable<Long>>() {
+                            @Override
+                            public Observable<Long> call(Observable<Long> delay) {
+                                return delay;
+                            }
+                        });
+            }
+        };
+    }
+}
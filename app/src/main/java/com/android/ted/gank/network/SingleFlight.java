@@ -0,0 +1,176 @@
+/*
+ *    Copyright 2015 TedXiong <xiong-wei@hotmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.android.ted.gank.network;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rx.Observable;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.functions.Func0;
+
+/**
+ * 合并相同的请求：同一个 key 的请求进行中时，后来的订阅者共用同一个上游，
+ * 请求成功后的结果在短时间内直接返回，不再请求
+ */
+public class SingleFlight {
+
+    private final long mResultTtl;
+    private final int mMaxResults;
+
+    /**进行中的请求，请求结束时移除*/
+    private final Map<String, Observable<?>> mInFlight = new HashMap<>();
+    /**最近的结果，按访问顺序淘汰*/
+    private final LinkedHashMap<String, CachedResult> mResults;
+
+    /**结果缓存命中*/
+    private final AtomicInteger mHitCount = new AtomicInteger();
+    /**合并到进行中的请求*/
+    private final AtomicInteger mJoinCount = new AtomicInteger();
+    /**真正发出的请求*/
+    private final AtomicInteger mMissCount = new AtomicInteger();
+
+    /***
+     * @param resultTtl 结果缓存的有效时间，毫秒，0 表示只合并进行中的请求
+     * @param maxResults 最多缓存的结果数
+     */
+    public SingleFlight(long resultTtl, int maxResults) {
+        this.mResultTtl = resultTtl;
+        this.mMaxResults = maxResults;
+        this.mResults = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /***
+     * 订阅时才决定返回缓存结果、加入进行中的请求还是发出新请求
+     * @param key 相同 key 的请求视为同一个请求
+     * @param upstream 真正的请求，只有在需要时才订阅
+     */
+    public <T> Observable<T> execute(final String key, final Observable<T> upstream) {
+        return Observable.defer(new Func0<Observable<T>>() {
+            @Override
+            public Observable<T> call() {
+                return obtain(key, upstream);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized <T> Observable<T> obtain(final String key, final Observable<T> upstream) {
+        CachedResult cached = mResults.get(key);
+        if (null != cached) {
+            if (System.currentTimeMillis() - cached.time < mResultTtl) {
+                mHitCount.incrementAndGet();
+                return Observable.from((List<T>) cached.values);
+            }
+            mResults.remove(key);
+        }
+        Observable<T> inFlight = (Observable<T>) mInFlight.get(key);
+        if (null != inFlight) {
+            mJoinCount.incrementAndGet();
+            return inFlight;
+        }
+        mMissCount.incrementAndGet();
+        final Observable<?>[] self = new Observable<?>[1];
+        Action0 removeSelf = new Action0() {
+            @Override
+            public void call() {
+                removeInFlight(key, self[0]);
+            }
+        };
+        //replay() 让请求中途加入的订阅者也能收到全部结果；refCount() 在所有订阅者都取消后断开上游，
+        //请求随之中断，只有一个订阅者取消时请求继续
+        Observable<T> shared = Observable.defer(new Func0<Observable<T>>() {
+            @Override
+            public Observable<T> call() {
+                //上游可能分多次发送，全部完成后才放入结果缓存
+                final List<T> values = new ArrayList<>();
+                return upstream
+                        .doOnNext(new Action1<T>() {
+                            @Override
+                            public void call(T value) {
+                                values.add(value);
+                            }
+                        })
+                        .doOnCompleted(new Action0() {
+                            @Override
+                            public void call() {
+                                putResult(key, values);
+                            }
+                        });
+            }
+        })
+                .doOnTerminate(removeSelf)
+                .doOnUnsubscribe(removeSelf)
+                .replay()
+                .refCount();
+        self[0] = shared;
+        mInFlight.put(key, shared);
+        return shared;
+    }
+
+    private synchronized void putResult(String key, List<?> values) {
+        if (mResultTtl <= 0) return;
+        mResults.put(key, new CachedResult(values, System.currentTimeMillis()));
+        Iterator<CachedResult> iterator = mResults.values().iterator();
+        while (mResults.size() > mMaxResults && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /***
+     * 只移除自己，同一个 key 可能已经有了新的请求
+     */
+    private synchronized void removeInFlight(String key, Observable<?> shared) {
+        if (mInFlight.get(key) == shared) mInFlight.remove(key);
+    }
+
+    public int getHitCount() {
+        return mHitCount.get();
+    }
+
+    public int getJoinCount() {
+        return mJoinCount.get();
+    }
+
+    public int getMissCount() {
+        return mMissCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "requests: " + mHitCount.get() + " cache hits, " + mJoinCount.get() + " joined, "
+                + mMissCount.get() + " misses";
+    }
+
+    private static class CachedResult {
+        final List<?> values;
+        final long time;
+
+        CachedResult(List<?> values, long time) {
+            this.values = values;
+            this.time = time;
+        }
+    }
+}
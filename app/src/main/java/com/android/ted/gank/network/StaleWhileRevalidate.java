@@ -0,0 +1,201 @@
+/*
+ *    Copyright 2015 TedXiong <xiong-wei@hotmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.android.ted.gank.network;
+
+import com.android.ted.gank.model.BaseResult;
+import com.android.ted.gank.model.GoodsResult;
+import com.google.gson.Gson;
+import com.orhanobut.logger.Logger;
+
+import okhttp3.ResponseBody;
+import retrofit2.Response;
+import retrofit2.adapter.rxjava.HttpException;
+import rx.Observable;
+import rx.functions.Func0;
+import rx.functions.Func1;
+
+/**
+ * 先返回缓存再到服务器验证：缓存新鲜时不访问网络，过期时由 OkHttp 发出条件请求，
+ * 服务器返回 304 或者内容没有变化时不再发送，变化时发送标记了
+ * {@link BaseResult#isRevalidated()} 的新数据，订阅方用它替换之前收到的同一页
+ */
+class StaleWhileRevalidate {
+
+    /**强制到服务器验证缓存的请求头*/
+    private static final String VALIDATE_CONTROL = "no-cache";
+
+    /**
+     * 带上指定 Cache-Control 请求接口，null 表示按缓存策略正常请求
+     */
+    interface Fetcher<T> {
+        Observable<Response<T>> fetch(String cacheControl);
+    }
+
+    /**
+     * 一次请求的状态：缓存阶段的结果留给验证阶段比较
+     */
+    private static class State<T> {
+        T cached;
+        String cachedEtag;
+    }
+
+    /***
+     * 整体解析的接口，内容是否变化通过比较序列化后的 json 判断
+     */
+    static <T extends BaseResult> Observable<T> fetch(final CachePolicy policy, final Fetcher<T> fetcher,
+                                                      final Gson gson) {
+        return Observable.defer(new Func0<Observable<T>>() {
+            @Override
+            public Observable<T> call() {
+                final State<T> state = new State<>();
+                Observable<T> cached = readCache(policy, fetcher).map(new Func1<Response<T>, T>() {
+                    @Override
+                    public T call(Response<T> response) {
+                        state.cached = response.body();
+                        return state.cached;
+                    }
+                });
+                Observable<T> network = fetcher.fetch(null).flatMap(new Func1<Response<T>, Observable<T>>() {
+                    @Override
+                    public Observable<T> call(Response<T> response) {
+                        if (!response.isSuccessful()) return Observable.error(new HttpException(response));
+                        T body = response.body();
+                        if (null != state.cached) {
+                            if (isNotModified(response.raw())
+                                    || gson.toJson(state.cached).equals(gson.toJson(body))) {
+                                return Observable.empty();
+                            }
+                            body.setRevalidated(true);
+                        }
+                        return Observable.just(body);
+                    }
+                });
+                return cached.concatWith(fallbackToCache(network, state));
+            }
+        });
+    }
+
+    /***
+     * 边下载边解析的接口，无法先比较内容，ETag 相同或者 304 时认为没有变化，
+     * 否则新数据的第一段标记为 revalidated
+     */
+    static Observable<GoodsResult> fetchStream(final CachePolicy policy, final Fetcher<ResponseBody> fetcher,
+                                               final Func1<ResponseBody, Observable<GoodsResult>> parser) {
+        return Observable.defer(new Func0<Observable<GoodsResult>>() {
+            @Override
+            public Observable<GoodsResult> call() {
+                final State<Boolean> state = new State<>();
+                Observable<GoodsResult> cached = readCache(policy, fetcher)
+                        .flatMap(new Func1<Response<ResponseBody>, Observable<GoodsResult>>() {
+                            @Override
+                            public Observable<GoodsResult> call(Response<ResponseBody> response) {
+                                state.cached = Boolean.TRUE;
+                                state.cachedEtag = response.headers().get("ETag");
+                                return parser.call(response.body());
+                            }
+                        });
+                Observable<GoodsResult> network = fetcher.fetch(null)
+                        .flatMap(new Func1<Response<ResponseBody>, Observable<GoodsResult>>() {
+                            @Override
+                            public Observable<GoodsResult> call(Response<ResponseBody> response) {
+                                if (!response.isSuccessful()) {
+                                    return Observable.error(new HttpException(response));
+                                }
+                                if (null == state.cached) return parser.call(response.body());
+                                String etag = response.headers().get("ETag");
+                                if (isNotModified(response.raw())
+                                        || (null != etag && etag.equals(state.cachedEtag))) {
+                                    response.body().close();
+                                    return Observable.empty();
+                                }
+                                return markFirstRevalidated(parser.call(response.body()));
+                            }
+                        });
+                return cached.concatWith(fallbackToCache(network, state));
+            }
+        });
+    }
+
+    /***
+     * 不先返回缓存，每次都到服务器验证，内容没有变化时服务器返回 304，由缓存提供内容。
+     * 用于需要以服务器为准的增量同步
+     */
+    static Observable<GoodsResult> fetchStreamValidated(final Fetcher<ResponseBody> fetcher,
+                                                        final Func1<ResponseBody, Observable<GoodsResult>> parser) {
+        return fetcher.fetch(VALIDATE_CONTROL)
+                .flatMap(new Func1<Response<ResponseBody>, Observable<GoodsResult>>() {
+                    @Override
+                    public Observable<GoodsResult> call(Response<ResponseBody> response) {
+                        if (!response.isSuccessful()) return Observable.error(new HttpException(response));
+                        return parser.call(response.body());
+                    }
+                });
+    }
+
+    /***
+     * 只读缓存，没有缓存时 OkHttp 返回 504，当作空处理
+     */
+    private static <T> Observable<Response<T>> readCache(CachePolicy policy, Fetcher<T> fetcher) {
+        if (!policy.serveStale()) return Observable.empty();
+        return fetcher.fetch(policy.cacheOnlyControl())
+                .filter(new Func1<Response<T>, Boolean>() {
+                    @Override
+                    public Boolean call(Response<T> response) {
+                        return response.isSuccessful() && null != response.body();
+                    }
+                })
+                .onErrorResumeNext(Observable.<Response<T>>empty());
+    }
+
+    /***
+     * 已经发送了缓存时，验证失败只记录日志，不影响界面
+     */
+    private static <T> Observable<T> fallbackToCache(Observable<T> network, final State<?> state) {
+        return network.onErrorResumeNext(new Func1<Throwable, Observable<T>>() {
+            @Override
+            public Observable<T> call(Throwable throwable) {
+                if (null == state.cached) return Observable.error(throwable);
+                Logger.d("revalidate failed, keep cached result: " + throwable);
+                return Observable.empty();
+            }
+        });
+    }
+
+    /***
+     * 缓存仍然新鲜时没有网络响应，服务器验证通过时网络响应为 304
+     */
+    private static boolean isNotModified(okhttp3.Response raw) {
+        okhttp3.Response networkResponse = raw.networkResponse();
+        return null == networkResponse || networkResponse.code() == 304;
+    }
+
+    private static Observable<GoodsResult> markFirstRevalidated(Observable<GoodsResult> chunks) {
+        return chunks.map(new Func1<GoodsResult, GoodsResult>() {
+            private boolean mFirst = true;
+
+            @Override
+            public GoodsResult call(GoodsResult result) {
+                if (mFirst) {
+                    result.setRevalidated(true);
+                    mFirst = false;
+                }
+                return result;
+            }
+        });
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ *    Copyright 2015 TedXiong <xiong-wei@hotmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.android.ted.gank.service;
+
+import android.app.Service;
+
+/**
+ * 后台任务的描述：由哪个 Service 以什么 action 执行，以及执行前需要满足的条件
+ */
+public class GankJob {
+
+    /**不限网络，离线也可以执行*/
+    public static final int NETWORK_NONE = 0;
+    /**需要连接网络*/
+    public static final int NETWORK_ANY = 1;
+    /**需要不计流量的网络，一般是 Wi-Fi*/
+    public static final int NETWORK_UNMETERED = 2;
+
+    public final String tag;
+    public final Class<? extends Service> service;
+    public final String action;
+    public final int requiredNetwork;
+    public final boolean requiresCharging;
+    public final boolean requiresIdle;
+    public final boolean requiresBatteryNotLow;
+
+    private GankJob(Builder builder) {
+        this.tag = builder.tag;
+        this.service = builder.service;
+        this.action = builder.action;
+        this.requiredNetwork = builder.requiredNetwork;
+        this.requiresCharging = builder.requiresCharging;
+        this.requiresIdle = builder.requiresIdle;
+        this.requiresBatteryNotLow = builder.requiresBatteryNotLow;
+    }
+
+    public static class Builder {
+        private final String tag;
+        private final Class<? extends Service> service;
+        private final String action;
+        private int requiredNetwork = NETWORK_NONE;
+        private boolean requiresCharging = false;
+        private boolean requiresIdle = false;
+        private boolean requiresBatteryNotLow = false;
+
+        /***
+         * @param tag 任务标识，相同 tag 的任务会合并
+         * @param service 执行任务的 Service，收到的 Intent 带有 {@link GankJobManager#EXTRA_JOB_TAG}
+         * @param action Intent 的 action
+         */
+        public Builder(String tag, Class<? extends Service> service, String action) {
+            this.tag = tag;
+            this.service = service;
+            this.action = action;
+        }
+
+        public Builder setRequiredNetwork(int requiredNetwork) {
+            this.requiredNetwork = requiredNetwork;
+            return this;
+        }
+
+        public Builder setRequiresCharging(boolean requiresCharging) {
+            this.requiresCharging = requiresCharging;
+            return this;
+        }
+
+        /**屏幕关闭视为空闲*/
+        public Builder setRequiresIdle(boolean requiresIdle) {
+            this.requiresIdle = requiresIdle;
+            return this;
+        }
+
+        /**电量低于 {@link GankJobManager#LOW_BATTERY_PERCENT} 且没有充电时不执行*/
+        public Builder setRequiresBatteryNotLow(boolean requiresBatteryNotLow) {
+            this.requiresBatteryNotLow = requiresBatteryNotLow;
+            return this;
+        }
+
+        public GankJob build() {
+            if (null == tag || null == service || null == action) {
+                throw new IllegalArgumentException("tag, service and action are required");
+            }
+            return new GankJob(this);
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ *    Copyright 2015 TedXiong <xiong-wei@hotmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.android.ted.gank.service;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+import android.os.SystemClock;
+
+import com.android.ted.gank.GankApplication;
+import com.android.ted.gank.db.GankRealmHelper;
+import com.android.ted.gank.db.PendingJob;
+import com.orhanobut.logger.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.realm.Realm;
+
+/**
+ * 后台任务调度：任务保存在数据库中，满足网络、充电、空闲等条件时才启动对应的 Service。
+ * 相同 tag 的任务只保留一个，进程被杀后在应用启动或者网络、电源变化时继续执行
+ */
+public class GankJobManager {
+
+    /**启动 Service 时带上的任务 tag，执行完后需要调用 {@link #onJobFinished}*/
+    public static final String EXTRA_JOB_TAG = "job_tag";
+
+    public static final int LOW_BATTERY_PERCENT = 15;
+
+    /**有任务在等待空闲条件时，每隔一段时间重新检查一次，屏幕关闭没有广播可以静态注册*/
+    private static final long RECHECK_INTERVAL = AlarmManager.INTERVAL_FIFTEEN_MINUTES;
+
+    private static GankJobManager instance;
+
+    private final Context mContext;
+    /**正在执行的任务和开始执行的时间，只保存在内存中，进程被杀后任务会重新执行*/
+    private final Map<String, Long> mRunningJobs = new HashMap<>();
+
+    public static GankJobManager getIns() {
+        if (null == instance) {
+            synchronized (GankJobManager.class) {
+                if (null == instance) {
+                    instance = new GankJobManager(GankApplication.getContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    private GankJobManager(Context context) {
+        this.mContext = context.getApplicationContext();
+    }
+
+    /***
+     * 加入任务，已经有相同 tag 的任务时合并为一个，约束条件以最后一次为准
+     * @param job 任务
+     * @return 任务是否已经开始执行，false 表示正在等待条件满足
+     */
+    public synchronized boolean enqueue(GankJob job) {
+        long now = System.currentTimeMillis();
+        Realm realm = GankRealmHelper.getRealm(mContext);
+        realm.beginTransaction();
+        PendingJob dbJob = PendingJob.queryJobByTag(realm, job.tag);
+        if (null == dbJob) {
+            dbJob = realm.createObject(PendingJob.class);
+            dbJob.setTag(job.tag);
+            dbJob.setCreateTime(now);
+        }
+        dbJob.setService(job.service.getName());
+        dbJob.setAction(job.action);
+        dbJob.setRequiredNetwork(job.requiredNetwork);
+        dbJob.setRequiresCharging(job.requiresCharging);
+        dbJob.setRequiresIdle(job.requiresIdle);
+        dbJob.setRequiresBatteryNotLow(job.requiresBatteryNotLow);
+        dbJob.setUpdateTime(now);
+        realm.commitTransaction();
+        realm.close();
+
+        runPending();
+        return mRunningJobs.containsKey(job.tag);
+    }
+
+    /***
+     * 启动所有条件已经满足的任务，网络、电源变化和应用启动时调用
+     */
+    public synchronized void runPending() {
+        Realm realm = GankRealmHelper.getRealm(mContext);
+        List<PendingJob> jobs = PendingJob.queryAllJobs(realm);
+        DeviceState state = null;
+        int waiting = 0;
+        boolean waitingForIdle = false;
+        for (PendingJob job : jobs) {
+            if (mRunningJobs.containsKey(job.getTag())) continue;
+            if (null == state) state = DeviceState.read(mContext);
+            if (state.satisfies(job)) {
+                dispatch(job);
+            } else {
+                waiting++;
+                waitingForIdle |= job.isRequiresIdle();
+            }
+        }
+        realm.close();
+        if (waiting > 0) Logger.d(waiting + " job waiting for constraints");
+        setConstraintWatching(waiting > 0, waitingForIdle);
+    }
+
+    /***
+     * 任务执行完成，在 Service 的工作线程中调用
+     * @param tag 任务 tag，不是由调度启动时为 null
+     */
+    public synchronized void onJobFinished(String tag) {
+        if (null == tag) return;
+        Long startTime = mRunningJobs.remove(tag);
+        Realm realm = GankRealmHelper.getRealm(mContext);
+        PendingJob job = PendingJob.queryJobByTag(realm, tag);
+        boolean rerun = false;
+        if (null != job) {
+            //执行期间又加入了同一个任务，保留下来再执行一次
+            if (null != startTime && job.getUpdateTime() > startTime) {
+                rerun = true;
+            } else {
+                realm.beginTransaction();
+                job.removeFromRealm();
+                realm.commitTransaction();
+            }
+        }
+        realm.close();
+        if (rerun) runPending();
+    }
+
+    public synchronized List<String> getRunningJobs() {
+        return new ArrayList<>(mRunningJobs.keySet());
+    }
+
+    private void dispatch(PendingJob job) {
+        Intent intent = new Intent(job.getAction());
+        intent.setClassName(mContext, job.getService());
+        intent.putExtra(EXTRA_JOB_TAG, job.getTag());
+        if (null == mContext.startService(intent)) {
+            Logger.e("job service not found " + job.getService());
+            return;
+        }
+        mRunningJobs.put(job.getTag(), System.currentTimeMillis());
+        Logger.d("dispatch job " + job.getTag());
+    }
+
+    /***
+     * 有任务在等待时才打开广播接收器，避免没有任务时也频繁唤醒进程
+     */
+    private void setConstraintWatching(boolean watching, boolean recheckPeriodically) {
+        mContext.getPackageManager().setComponentEnabledSetting(
+                new ComponentName(mContext, JobConstraintReceiver.class),
+                watching ? PackageManager.COMPONENT_ENABLED_STATE_ENABLED
+                        : PackageManager.COMPONENT_ENABLED_STATE_DISABLED,
+                PackageManager.DONT_KILL_APP);
+
+        AlarmManager alarmManager = (AlarmManager) mContext.getSystemService(Context.ALARM_SERVICE);
+        PendingIntent recheck = PendingIntent.getBroadcast(mContext, 0,
+                new Intent(mContext, JobConstraintReceiver.class), PendingIntent.FLAG_UPDATE_CURRENT);
+        if (recheckPeriodically) {
+            alarmManager.set(AlarmManager.ELAPSED_REALTIME,
+                    SystemClock.elapsedRealtime() + RECHECK_INTERVAL, recheck);
+        } else {
+            alarmManager.cancel(recheck);
+        }
+    }
+
+    /**
+     * 检查约束时的设备状态
+     */
+    static class DeviceState {
+        boolean connected;
+        boolean unmetered;
+        boolean charging;
+        boolean batteryLow;
+        boolean idle;
+
+        static DeviceState read(Context context) {
+            DeviceState state = new DeviceState();
+            ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            NetworkInfo info = null == cm ? null : cm.getActiveNetworkInfo();
+            state.connected = null != info && info.isConnected();
+            state.unmetered = state.connected && !cm.isActiveNetworkMetered();
+
+            //ACTION_BATTERY_CHANGED 是粘性广播，不需要真正注册接收器
+            Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+            if (null != battery) {
+                state.charging = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+                int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+                int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+                state.batteryLow = !state.charging && level >= 0 && scale > 0
+                        && level * 100 / scale < LOW_BATTERY_PERCENT;
+            }
+
+            PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+            state.idle = !isInteractive(pm);
+            return state;
+        }
+
+        @SuppressWarnings("deprecation")
+        private static boolean isInteractive(PowerManager pm) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT_WATCH) {
+                return pm.isInteractive();
+            }
+            return pm.isScreenOn();
+        }
+
+        boolean satisfies(PendingJob job) {
+            if (job.getRequiredNetwork() == GankJob.NETWORK_ANY && !connected) return false;
+            if (job.getRequiredNetwork() == GankJob.NETWORK_UNMETERED && !unmetered) return false;
+            if (job.isRequiresCharging() && !charging) return false;
+            if (job.isRequiresBatteryNotLow() && batteryLow) return false;
+            if (job.isRequiresIdle() && !idle) return false;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ *    Copyright 2015 TedXiong <xiong-wei@hotmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.android.ted.gank.service;
+
+import android.app.IntentService;
+import android.content.Intent;
+
+import com.android.ted.gank.data.DeltaSync;
+import com.android.ted.gank.data.GoodsRepository;
+import com.android.ted.gank.data.HistoryBackfill;
+import com.android.ted.gank.model.Goods;
+import com.android.ted.gank.network.PageSizeController;
+import com.android.ted.gank.utils.NetworkUtils;
+import com.orhanobut.logger.Logger;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 同步干货的服务，由 {@link GankJobManager} 在满足条件时启动：
+ * 按天回填历史干货，以及在后台增量同步 Android、iOS 列表，下次打开时直接显示新数据
+ */
+public class GankSyncService extends IntentService {
+
+    public static final String ACTION_BACKFILL_HISTORY = "com.android.ted.BACKFILL_HISTORY";
+    public static final String ACTION_SYNC_GOODS = "com.android.ted.SYNC_GOODS";
+
+    /**同步完成的广播，使用 {@link ImageImproveService#PERMISSION_ACCESS_UPDATE_RESULT} 权限*/
+    public static final String ACTION_SYNC_RESULT = "com.android.ted.SYNC_RESULT";
+    public static final String EXTRA_ACTION = "action_name";
+    public static final String EXTRA_SUCCESS = "success";
+    /**成功的天数，只有回填时有*/
+    public static final String EXTRA_DAYS = "days";
+    public static final String EXTRA_GOODS_SAVED = "goods_saved";
+
+    public static final String JOB_TAG_BACKFILL_HISTORY = "backfill_history";
+    public static final String JOB_TAG_SYNC_GOODS = "sync_goods";
+
+    /**后台同步的分类，和列表使用相同的分类名*/
+    private static final String[] SYNC_CATEGORIES = {"Android", "IOS"};
+
+    private static final String TAG = "GankSyncService";
+
+    public GankSyncService() {
+        super(TAG);
+    }
+
+    /***
+     * 回填历史干货的任务：用户主动发起，移动网络下也执行，按网络类型决定并发数，电量低时等待
+     */
+    public static GankJob newBackfillJob() {
+        return new GankJob.Builder(JOB_TAG_BACKFILL_HISTORY, GankSyncService.class, ACTION_BACKFILL_HISTORY)
+                .setRequiredNetwork(GankJob.NETWORK_ANY)
+                .setRequiresBatteryNotLow(true)
+                .build();
+    }
+
+    /***
+     * 后台增量同步的任务：不着急，等到 Wi-Fi 下屏幕关闭时执行
+     */
+    public static GankJob newSyncJob() {
+        return new GankJob.Builder(JOB_TAG_SYNC_GOODS, GankSyncService.class, ACTION_SYNC_GOODS)
+                .setRequiredNetwork(GankJob.NETWORK_UNMETERED)
+                .setRequiresIdle(true)
+                .setRequiresBatteryNotLow(true)
+                .build();
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        Intent broadcast = new Intent(ACTION_SYNC_RESULT);
+        broadcast.putExtra(EXTRA_ACTION, intent.getAction());
+        try {
+            if (ACTION_BACKFILL_HISTORY.equals(intent.getAction())) {
+                backfillHistory(broadcast);
+            } else if (ACTION_SYNC_GOODS.equals(intent.getAction())) {
+                syncGoods(broadcast);
+            }
+            broadcast.putExtra(EXTRA_SUCCESS, true);
+        } catch (RuntimeException e) {
+            //失败的日期和分类下次执行时重试
+            Logger.e(e, "Failed to " + intent.getAction());
+            broadcast.putExtra(EXTRA_SUCCESS, false);
+        } finally {
+            GankJobManager.getIns().onJobFinished(intent.getStringExtra(GankJobManager.EXTRA_JOB_TAG));
+        }
+        sendBroadcast(broadcast, ImageImproveService.PERMISSION_ACCESS_UPDATE_RESULT);
+    }
+
+    /***
+     * 回填最近 {@link HistoryBackfill#DEFAULT_DAYS} 天，新保存的福利图需要探测尺寸
+     */
+    private void backfillHistory(Intent broadcast) {
+        HistoryBackfill.Report report = new HistoryBackfill.Report();
+        int concurrency = HistoryBackfill.concurrencyFor(NetworkUtils.getNetworkTypeName(this));
+        new HistoryBackfill(getApplicationContext(), concurrency)
+                .backfill(HistoryBackfill.DEFAULT_DAYS, report)
+                .toBlocking()
+                .lastOrDefault(null);
+        broadcast.putExtra(EXTRA_DAYS, report.daysFetched);
+        broadcast.putExtra(EXTRA_GOODS_SAVED, report.goodsSaved);
+        if (report.imagesSaved > 0) {
+            GankJobManager.getIns().enqueue(ImageImproveService.newImproveJob());
+        }
+    }
+
+    /***
+     * 从第一页开始同步，遇到本地已有的条目就停止，新条目由 {@link GoodsRepository} 保存
+     */
+    private void syncGoods(Intent broadcast) {
+        int saved = 0;
+        for (String category : SYNC_CATEGORIES) {
+            Set<String> knownIds = new HashSet<>();
+            for (Goods goods : GoodsRepository.getIns().loadGoods(category)) {
+                knownIds.add(goods.get_id());
+            }
+            DeltaSync.Report report = new DeltaSync.Report();
+            GoodsRepository.getIns().syncGoods(category, PageSizeController.getIns().getPageSize(),
+                    knownIds, knownIds.size(), report)
+                    .toBlocking()
+                    .lastOrDefault(null);
+            saved += report.newCount;
+        }
+        broadcast.putExtra(EXTRA_GOODS_SAVED, saved);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ *    Copyright 2015 TedXiong <xiong-wei@hotmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.android.ted.gank.service;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.android.ted.gank.utils.BlurHash;
+import com.android.ted.gank.utils.PaletteUtil;
+import com.android.ted.gank.utils.PerceptualHash;
+import com.android.ted.gank.utils.PictUtil;
+
+import java.io.IOException;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 下载图片的缩略图，提取主色调、BlurHash 占位图和用于去重的感知哈希。
+ * 新浪图床可以直接取 thumbnail 尺寸，只有几 KB；其他图床需要下载原图，只在允许时进行
+ */
+class ImageFeatureExtractor implements ImageProbeEngine.Extractor {
+
+    /**取样图的宽度*/
+    private static final int SAMPLE_WIDTH = 32;
+    private static final int BLUR_HASH_COMPONENT_X = 4;
+    private static final int BLUR_HASH_COMPONENT_Y = 3;
+
+    private final OkHttpClient mClient;
+    private final boolean mAllowFullDownload;
+
+    /***
+     * @param client 网络请求
+     * @param allowFullDownload 没有缩略图时是否允许下载原图，建议只在 Wi-Fi 下开启
+     */
+    ImageFeatureExtractor(OkHttpClient client, boolean allowFullDownload) {
+        this.mClient = client;
+        this.mAllowFullDownload = allowFullDownload;
+    }
+
+    @Override
+    public ImageProbeEngine.ImageFeatures extract(String url, int width, int height) throws IOException {
+        String thumbnailUrl = PictUtil.getSinaThumbnailUrl(url);
+        if (null == thumbnailUrl && !mAllowFullDownload) return null;
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        if (null == thumbnailUrl) {
+            options.inSampleSize = sampleSizeFor(width);
+        }
+        Response response = mClient.newCall(new Request.Builder()
+                .url(null == thumbnailUrl ? url : thumbnailUrl).build()).execute();
+        Bitmap bitmap;
+        try {
+            if (!response.isSuccessful()) {
+                throw new IOException("Unexpected code " + response.code() + " for " + url);
+            }
+            bitmap = BitmapFactory.decodeStream(response.body().byteStream(), null, options);
+        } finally {
+            response.body().close();
+        }
+        if (null == bitmap) throw new IOException("Failed to decode " + url);
+
+        //按原图比例取样，缩略图可能被裁剪过
+        int sampleHeight = Math.max(1, Math.min(SAMPLE_WIDTH * 2, SAMPLE_WIDTH * height / width));
+        Bitmap sample = scaleDown(bitmap, SAMPLE_WIDTH, sampleHeight);
+        int[] pixels = new int[SAMPLE_WIDTH * sampleHeight];
+        sample.getPixels(pixels, 0, SAMPLE_WIDTH, 0, 0, SAMPLE_WIDTH, sampleHeight);
+        if (sample != bitmap) sample.recycle();
+        bitmap.recycle();
+
+        ImageProbeEngine.ImageFeatures features = new ImageProbeEngine.ImageFeatures();
+        features.dominantColor = PaletteUtil.dominantColor(pixels);
+        features.blurHash = BlurHash.encode(pixels, SAMPLE_WIDTH, sampleHeight,
+                BLUR_HASH_COMPONENT_X, BLUR_HASH_COMPONENT_Y);
+        features.dHash = PerceptualHash.dHash(pixels, SAMPLE_WIDTH, sampleHeight);
+        return features;
+    }
+
+    /***
+     * 每次最多缩小一半，直接双线性缩小几倍只会取到少数像素，
+     * 重新压缩过的同一张图取样结果差别很大，dHash 会超过去重阈值
+     */
+    private static Bitmap scaleDown(Bitmap bitmap, int width, int height) {
+        Bitmap scaled = bitmap;
+        while (scaled.getWidth() >= width * 2 && scaled.getHeight() >= height * 2) {
+            Bitmap half = Bitmap.createScaledBitmap(scaled, scaled.getWidth() / 2, scaled.getHeight() / 2, true);
+            if (scaled != bitmap) scaled.recycle();
+            scaled = half;
+        }
+        Bitmap sample = Bitmap.createScaledBitmap(scaled, width, height, true);
+        if (scaled != bitmap && scaled != sample) scaled.recycle();
+        return sample;
+    }
+
+    private static int sampleSizeFor(int width) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= SAMPLE_WIDTH * 2) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+}
@@ -23,20 +23,27 @@ import android.content.Intent;
 import android.graphics.BitmapFactory;
 import android.graphics.Point;
 
+import com.android.ted.gank.db.GankRealmHelper;
 import com.android.ted.gank.db.Image;
+import com.android.ted.gank.network.GankHttpClient;
+import com.android.ted.gank.utils.ImageSizeSniffer;
+import com.android.ted.gank.utils.NetworkUtils;
 import com.orhanobut.logger.Logger;
 //import com.squareup.okhttp.OkHttpClient;
 //import com.squareup.okhttp.Request;
 //import com.squareup.okhttp.Response;
 
-import io.realm.Sort;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import io.realm.Realm;
+import io.realm.RealmResults;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
-//import io.realm.RealmResults;
 
 /**
  * 完善图片信息的服务
@@ -49,6 +56,22 @@ public class ImageImproveService extends IntentService{
 
     public static final String EXTRA_CHANGE = "change_data";
     public static final String EXTRA_ACTION = "action_name";
+    /**可选，探测并发数，不传则根据网络类型决定*/
+    public static final String EXTRA_CONCURRENCY = "concurrency";
+    /**可选，每个事务提交的图片数*/
+    public static final String EXTRA_BATCH_SIZE = "batch_size";
+
+    /**可选，是否每提交一批就广播一次进度，默认开启*/
+    public static final String EXTRA_STREAMING = "streaming";
+    /**进度广播中本批次更新了尺寸的图片 id*/
+    public static final String EXTRA_UPDATED_IDS = "updated_ids";
+    /**是否是进度广播，最后一次广播为 false*/
+    public static final String EXTRA_PROGRESS = "progress";
+
+    public static final int DEFAULT_BATCH_SIZE = 10;
+    public static final int DEFAULT_STREAM_BATCH_SIZE = 5;
+    /**进度广播模式下，距上次提交超过该时间就提交已有结果*/
+    public static final long STREAM_FLUSH_INTERVAL = 300;
 
     public static final String PERMISSION_ACCESS_UPDATE_RESULT = "com.android.ted.ACCESS_UPDATE_RESULT";
 
@@ -57,82 +80,205 @@ public class ImageImproveService extends IntentService{
 
     private static final String TAG = "ImageImproveService";
 
-    private final OkHttpClient client = new OkHttpClient();
+    /**探测任务的 tag，重复加入的探测任务会合并*/
+    public static final String JOB_TAG_IMPROVE_IMAGE = "improve_image";
+
+    /**一次探测过程中最多重新查询的轮数，用来处理探测期间新插入的图片*/
+    private static final int MAX_PROBE_ROUNDS = 3;
+
+    /**和接口、Glide 共用连接池，探测请求不使用磁盘缓存*/
+    private final OkHttpClient client = GankHttpClient.getIns()
+            .newClientBuilder(GankHttpClient.CONSUMER_PROBE).build();
 
     public ImageImproveService() {
         super(TAG);
     }
 
+    /***
+     * 探测图片尺寸的任务：列表要等尺寸探测完才能显示，所以移动网络下也执行，电量低时等待
+     */
+    public static GankJob newImproveJob() {
+        return new GankJob.Builder(JOB_TAG_IMPROVE_IMAGE, ImageImproveService.class, ACTION_IMPROVE_IMAGE)
+                .setRequiredNetwork(GankJob.NETWORK_ANY)
+                .setRequiresBatteryNotLow(true)
+                .build();
+    }
+
     @Override
     protected void onHandleIntent(Intent intent) {
-        Realm realm = Realm.getInstance(this);
+        Realm realm = GankRealmHelper.getRealm(this);
 
-        /**查询所有尺寸为0的图片的数目*/
-        int count = realm.where(Image.class).equalTo("width",0)
-                .findAllSorted("position", Sort.DESCENDING).size();
+        /**查询所有可以探测的尺寸为0的图片的数目，失败过的图片要等退避时间过后才会再次探测*/
+        long count = Image.countProbeEligible(realm, System.currentTimeMillis());
         Logger.d(count + " image need improve");
 
+        int improved = 0;
         if (count == 0) {
             Logger.d("no new image, fresh fetch");
         } else if (ACTION_IMPROVE_IMAGE.equals(intent.getAction())) {
-            improveImageInfo(count,realm);
+            int concurrency = intent.getIntExtra(EXTRA_CONCURRENCY,
+                    ImageProbeEngine.concurrencyFor(NetworkUtils.getNetworkTypeName(this)));
+            boolean streaming = intent.getBooleanExtra(EXTRA_STREAMING, true);
+            int batchSize = intent.getIntExtra(EXTRA_BATCH_SIZE,
+                    streaming ? DEFAULT_STREAM_BATCH_SIZE : DEFAULT_BATCH_SIZE);
+            boolean wifi = NetworkUtils.NETWORK_TYPE_WIFI.equals(NetworkUtils.getNetworkTypeName(this));
+            improved = improveImageInfo(realm, concurrency, batchSize, wifi,
+                    streaming ? intent.getAction() : null);
         }
 
         realm.close();
+        GankJobManager.getIns().onJobFinished(intent.getStringExtra(GankJobManager.EXTRA_JOB_TAG));
 
-        Logger.d("finished improve num:" + count);
+        Logger.d("finished improve num:" + improved);
+        Logger.d(GankHttpClient.getIns().getStats());
 
         Intent broadcast = new Intent(ACTION_UPDATE_RESULT);
-        broadcast.putExtra(EXTRA_CHANGE, count);
+        broadcast.putExtra(EXTRA_CHANGE, improved);
         broadcast.putExtra(EXTRA_ACTION, intent.getAction());
+        broadcast.putExtra(EXTRA_PROGRESS, false);
         sendBroadcast(broadcast, PERMISSION_ACCESS_UPDATE_RESULT);
     }
 
-    private void improveImageInfo(int count,Realm realm){
-        for(int i = 0;i < count;i++){
-            Image image = Image.queryFirstZeroImg(realm);
-            if(null != image)
-                saveToDb(realm,image);
+    /***
+     * 广播一个批次的进度，接收方只需要插入这些图片
+     */
+    private void sendProgressBroadcast(String action, ArrayList<String> updatedIds) {
+        Intent broadcast = new Intent(ACTION_UPDATE_RESULT);
+        broadcast.putExtra(EXTRA_CHANGE, updatedIds.size());
+        broadcast.putExtra(EXTRA_ACTION, action);
+        broadcast.putExtra(EXTRA_PROGRESS, true);
+        broadcast.putStringArrayListExtra(EXTRA_UPDATED_IDS, updatedIds);
+        sendBroadcast(broadcast, PERMISSION_ACCESS_UPDATE_RESULT);
+    }
+
+    /***
+     * 探测所有尺寸为0的图片，网络请求在事务之外进行，结果按批次提交
+     * @param realm Realm 实例
+     * @param concurrency 并发数
+     * @param batchSize 每个事务提交的图片数
+     * @param allowFullDownload 没有缩略图的图片是否允许下载原图提取占位图
+     * @param streamAction 不为空时每提交一批就广播一次进度
+     * @return 新增显示的图片数，和所有进度广播中的 id 数之和一致，重复的图片不计入
+     */
+    private int improveImageInfo(Realm realm, int concurrency, int batchSize, boolean allowFullDownload,
+                                 final String streamAction) {
+        ImageProbeEngine engine = new ImageProbeEngine(new ImageProbeEngine.Prober() {
+            @Override
+            public void probe(String url, Point measured) throws IOException {
+                loadImageForSize(url, measured);
+            }
+        }, concurrency);
+        engine.setExtractor(new ImageFeatureExtractor(client, allowFullDownload));
+        final ProbeBatchWriter writer;
+        if (null == streamAction) {
+            writer = new ProbeBatchWriter(realm, batchSize);
+        } else {
+            writer = new ProbeBatchWriter(realm, batchSize, STREAM_FLUSH_INTERVAL,
+                    new ProbeBatchWriter.OnFlushListener() {
+                        @Override
+                        public void onFlushed(ArrayList<String> updatedIds) {
+                            sendProgressBroadcast(streamAction, updatedIds);
+                        }
+                    });
+            engine.setOnTickListener(STREAM_FLUSH_INTERVAL, new ImageProbeEngine.OnTickListener() {
+                @Override
+                public void onTick() {
+                    writer.flushIfDue();
+                }
+            });
+        }
+        /**本次探测失败的图片，不再重复探测*/
+        final Set<String> failedIds = new HashSet<>();
+
+        for (int round = 0; round < MAX_PROBE_ROUNDS; round++) {
+            writer.nextRound();
+            List<ImageProbeEngine.ProbeTask> tasks = queryPendingTasks(realm, failedIds, writer);
+            if (tasks.isEmpty()) break;
+            engine.probeAll(tasks, new ImageProbeEngine.OnProbeListener() {
+                @Override
+                public void onProbed(ImageProbeEngine.ProbeResult result) {
+                    if (result.isSuccess()) {
+                        writer.add(result);
+                    } else {
+                        Logger.d("Failed to fetch image " + result.task.url);
+                        failedIds.addAll(writer.idsOf(result.task));
+                        writer.addFailure(result);
+                    }
+                }
+            });
         }
+        writer.flush();
+        if (!failedIds.isEmpty()) {
+            Logger.d(failedIds.size() + " image failed to improve");
+        }
+        Logger.d(writer.getWrittenCount() + " image size written, "
+                + (writer.getWrittenCount() - writer.getVisibleCount()) + " duplicate");
+        return writer.getVisibleCount();
     }
 
+    /***
+     * 一次性查询出可以探测的图片，相同 url 的图片只探测一次
+     */
+    private List<ImageProbeEngine.ProbeTask> queryPendingTasks(Realm realm, Set<String> failedIds,
+                                                               ProbeBatchWriter writer) {
+        RealmResults<Image> results = Image.queryProbeEligible(realm, System.currentTimeMillis());
+        List<ImageProbeEngine.ProbeTask> tasks = new ArrayList<>();
+        for (Image image : results) {
+            String id = image.get_id();
+            if (failedIds.contains(id)) continue;
+            ImageProbeEngine.ProbeTask task = new ImageProbeEngine.ProbeTask(id, image.getUrl());
+            if (writer.register(task)) tasks.add(task);
+        }
+        return tasks;
+    }
 
-    /**
-     * 预解码图片并将抓到的图片尺寸保存至数据库
-     *
-     * @param realm   Realm 实例
-     * @param image 图片
-     * @return 是否保存成功
+    /***
+     * 只读取图片文件头计算图片大小，请求带上 Range 头，服务器支持时只会返回文件头部分，
+     * 不支持时读取到尺寸后也会立即关闭连接
+     * @param url
+     * @param measured
+     * @throws IOException
      */
-    private boolean saveToDb(Realm realm, Image image) {
-        realm.beginTransaction();
+    public void loadImageForSize(String url, Point measured) throws IOException {
+        Request request = new Request.Builder()
+                .url(url)
+                .header("Range", "bytes=0-" + (ImageSizeSniffer.DEFAULT_SNIFF_LIMIT - 1))
+                .build();
+        Response response = client.newCall(request).execute();
+        int[] size;
         try {
-            Point size = new Point();
-            loadImageForSize(image.getUrl(),size);
-            image.setHeight(size.y);
-            image.setWidth(size.x);
-            realm.copyToRealmOrUpdate(image);
-        } catch (IOException e) {
-            Logger.d("Failed to fetch image");
-            realm.cancelTransaction();
-            return false;
+            if (!response.isSuccessful()) {
+                throw new IOException("Unexpected code " + response.code() + " for " + url);
+            }
+            size = ImageSizeSniffer.sniffSize(response.body().byteStream());
+        } finally {
+            response.body().close();
         }
-        realm.commitTransaction();
-        return true;
+        if (null == size) {
+            Logger.d("Unknown image header, decode whole image " + url);
+            decodeImageForSize(url, measured);
+            return;
+        }
+        measured.x = size[0];
+        measured.y = size[1];
     }
 
     /***
-     * 加载图片内容计算图片大小
+     * 加载完整图片内容计算图片大小，文件头无法识别时使用
      * @param url
      * @param measured
      * @throws IOException
      */
-    public void loadImageForSize(String url, Point measured) throws IOException {
+    private void decodeImageForSize(String url, Point measured) throws IOException {
         Response response = client.newCall(new Request.Builder().url(url).build()).execute();
-        BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
-        BitmapFactory.decodeStream(response.body().byteStream(), null, options);
-        measured.x = options.outWidth;
-        measured.y = options.outHeight;
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeStream(response.body().byteStream(), null, options);
+            measured.x = options.outWidth;
+            measured.y = options.outHeight;
+        } finally {
+            response.body().close();
+        }
     }
 }
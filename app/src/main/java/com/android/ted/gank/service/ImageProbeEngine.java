@@ -0,0 +1,253 @@
+/*
+ *    Copyright 2015 TedXiong <xiong-wei@hotmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.android.ted.gank.service;
+
+import android.graphics.Point;
+
+import com.android.ted.gank.utils.NetworkUtils;
+import com.orhanobut.logger.Logger;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 并发探测图片尺寸的引擎，同时最多执行 N 个探测请求
+ */
+public class ImageProbeEngine {
+
+    /**并发数上限*/
+    public static final int MAX_CONCURRENCY = 8;
+
+    /**
+     * 单张图片的探测实现
+     */
+    public interface Prober {
+        void probe(String url, Point measured) throws IOException;
+    }
+
+    /**
+     * 尺寸探测成功后提取图片特征，可选
+     */
+    public interface Extractor {
+        ImageFeatures extract(String url, int width, int height) throws IOException;
+    }
+
+    /**
+     * 图片特征，用于列表中的占位图
+     */
+    public static class ImageFeatures {
+        /**主色调*/
+        public int dominantColor;
+        /**模糊缩略图，见 {@link com.android.ted.gank.utils.BlurHash}*/
+        public String blurHash;
+        /**感知哈希，见 {@link com.android.ted.gank.utils.PerceptualHash}*/
+        public long dHash;
+    }
+
+    /**
+     * 探测结果回调，在调用 {@link #probeAll} 的线程上按完成顺序回调
+     */
+    public interface OnProbeListener {
+        void onProbed(ProbeResult result);
+    }
+
+    /**
+     * 等待探测结果时定时回调，在调用 {@link #probeAll} 的线程上执行
+     */
+    public interface OnTickListener {
+        void onTick();
+    }
+
+    /**
+     * 待探测的图片，只保存 id 和 url，Realm 对象不能跨线程传递
+     */
+    public static class ProbeTask {
+        public final String id;
+        public final String url;
+
+        public ProbeTask(String id, String url) {
+            this.id = id;
+            this.url = url;
+        }
+    }
+
+    public static class ProbeResult {
+        public final ProbeTask task;
+        public final int width;
+        public final int height;
+        public final Throwable error;
+        /**没有设置 {@link Extractor} 或者提取失败时为 null*/
+        public final ImageFeatures features;
+
+        ProbeResult(ProbeTask task, int width, int height, Throwable error, ImageFeatures features) {
+            this.task = task;
+            this.width = width;
+            this.height = height;
+            this.error = error;
+            this.features = features;
+        }
+
+        public boolean isSuccess() {
+            return null == error && width > 0 && height > 0;
+        }
+    }
+
+    private final Prober mProber;
+    private final int mConcurrency;
+    private long mTickInterval = 0;
+    private OnTickListener mOnTickListener;
+    private Extractor mExtractor;
+
+    public ImageProbeEngine(Prober prober, int concurrency) {
+        this.mProber = prober;
+        this.mConcurrency = Math.max(1, Math.min(concurrency, MAX_CONCURRENCY));
+    }
+
+    public int getConcurrency() {
+        return mConcurrency;
+    }
+
+    public void setExtractor(Extractor extractor) {
+        this.mExtractor = extractor;
+    }
+
+    public void setOnTickListener(long intervalMillis, OnTickListener listener) {
+        this.mTickInterval = intervalMillis;
+        this.mOnTickListener = listener;
+    }
+
+    /***
+     * 根据网络类型决定并发数
+     * @param networkType {@link NetworkUtils#getNetworkTypeName} 的返回值
+     * @return 并发数
+     */
+    public static int concurrencyFor(String networkType) {
+        if (NetworkUtils.NETWORK_TYPE_WIFI.equals(networkType)) {
+            return 6;
+        }
+        if (NetworkUtils.NETWORK_TYPE_3G.equals(networkType)) {
+            return 3;
+        }
+        if (NetworkUtils.NETWORK_TYPE_2G.equals(networkType)
+                || NetworkUtils.NETWORK_TYPE_WAP.equals(networkType)) {
+            return 1;
+        }
+        return 2;
+    }
+
+    /***
+     * 并发探测所有图片，阻塞直到全部完成
+     * @param tasks 待探测的图片
+     * @param listener 每完成一张回调一次
+     * @return 成功探测的数目
+     */
+    public int probeAll(List<ProbeTask> tasks, OnProbeListener listener) {
+        if (null == tasks || tasks.isEmpty()) return 0;
+        int threads = Math.min(mConcurrency, tasks.size());
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ProbeThreadFactory());
+        CompletionService<ProbeResult> completionService = new ExecutorCompletionService<>(executor);
+        long start = System.currentTimeMillis();
+        int success = 0;
+        try {
+            for (final ProbeTask task : tasks) {
+                completionService.submit(new Callable<ProbeResult>() {
+                    @Override
+                    public ProbeResult call() throws Exception {
+                        return probeOne(task);
+                    }
+                });
+            }
+            int completed = 0;
+            while (completed < tasks.size()) {
+                Future<ProbeResult> future = takeResult(completionService);
+                if (null == future) {
+                    mOnTickListener.onTick();
+                    continue;
+                }
+                completed++;
+                ProbeResult result = future.get();
+                if (result.isSuccess()) success++;
+                if (null != listener) listener.onProbed(result);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Logger.e(e, "probe task crashed");
+        } finally {
+            executor.shutdownNow();
+        }
+        Logger.d("probed " + success + "/" + tasks.size() + " images with " + threads
+                + " threads in " + (System.currentTimeMillis() - start) + "ms");
+        return success;
+    }
+
+    /***
+     * 设置了定时回调时最多等待一个间隔，超时返回 null
+     */
+    private Future<ProbeResult> takeResult(CompletionService<ProbeResult> completionService)
+            throws InterruptedException {
+        if (null == mOnTickListener || mTickInterval <= 0) {
+            return completionService.take();
+        }
+        return completionService.poll(mTickInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private ProbeResult probeOne(ProbeTask task) {
+        Point size = new Point();
+        try {
+            mProber.probe(task.url, size);
+        } catch (IOException | RuntimeException e) {
+            return new ProbeResult(task, 0, 0, e, null);
+        }
+        return new ProbeResult(task, size.x, size.y, null, extractFeatures(task, size));
+    }
+
+    /***
+     * 提取失败不影响尺寸的探测结果
+     */
+    private ImageFeatures extractFeatures(ProbeTask task, Point size) {
+        if (null == mExtractor || size.x <= 0 || size.y <= 0) return null;
+        try {
+            return mExtractor.extract(task.url, size.x, size.y);
+        } catch (IOException | RuntimeException e) {
+            Logger.d("Failed to extract image features " + task.url);
+            return null;
+        }
+    }
+
+    private static class ProbeThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "ImageProbe #" + mCount.getAndIncrement());
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ *    Copyright 2015 TedXiong <xiong-wei@hotmail.com>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.android.ted.gank.service;
+
+import com.android.ted.gank.db.Image;
+import com.android.ted.gank.utils.PerceptualHash;
+import com.android.ted.gank.utils.PictUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.realm.Realm;
+
+/**
+ * 将探测结果按批次写入数据库，每个批次只开启一次事务。
+ * 每次 commit 都会通知所有 RealmChangeListener，批次越大界面刷新越少。
+ * 写入感知哈希时和已有图片比较，内容重复的图片记录 duplicateOf，不再显示
+ */
+class ProbeBatchWriter {
+
+    /**
+     * 每次提交后回调本批次更新了尺寸的图片 id
+     */
+    interface OnFlushListener {
+        void onFlushed(ArrayList<String> updatedIds);
+    }
+
+    private final Realm mRealm;
+    private final int mBatchSize;
+    /**距离上次提交超过该时间后有新结果即提交，0 表示只按数目提交*/
+    private final long mFlushInterval;
+    private final OnFlushListener mOnFlushListener;
+    private long mLastFlushTime = System.currentTimeMillis();
+    private final List<ImageProbeEngine.ProbeResult> mPending;
+    private final List<ImageProbeEngine.ProbeResult> mPendingFailures = new ArrayList<>();
+    /**url 对应的所有图片 id，同一张图片只探测一次，新浪图床的不同地址视为同一个 url*/
+    private final Map<String, List<String>> mIdsByUrl = new HashMap<>();
+    /**不重复的图片 id 和感知哈希，第一次提交时从数据库加载*/
+    private Map<String, Long> mKnownHashes;
+    private int mWrittenCount = 0;
+    /**写入尺寸且不是重复的图片数，等于每批 updatedIds 数目之和*/
+    private int mVisibleCount = 0;
+
+    ProbeBatchWriter(Realm realm, int batchSize) {
+        this(realm, batchSize, 0, null);
+    }
+
+    ProbeBatchWriter(Realm realm, int batchSize, long flushInterval, OnFlushListener listener) {
+        this.mRealm = realm;
+        this.mBatchSize = Math.max(1, batchSize);
+        this.mPending = new ArrayList<>(mBatchSize);
+        this.mFlushInterval = flushInterval;
+        this.mOnFlushListener = listener;
+    }
+
+    /***
+     * 登记待探测的图片
+     * @return 该 url 是否第一次出现，需要探测
+     */
+    boolean register(ImageProbeEngine.ProbeTask task) {
+        String key = PictUtil.getImageUrlKey(task.url);
+        List<String> ids = mIdsByUrl.get(key);
+        if (null == ids) {
+            ids = new ArrayList<>(1);
+            ids.add(task.id);
+            mIdsByUrl.put(key, ids);
+            return true;
+        }
+        if (!ids.contains(task.id)) ids.add(task.id);
+        return false;
+    }
+
+    List<String> idsOf(ImageProbeEngine.ProbeTask task) {
+        List<String> ids = mIdsByUrl.get(PictUtil.getImageUrlKey(task.url));
+        return null == ids ? Collections.singletonList(task.id) : ids;
+    }
+
+    void add(ImageProbeEngine.ProbeResult result) {
+        mPending.add(result);
+        flushIfDue();
+    }
+
+    /***
+     * 记录探测失败，和成功结果一起提交
+     */
+    void addFailure(ImageProbeEngine.ProbeResult result) {
+        mPendingFailures.add(result);
+        flushIfDue();
+    }
+
+    /***
+     * 积累够一个批次，或者距上次提交已经超过时间间隔时提交
+     */
+    void flushIfDue() {
+        if (mPending.size() + mPendingFailures.size() >= mBatchSize) {
+            flush();
+        } else if (mFlushInterval > 0 && !mPending.isEmpty()
+                && System.currentTimeMillis() - mLastFlushTime >= mFlushInterval) {
+            flush();
+        }
+    }
+
+    void flush() {
+        if (mPending.isEmpty() && mPendingFailures.isEmpty()) return;
+        long now = System.currentTimeMillis();
+        ArrayList<String> updatedIds = new ArrayList<>(mPending.size());
+        mRealm.beginTransaction();
+        for (ImageProbeEngine.ProbeResult result : mPending) {
+            for (String id : idsOf(result.task)) {
+                Image image = Image.queryImageById(mRealm, id);
+                if (null == image) continue;
+                image.setWidth(result.width);
+                image.setHeight(result.height);
+                mWrittenCount++;
+                if (null != result.features) {
+                    image.setDominantColor(result.features.dominantColor);
+                    image.setBlurHash(result.features.blurHash);
+                    image.setDHash(result.features.dHash);
+                    if (markIfDuplicate(image)) continue;
+                }
+                updatedIds.add(id);
+            }
+        }
+        for (ImageProbeEngine.ProbeResult result : mPendingFailures) {
+            String error = null == result.error ? "invalid size" : result.error.toString();
+            for (String id : idsOf(result.task)) {
+                Image image = Image.queryImageById(mRealm, id);
+                if (null == image) continue;
+                Image.recordProbeFailure(image, error, now);
+            }
+        }
+        mRealm.commitTransaction();
+        mPending.clear();
+        mPendingFailures.clear();
+        mLastFlushTime = now;
+        mVisibleCount += updatedIds.size();
+        if (null != mOnFlushListener && !updatedIds.isEmpty()) {
+            mOnFlushListener.onFlushed(updatedIds);
+        }
+    }
+
+    /***
+     * 先按索引查找哈希完全相同的图片，找不到再逐个比较汉明距离，需要在事务中调用
+     * @return 是否是重复图片
+     */
+    private boolean markIfDuplicate(Image image) {
+        long hash = image.getDHash();
+        if (hash == 0) return false;
+        if (null == mKnownHashes) {
+            mKnownHashes = new LinkedHashMap<>();
+            for (Image known : Image.queryHashedImages(mRealm)) {
+                mKnownHashes.put(known.get_id(), known.getDHash());
+            }
+        }
+        String id = image.get_id();
+        String original = null;
+        Image exact = mRealm.where(Image.class).equalTo("dHash", hash)
+                .isNull("duplicateOf").notEqualTo("_id", id).findFirst();
+        if (null != exact) {
+            original = exact.get_id();
+        } else {
+            for (Map.Entry<String, Long> entry : mKnownHashes.entrySet()) {
+                if (!entry.getKey().equals(id) && PerceptualHash.isDuplicate(hash, entry.getValue())) {
+                    original = entry.getKey();
+                    break;
+                }
+            }
+        }
+        if (null == original) {
+            mKnownHashes.put(id, hash);
+            return false;
+        }
+        image.setDuplicateOf(original);
+        mKnownHashes.remove(id);
+        return true;
+    }
+
+    /***
+     * 提交剩余的结果并开始新一轮探测
+     */
+    void nextRound() {
+        flush();
+        mIdsByUrl.clear();
+    }
+
+    int getWrittenCount() {
+        return mWrittenCount;
+    }
+
+    /***
+     * 列表中新增显示的图片数，不包括标记为重复的图片
+     */
+    int getVisibleCount() {
+        return mVisibleCount;
+    }
+}
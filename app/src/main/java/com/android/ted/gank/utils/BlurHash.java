@@ -0,0 +1,184 @@
+package com.android.ted.gank.utils;
+
+/**
+ * BlurHash 编解码，用一个 30 字节左右的字符串描述图片的模糊缩略图
+ * 算法见 https://github.com/woltapp/blurhash
+ */
+public class BlurHash {
+
+    private static final String BASE83_CHARS =
+            "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz#$%*+,-.:;=?@[]^_{|}~";
+
+    /***
+     * 编码
+     * @param pixels ARGB 像素
+     * @param width 宽
+     * @param height 高
+     * @param componentX 横向分量数，1~9
+     * @param componentY 纵向分量数，1~9
+     * @return BlurHash 字符串
+     */
+    public static String encode(int[] pixels, int width, int height, int componentX, int componentY) {
+        if (componentX < 1 || componentX > 9 || componentY < 1 || componentY > 9) {
+            throw new IllegalArgumentException("component must between 1 and 9");
+        }
+        if (width * height > pixels.length) {
+            throw new IllegalArgumentException("pixels too short");
+        }
+        double[][] factors = new double[componentX * componentY][3];
+        for (int j = 0; j < componentY; j++) {
+            for (int i = 0; i < componentX; i++) {
+                double normalisation = (i == 0 && j == 0) ? 1 : 2;
+                double r = 0, g = 0, b = 0;
+                for (int x = 0; x < width; x++) {
+                    double cosX = Math.cos(Math.PI * i * x / width);
+                    for (int y = 0; y < height; y++) {
+                        double basis = normalisation * cosX * Math.cos(Math.PI * j * y / height);
+                        int pixel = pixels[y * width + x];
+                        r += basis * sRGBToLinear((pixel >> 16) & 0xFF);
+                        g += basis * sRGBToLinear((pixel >> 8) & 0xFF);
+                        b += basis * sRGBToLinear(pixel & 0xFF);
+                    }
+                }
+                double scale = 1.0 / (width * height);
+                double[] factor = factors[j * componentX + i];
+                factor[0] = r * scale;
+                factor[1] = g * scale;
+                factor[2] = b * scale;
+            }
+        }
+
+        StringBuilder hash = new StringBuilder(4 + 2 * factors.length);
+        encode83((componentX - 1) + (componentY - 1) * 9, 1, hash);
+
+        double maximumValue;
+        if (factors.length > 1) {
+            double actualMax = 0;
+            for (int n = 1; n < factors.length; n++) {
+                for (int c = 0; c < 3; c++) {
+                    actualMax = Math.max(actualMax, Math.abs(factors[n][c]));
+                }
+            }
+            int quantisedMax = (int) Math.max(0, Math.min(82, Math.floor(actualMax * 166 - 0.5)));
+            maximumValue = (quantisedMax + 1) / 166.0;
+            encode83(quantisedMax, 1, hash);
+        } else {
+            maximumValue = 1;
+            encode83(0, 1, hash);
+        }
+
+        double[] dc = factors[0];
+        encode83((linearToSRGB(dc[0]) << 16) + (linearToSRGB(dc[1]) << 8) + linearToSRGB(dc[2]), 4, hash);
+        for (int n = 1; n < factors.length; n++) {
+            encode83(encodeAC(factors[n], maximumValue), 2, hash);
+        }
+        return hash.toString();
+    }
+
+    /***
+     * 解码
+     * @param blurHash BlurHash 字符串
+     * @param width 输出宽度，缩略图几十像素就足够
+     * @param height 输出高度
+     * @return ARGB 像素，字符串非法时返回 null
+     */
+    public static int[] decode(String blurHash, int width, int height) {
+        if (null == blurHash || blurHash.length() < 6 || width <= 0 || height <= 0) return null;
+        int sizeFlag = decode83(blurHash, 0, 1);
+        int componentY = sizeFlag / 9 + 1;
+        int componentX = sizeFlag % 9 + 1;
+        if (sizeFlag < 0 || blurHash.length() != 4 + 2 * componentX * componentY) return null;
+
+        double maximumValue = (decode83(blurHash, 1, 2) + 1) / 166.0;
+        double[][] colors = new double[componentX * componentY][3];
+        int dc = decode83(blurHash, 2, 6);
+        colors[0][0] = sRGBToLinear(dc >> 16);
+        colors[0][1] = sRGBToLinear((dc >> 8) & 0xFF);
+        colors[0][2] = sRGBToLinear(dc & 0xFF);
+        for (int n = 1; n < colors.length; n++) {
+            int ac = decode83(blurHash, 4 + n * 2, 6 + n * 2);
+            if (ac < 0) return null;
+            colors[n][0] = signPow((ac / (19 * 19) - 9) / 9.0, 2) * maximumValue;
+            colors[n][1] = signPow(((ac / 19) % 19 - 9) / 9.0, 2) * maximumValue;
+            colors[n][2] = signPow((ac % 19 - 9) / 9.0, 2) * maximumValue;
+        }
+
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double r = 0, g = 0, b = 0;
+                for (int j = 0; j < componentY; j++) {
+                    double cosY = Math.cos(Math.PI * y * j / height);
+                    for (int i = 0; i < componentX; i++) {
+                        double basis = Math.cos(Math.PI * x * i / width) * cosY;
+                        double[] color = colors[j * componentX + i];
+                        r += color[0] * basis;
+                        g += color[1] * basis;
+                        b += color[2] * basis;
+                    }
+                }
+                pixels[y * width + x] = 0xFF000000 | (linearToSRGB(r) << 16)
+                        | (linearToSRGB(g) << 8) | linearToSRGB(b);
+            }
+        }
+        return pixels;
+    }
+
+    /***
+     * 取出 BlurHash 中的平均色，不需要完整解码
+     */
+    public static int averageColor(String blurHash) {
+        if (null == blurHash || blurHash.length() < 6) return 0;
+        int dc = decode83(blurHash, 2, 6);
+        return dc < 0 ? 0 : 0xFF000000 | dc;
+    }
+
+    private static int encodeAC(double[] value, double maximumValue) {
+        int quantR = quantiseAC(value[0] / maximumValue);
+        int quantG = quantiseAC(value[1] / maximumValue);
+        int quantB = quantiseAC(value[2] / maximumValue);
+        return quantR * 19 * 19 + quantG * 19 + quantB;
+    }
+
+    private static int quantiseAC(double value) {
+        return (int) Math.max(0, Math.min(18, Math.floor(signPow(value, 0.5) * 9 + 9.5)));
+    }
+
+    private static double signPow(double value, double exp) {
+        return Math.copySign(Math.pow(Math.abs(value), exp), value);
+    }
+
+    private static double sRGBToLinear(int value) {
+        double v = value / 255.0;
+        return v <= 0.04045 ? v / 12.92 : Math.pow((v + 0.055) / 1.055, 2.4);
+    }
+
+    private static int linearToSRGB(double value) {
+        double v = Math.max(0, Math.min(1, value));
+        if (v <= 0.0031308) {
+            return (int) (v * 12.92 * 255 + 0.5);
+        }
+        return (int) ((1.055 * Math.pow(v, 1 / 2.4) - 0.055) * 255 + 0.5);
+    }
+
+    private static void encode83(int value, int length, StringBuilder out) {
+        int divisor = 1;
+        for (int i = 1; i < length; i++) {
+            divisor *= 83;
+        }
+        for (int i = 0; i < length; i++) {
+            out.append(BASE83_CHARS.charAt((value / divisor) % 83));
+            divisor /= 83;
+        }
+    }
+
+    private static int decode83(String str, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int index = BASE83_CHARS.indexOf(str.charAt(i));
+            if (index < 0) return -1;
+            value = value * 83 + index;
+        }
+        return value;
+    }
+}
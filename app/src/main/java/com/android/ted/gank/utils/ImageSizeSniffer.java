@@ -0,0 +1,195 @@
+package com.android.ted.gank.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 只读取图片文件头来获取图片尺寸，支持 JPEG、PNG、GIF 和 WebP
+ */
+public class ImageSizeSniffer {
+
+    /**最多读取的字节数，JPEG 的 EXIF 缩略图可能把 SOF 推到比较靠后的位置*/
+    public static final int DEFAULT_SNIFF_LIMIT = 64 * 1024;
+
+    /***
+     * 读取图片尺寸
+     * @param in 图片数据流，调用方负责关闭
+     * @param limit 最多读取的字节数
+     * @return {width, height}，无法识别时返回 null
+     * @throws IOException
+     */
+    public static int[] sniffSize(InputStream in, int limit) throws IOException {
+        LimitedReader reader = new LimitedReader(in, limit);
+        try {
+            int b0 = reader.read();
+            int b1 = reader.read();
+            if (b0 == 0xFF && b1 == 0xD8) {
+                return sniffJpeg(reader);
+            }
+            if (b0 == 0x89 && b1 == 'P') {
+                return sniffPng(reader);
+            }
+            if (b0 == 'G' && b1 == 'I') {
+                return sniffGif(reader);
+            }
+            if (b0 == 'R' && b1 == 'I') {
+                return sniffWebp(reader);
+            }
+        } catch (EOFException e) {
+            //文件头不完整或者超出读取上限
+        }
+        return null;
+    }
+
+    public static int[] sniffSize(InputStream in) throws IOException {
+        return sniffSize(in, DEFAULT_SNIFF_LIMIT);
+    }
+
+    private static int[] sniffJpeg(LimitedReader reader) throws IOException {
+        while (true) {
+            int marker = reader.read();
+            if (marker != 0xFF) return null;
+            //跳过填充字节
+            while (marker == 0xFF) {
+                marker = reader.read();
+            }
+            if (marker == 0xD8 || marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                continue;
+            }
+            //图像数据开始或者结束，没有找到 SOF
+            if (marker == 0xD9 || marker == 0xDA) return null;
+
+            int length = reader.readUInt16BE();
+            if (length < 2) return null;
+            if (isSofMarker(marker)) {
+                reader.skip(1);
+                int height = reader.readUInt16BE();
+                int width = reader.readUInt16BE();
+                return valid(width, height);
+            }
+            reader.skip(length - 2);
+        }
+    }
+
+    private static boolean isSofMarker(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF
+                && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    private static int[] sniffPng(LimitedReader reader) throws IOException {
+        if (reader.read() != 'N' || reader.read() != 'G') return null;
+        //签名剩余的 4 字节和 IHDR 的长度
+        reader.skip(8);
+        if (reader.read() != 'I' || reader.read() != 'H' || reader.read() != 'D' || reader.read() != 'R') {
+            return null;
+        }
+        int width = reader.readInt32BE();
+        int height = reader.readInt32BE();
+        return valid(width, height);
+    }
+
+    private static int[] sniffGif(LimitedReader reader) throws IOException {
+        if (reader.read() != 'F' || reader.read() != '8') return null;
+        reader.skip(2);
+        int width = reader.readUInt16LE();
+        int height = reader.readUInt16LE();
+        return valid(width, height);
+    }
+
+    private static int[] sniffWebp(LimitedReader reader) throws IOException {
+        if (reader.read() != 'F' || reader.read() != 'F') return null;
+        reader.skip(4);
+        if (reader.read() != 'W' || reader.read() != 'E' || reader.read() != 'B' || reader.read() != 'P') {
+            return null;
+        }
+        int c0 = reader.read();
+        int c1 = reader.read();
+        int c2 = reader.read();
+        int c3 = reader.read();
+        if (c0 != 'V' || c1 != 'P' || c2 != '8') return null;
+        //chunk size
+        reader.skip(4);
+        if (c3 == ' ') {
+            //有损：3 字节帧标记 + 3 字节起始码 9D 01 2A
+            reader.skip(3);
+            if (reader.read() != 0x9D || reader.read() != 0x01 || reader.read() != 0x2A) return null;
+            int width = reader.readUInt16LE() & 0x3FFF;
+            int height = reader.readUInt16LE() & 0x3FFF;
+            return valid(width, height);
+        }
+        if (c3 == 'L') {
+            //无损：1 字节签名 0x2F，随后 14 位宽度减一、14 位高度减一
+            if (reader.read() != 0x2F) return null;
+            int bits = reader.read() | (reader.read() << 8) | (reader.read() << 16) | (reader.read() << 24);
+            int width = (bits & 0x3FFF) + 1;
+            int height = ((bits >> 14) & 0x3FFF) + 1;
+            return valid(width, height);
+        }
+        if (c3 == 'X') {
+            //扩展格式：1 字节标记 + 3 字节保留，随后 24 位画布宽度减一、高度减一
+            reader.skip(4);
+            int width = reader.readUInt24LE() + 1;
+            int height = reader.readUInt24LE() + 1;
+            return valid(width, height);
+        }
+        return null;
+    }
+
+    private static int[] valid(int width, int height) {
+        if (width <= 0 || height <= 0) return null;
+        return new int[]{width, height};
+    }
+
+    /**
+     * 带读取上限的顺序读取器，超出上限或者流结束时抛出 {@link EOFException}
+     */
+    private static class LimitedReader {
+        private final InputStream in;
+        private int remaining;
+
+        LimitedReader(InputStream in, int limit) {
+            this.in = in;
+            this.remaining = limit;
+        }
+
+        int read() throws IOException {
+            if (remaining <= 0) throw new EOFException();
+            int b = in.read();
+            if (b < 0) throw new EOFException();
+            remaining--;
+            return b;
+        }
+
+        void skip(int count) throws IOException {
+            if (count > remaining) throw new EOFException();
+            while (count > 0) {
+                long skipped = in.skip(count);
+                if (skipped <= 0) {
+                    //部分流不支持 skip，退回逐字节读取
+                    read();
+                    count--;
+                } else {
+                    count -= skipped;
+                    remaining -= skipped;
+                }
+            }
+        }
+
+        int readUInt16BE() throws IOException {
+            return (read() << 8) | read();
+        }
+
+        int readUInt16LE() throws IOException {
+            return read() | (read() << 8);
+        }
+
+        int readUInt24LE() throws IOException {
+            return read() | (read() << 8) | (read() << 16);
+        }
+
+        int readInt32BE() throws IOException {
+            return (read() << 24) | (read() << 16) | (read() << 8) | read();
+        }
+    }
+}
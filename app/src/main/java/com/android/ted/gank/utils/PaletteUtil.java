@@ -0,0 +1,37 @@
+package com.android.ted.gank.utils;
+
+/**
+ * 图片取色
+ */
+public class PaletteUtil {
+
+    /***
+     * 计算主色调：每个通道量化为 4 位做直方图，取像素最多的格子内的平均色
+     * @param pixels ARGB 像素，几十像素见方的缩略图就足够
+     * @return 主色调，没有像素时返回 0
+     */
+    public static int dominantColor(int[] pixels) {
+        if (null == pixels || pixels.length == 0) return 0;
+        int[] counts = new int[4096];
+        for (int pixel : pixels) {
+            counts[bucketOf(pixel)]++;
+        }
+        int best = 0;
+        for (int i = 1; i < counts.length; i++) {
+            if (counts[i] > counts[best]) best = i;
+        }
+        long r = 0, g = 0, b = 0;
+        for (int pixel : pixels) {
+            if (bucketOf(pixel) != best) continue;
+            r += (pixel >> 16) & 0xFF;
+            g += (pixel >> 8) & 0xFF;
+            b += pixel & 0xFF;
+        }
+        int count = counts[best];
+        return 0xFF000000 | (int) (r / count) << 16 | (int) (g / count) << 8 | (int) (b / count);
+    }
+
+    private static int bucketOf(int pixel) {
+        return ((pixel >> 12) & 0xF00) | ((pixel >> 8) & 0xF0) | ((pixel >> 4) & 0xF);
+    }
+}
@@ -0,0 +1,56 @@
+package com.android.ted.gank.utils;
+
+/**
+ * 图片感知哈希 (dHash)，内容相同但尺寸、压缩质量不同的图片哈希值相近
+ */
+public class PerceptualHash {
+
+    /**汉明距离不超过该值的两张图认为是同一张图*/
+    public static final int DUPLICATE_DISTANCE = 6;
+
+    private static final int HASH_WIDTH = 9;
+    private static final int HASH_HEIGHT = 8;
+
+    /***
+     * 计算 dHash：缩小到 9x8 的灰度图，比较每行相邻像素的明暗得到 64 位
+     * @param pixels ARGB 像素
+     * @param width 宽
+     * @param height 高
+     * @return 64 位哈希
+     */
+    public static long dHash(int[] pixels, int width, int height) {
+        double[] gray = new double[HASH_WIDTH * HASH_HEIGHT];
+        int[] counts = new int[HASH_WIDTH * HASH_HEIGHT];
+        //按面积平均缩小，避免最近邻取样带来的噪声
+        for (int y = 0; y < height; y++) {
+            int cellY = y * HASH_HEIGHT / height;
+            for (int x = 0; x < width; x++) {
+                int cell = cellY * HASH_WIDTH + x * HASH_WIDTH / width;
+                int pixel = pixels[y * width + x];
+                gray[cell] += 0.299 * ((pixel >> 16) & 0xFF)
+                        + 0.587 * ((pixel >> 8) & 0xFF)
+                        + 0.114 * (pixel & 0xFF);
+                counts[cell]++;
+            }
+        }
+        for (int i = 0; i < gray.length; i++) {
+            if (counts[i] > 0) gray[i] /= counts[i];
+        }
+        long hash = 0;
+        for (int y = 0; y < HASH_HEIGHT; y++) {
+            for (int x = 0; x < HASH_WIDTH - 1; x++) {
+                hash <<= 1;
+                if (gray[y * HASH_WIDTH + x] > gray[y * HASH_WIDTH + x + 1]) hash |= 1;
+            }
+        }
+        return hash;
+    }
+
+    public static int hammingDistance(long hash1, long hash2) {
+        return Long.bitCount(hash1 ^ hash2);
+    }
+
+    public static boolean isDuplicate(long hash1, long hash2) {
+        return hammingDistance(hash1, hash2) <= DUPLICATE_DISTANCE;
+    }
+}
@@ -25,12 +25,41 @@ import com.orhanobut.logger.Logger;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Created by Ted on 2015/8/30.
  */
 public class PictUtil {
 
+    private static final Pattern SINA_IMAGE_PATTERN =
+            Pattern.compile("^https?://[a-z0-9]+\\.sinaimg\\.cn/([^/]+)(/.+)$");
+
+    /***
+     * 新浪图床的缩略图地址，例如 http://ww1.sinaimg.cn/large/xxx.jpg -> http://ww1.sinaimg.cn/thumbnail/xxx.jpg
+     * @param url 图片地址
+     * @return 不是新浪图床时返回 null
+     */
+    public static String getSinaThumbnailUrl(String url) {
+        if (null == url) return null;
+        Matcher matcher = SINA_IMAGE_PATTERN.matcher(url);
+        if (!matcher.matches()) return null;
+        return url.substring(0, matcher.start(1)) + "thumbnail" + matcher.group(2);
+    }
+
+    /***
+     * 同一张图片在新浪图床上会有 ww1~ww4、large/mw690 等多种地址，统一成一个 key
+     * @param url 图片地址
+     * @return 不是新浪图床时返回原地址
+     */
+    public static String getImageUrlKey(String url) {
+        if (null == url) return null;
+        Matcher matcher = SINA_IMAGE_PATTERN.matcher(url);
+        if (!matcher.matches()) return url;
+        return "sinaimg:" + matcher.group(2);
+    }
+
     public static String getImageFileName(String url){
         String fileName = url.substring(url.lastIndexOf('/') + 1, url.length()) + (url.endsWith(".jpg")?"":".jpg");
         return fileName;
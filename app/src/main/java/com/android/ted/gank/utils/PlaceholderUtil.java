@@ -0,0 +1,55 @@
+package com.android.ted.gank.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.text.TextUtils;
+import android.util.LruCache;
+
+import com.android.ted.gank.db.Image;
+
+/**
+ * 根据探测时保存的 BlurHash 和主色调生成图片加载前的占位图
+ */
+public class PlaceholderUtil {
+
+    /**解码宽度，显示时由 ImageView 拉伸，本身就是模糊的*/
+    private static final int DECODE_WIDTH = 16;
+
+    private static final LruCache<String, Bitmap> sBlurCache = new LruCache<>(64);
+
+    /***
+     * 获取占位图
+     * @param context
+     * @param image 图片
+     * @return 没有占位信息时返回 null
+     */
+    public static Drawable getPlaceholder(Context context, Image image) {
+        if (null == image) return null;
+        String blurHash = image.getBlurHash();
+        if (!TextUtils.isEmpty(blurHash)) {
+            Bitmap bitmap = decodeBlurHash(blurHash, image.getWidth(), image.getHeight());
+            if (null != bitmap) return new BitmapDrawable(context.getResources(), bitmap);
+        }
+        if (image.getDominantColor() != 0) {
+            return new ColorDrawable(image.getDominantColor());
+        }
+        return null;
+    }
+
+    private static Bitmap decodeBlurHash(String blurHash, int width, int height) {
+        Bitmap bitmap = sBlurCache.get(blurHash);
+        if (null != bitmap) return bitmap;
+        int decodeHeight = DECODE_WIDTH;
+        if (width > 0 && height > 0) {
+            decodeHeight = Math.max(1, Math.min(DECODE_WIDTH * 4, DECODE_WIDTH * height / width));
+        }
+        int[] pixels = BlurHash.decode(blurHash, DECODE_WIDTH, decodeHeight);
+        if (null == pixels) return null;
+        bitmap = Bitmap.createBitmap(pixels, DECODE_WIDTH, decodeHeight, Bitmap.Config.ARGB_8888);
+        sBlurCache.put(blurHash, bitmap);
+        return bitmap;
+    }
+}
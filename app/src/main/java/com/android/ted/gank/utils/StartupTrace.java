@@ -0,0 +1,56 @@
+package com.android.ted.gank.utils;
+
+import android.os.SystemClock;
+import android.os.Trace;
+
+import com.orhanobut.logger.Logger;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 启动过程的耗时记录：分段同时写入 systrace，用 "python systrace.py -a com.android.ted.gank" 查看，
+ * 日志中打印每段的耗时和距离 Application 创建的时间
+ */
+public class StartupTrace {
+
+    private static long sStartTime = -1;
+    private static final Set<String> sMarks = new HashSet<>();
+
+    /***
+     * 在 Application.onCreate 开始时调用，之后的时间都相对这里计算
+     */
+    public static void start() {
+        sStartTime = SystemClock.elapsedRealtime();
+    }
+
+    /***
+     * 开始一段，和 {@link #end} 在同一个线程成对调用
+     * @return 开始时间，传给 {@link #end}
+     */
+    public static long begin(String section) {
+        Trace.beginSection(section);
+        return SystemClock.elapsedRealtime();
+    }
+
+    public static void end(String section, long begin) {
+        Trace.endSection();
+        long now = SystemClock.elapsedRealtime();
+        Logger.d("startup " + section + ": " + (now - begin) + "ms, at +" + sinceStart(now) + "ms");
+    }
+
+    /***
+     * 记录一个时间点，每个名字只记录第一次，例如第一次收到接口数据、第一页显示
+     */
+    public static void markOnce(String name, String detail) {
+        synchronized (sMarks) {
+            if (!sMarks.add(name)) return;
+        }
+        Logger.d("startup " + name + " at +" + sinceStart(SystemClock.elapsedRealtime()) + "ms"
+                + (null == detail ? "" : ", " + detail));
+    }
+
+    private static long sinceStart(long now) {
+        return sStartTime < 0 ? -1 : now - sStartTime;
+    }
+}
@@ -0,0 +1,40 @@
+package com.android.ted.gank.data;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 回填进度的记录：区间只在连续完成时扩大，和新范围不相连时重新开始
+ */
+public class HistoryBackfillTest {
+
+    @Test
+    public void rangeTouchesOverlappingOrAdjacentDays() {
+        assertTrue(HistoryBackfill.touches("2016-01-01", "2016-03-01", "2016-02-01", "2016-05-01"));
+        assertTrue(HistoryBackfill.touches("2016-01-01", "2016-03-01", "2016-03-02", "2016-05-01"));
+        assertTrue(HistoryBackfill.touches("2016-06-01", "2016-07-01", "2016-03-01", "2016-05-31"));
+    }
+
+    @Test
+    public void rangeDoesNotTouchAcrossGap() {
+        //超过 90 天没有回填，上次的区间比本次范围的第一天还早
+        assertFalse(HistoryBackfill.touches("2016-01-01", "2016-03-01", "2016-03-03", "2016-05-31"));
+        assertFalse(HistoryBackfill.touches("2016-06-02", "2016-07-01", "2016-03-01", "2016-05-31"));
+    }
+
+    @Test
+    public void watermarkAdvancesOnlyWhenContiguous() {
+        HistoryBackfill.Watermark watermark = new HistoryBackfill.Watermark(
+                Arrays.asList("2016-05-03", "2016-05-02", "2016-05-01"));
+        assertNull(watermark.markDone("2016-05-02"));
+        assertEquals("2016-05-02", watermark.markDone("2016-05-03"));
+        assertNull(watermark.markDone("2016-04-30"));
+        assertEquals("2016-05-01", watermark.markDone("2016-05-01"));
+    }
+}
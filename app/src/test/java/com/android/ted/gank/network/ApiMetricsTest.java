@@ -0,0 +1,35 @@
+package com.android.ted.gank.network;
+
+import org.junit.Test;
+
+import okhttp3.HttpUrl;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 接口模板按注入的接口地址去掉前缀，模拟服务器的路径深度可以和线上不同
+ */
+public class ApiMetricsTest {
+
+    private static int pathSizeOf(String endpoint) {
+        return HttpUrl.parse(endpoint).pathSegments().size() - 1;
+    }
+
+    @Test
+    public void templateStripsProductionEndpoint() {
+        int size = pathSizeOf(GankCloudApi.ENDPOINT);
+        assertEquals("data/Android/{n}/{n}",
+                ApiMetrics.endpointOf(HttpUrl.parse("https://gank.io/api/data/Android/20/1"), size));
+        assertEquals("day/{n}/{n}/{n}",
+                ApiMetrics.endpointOf(HttpUrl.parse("https://gank.io/api/day/2016/05/11"), size));
+    }
+
+    @Test
+    public void templateStripsInjectedEndpoint() {
+        int size = pathSizeOf("http://127.0.0.1:8080/mock/v2/api/");
+        assertEquals("data/福利/{n}/{n}", ApiMetrics.endpointOf(
+                HttpUrl.parse("http://127.0.0.1:8080/mock/v2/api/data/福利/10/2"), size));
+        assertEquals("data/iOS/{n}/{n}", ApiMetrics.endpointOf(
+                HttpUrl.parse("http://127.0.0.1:8080/data/iOS/10/2"), pathSizeOf("http://127.0.0.1:8080/")));
+    }
+}
@@ -0,0 +1,147 @@
+package com.android.ted.gank.network;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 熔断器状态变化，时间由测试控制
+ */
+public class CircuitBreakerTest {
+
+    private static final int THRESHOLD = 3;
+    private static final long OPEN_MILLIS = 1000;
+
+    private long mNow = 10000;
+    private CircuitBreaker mBreaker;
+    private final List<String> mTransitions = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        mBreaker = new CircuitBreaker("data/Android", THRESHOLD, OPEN_MILLIS) {
+            @Override
+            long now() {
+                return mNow;
+            }
+        };
+        mBreaker.setOnStateChangeListener(new CircuitBreaker.OnStateChangeListener() {
+            @Override
+            public void onStateChanged(CircuitBreaker breaker, CircuitBreaker.State from, CircuitBreaker.State to) {
+                mTransitions.add(from + "->" + to);
+            }
+        });
+    }
+
+    private void fail(int times) {
+        for (int i = 0; i < times; i++) {
+            assertTrue(mBreaker.allowRequest());
+            mBreaker.onFailure();
+        }
+    }
+
+    @Test
+    public void staysClosedBelowThreshold() {
+        fail(THRESHOLD - 1);
+        assertEquals(CircuitBreaker.State.CLOSED, mBreaker.getState());
+        assertTrue(mTransitions.isEmpty());
+    }
+
+    @Test
+    public void successResetsConsecutiveFailures() {
+        fail(THRESHOLD - 1);
+        mBreaker.onSuccess();
+        fail(THRESHOLD - 1);
+        assertEquals(CircuitBreaker.State.CLOSED, mBreaker.getState());
+    }
+
+    @Test
+    public void tripsAtThreshold() {
+        fail(THRESHOLD);
+        assertEquals(CircuitBreaker.State.OPEN, mBreaker.getState());
+        assertEquals("CLOSED->OPEN", mTransitions.get(0));
+        assertEquals(1, mTransitions.size());
+    }
+
+    @Test
+    public void failsFastWhileOpen() {
+        fail(THRESHOLD);
+        mNow += OPEN_MILLIS - 1;
+        for (int i = 0; i < 10; i++) {
+            assertFalse(mBreaker.allowRequest());
+        }
+        assertEquals(CircuitBreaker.State.OPEN, mBreaker.getState());
+    }
+
+    @Test
+    public void allowsSingleTrialWhenHalfOpen() {
+        fail(THRESHOLD);
+        mNow += OPEN_MILLIS;
+        assertTrue(mBreaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, mBreaker.getState());
+        //试探请求返回之前其他请求都直接失败
+        assertFalse(mBreaker.allowRequest());
+        assertFalse(mBreaker.allowRequest());
+    }
+
+    @Test
+    public void closesWhenTrialSucceeds() {
+        fail(THRESHOLD);
+        mNow += OPEN_MILLIS;
+        assertTrue(mBreaker.allowRequest());
+        mBreaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, mBreaker.getState());
+        assertTrue(mBreaker.allowRequest());
+        assertEquals("[CLOSED->OPEN, OPEN->HALF_OPEN, HALF_OPEN->CLOSED]", mTransitions.toString());
+    }
+
+    @Test
+    public void reopensWhenTrialFails() {
+        fail(THRESHOLD);
+        mNow += OPEN_MILLIS;
+        assertTrue(mBreaker.allowRequest());
+        mBreaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, mBreaker.getState());
+        //重新计时
+        mNow += OPEN_MILLIS - 1;
+        assertFalse(mBreaker.allowRequest());
+        mNow += 1;
+        assertTrue(mBreaker.allowRequest());
+    }
+
+    @Test
+    public void cancelledTrialReleasesSlot() {
+        fail(THRESHOLD);
+        mNow += OPEN_MILLIS;
+        assertTrue(mBreaker.allowRequest());
+        assertFalse(mBreaker.allowRequest());
+        //试探请求没有结果就被取消，下一个请求重新试探
+        mBreaker.onCancelled();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, mBreaker.getState());
+        assertTrue(mBreaker.allowRequest());
+        assertFalse(mBreaker.allowRequest());
+        mBreaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, mBreaker.getState());
+    }
+
+    @Test
+    public void cancelWhenClosedChangesNothing() {
+        assertTrue(mBreaker.allowRequest());
+        mBreaker.onCancelled();
+        assertEquals(CircuitBreaker.State.CLOSED, mBreaker.getState());
+        assertTrue(mTransitions.isEmpty());
+    }
+
+    @Test
+    public void resetCloses() {
+        fail(THRESHOLD);
+        mBreaker.reset();
+        assertEquals(CircuitBreaker.State.CLOSED, mBreaker.getState());
+        assertTrue(mBreaker.allowRequest());
+    }
+}
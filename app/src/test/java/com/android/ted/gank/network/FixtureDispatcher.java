@@ -0,0 +1,190 @@
+package com.android.ted.gank.network;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * 用录制的接口数据模拟 gank.io：fixtures/data 下每个分类录制了一页（福利保存为 benefit.json），
+ * 按请求的条数循环补齐，_id 加上页码保证不重复，超过 pageCount 页返回空列表；
+ * fixtures/day 下是每日数据和历史日期。
+ * 每个响应带 ETag，If-None-Match 相同时返回 304，响应延迟和带宽可以配置
+ */
+class FixtureDispatcher extends Dispatcher {
+
+    private static final String FIXTURE_ROOT = "fixtures/";
+    private static final String EMPTY_PAGE = "{\"error\":false,\"results\":[]}";
+    private static final long THROTTLE_PERIOD = 100;
+    /**文件名不使用中文，避免在默认编码不是 UTF-8 的机器上找不到资源*/
+    private static final Map<String, String> FIXTURE_NAMES = Collections.singletonMap("福利", "benefit");
+
+    private final long mLatency;
+    private final long mBytesPerSecond;
+    private final int mPageCount;
+    /**fixture 路径对应的内容，第一次请求时加载*/
+    private final ConcurrentMap<String, JsonObject> mFixtures = new ConcurrentHashMap<>();
+    /**按接口模板统计的请求数，例如 "data/Android"、"day/history"*/
+    private final ConcurrentMap<String, AtomicInteger> mRequestCounts = new ConcurrentHashMap<>();
+    private final AtomicInteger mNotModifiedCount = new AtomicInteger();
+
+    /***
+     * @param latency 每个响应在发送响应头前等待的时间，毫秒，304 也同样等待
+     * @param bytesPerSecond 响应内容的带宽，0 表示不限制
+     * @param pageCount 每个分类的页数
+     */
+    FixtureDispatcher(long latency, long bytesPerSecond, int pageCount) {
+        this.mLatency = latency;
+        this.mBytesPerSecond = bytesPerSecond;
+        this.mPageCount = pageCount;
+    }
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+        if (mLatency > 0) Thread.sleep(mLatency);
+        List<String> segments = HttpUrl.parse("http://localhost" + request.getPath()).pathSegments();
+        String body = null;
+        try {
+            body = bodyOf(segments);
+        } catch (IOException e) {
+            //没有对应的 fixture，返回 404
+        }
+        if (null == body) {
+            count("other");
+            return new MockResponse().setResponseCode(404);
+        }
+        String etag = "\"" + Integer.toHexString(body.hashCode()) + "\"";
+        MockResponse response = new MockResponse().setHeader("ETag", etag);
+        if (etag.equals(request.getHeader("If-None-Match"))) {
+            mNotModifiedCount.incrementAndGet();
+            return response.setResponseCode(304);
+        }
+        response.setHeader("Content-Type", "application/json; charset=utf-8").setBody(body);
+        if (mBytesPerSecond > 0) {
+            response.throttleBody(Math.max(1, mBytesPerSecond * THROTTLE_PERIOD / 1000),
+                    THROTTLE_PERIOD, TimeUnit.MILLISECONDS);
+        }
+        return response;
+    }
+
+    /***
+     * 支持 data/{type}/{limit}/{page}、day/history 和 day/{year}/{month}/{day}
+     */
+    private String bodyOf(List<String> segments) throws IOException {
+        if (segments.size() == 4 && "data".equals(segments.get(0))) {
+            String type = segments.get(1);
+            count("data/" + type);
+            int limit = Integer.parseInt(segments.get(2));
+            int page = Integer.parseInt(segments.get(3));
+            if (page > mPageCount) return EMPTY_PAGE;
+            String name = FIXTURE_NAMES.containsKey(type) ? FIXTURE_NAMES.get(type) : type;
+            return page(fixture("data/" + name + ".json"), limit, page).toString();
+        }
+        if (segments.size() == 2 && "day".equals(segments.get(0)) && "history".equals(segments.get(1))) {
+            count("day/history");
+            return fixture("day/history.json").toString();
+        }
+        if (segments.size() == 4 && "day".equals(segments.get(0))) {
+            count("day");
+            return fixture("day/" + segments.get(1) + "-" + pad(segments.get(2)) + "-"
+                    + pad(segments.get(3)) + ".json").toString();
+        }
+        return null;
+    }
+
+    /***
+     * 循环使用录制的条目补齐一页
+     */
+    private static JsonObject page(JsonObject recorded, int limit, int page) {
+        JsonArray items = recorded.getAsJsonArray("results");
+        JsonArray results = new JsonArray();
+        for (int i = 0; i < limit && items.size() > 0; i++) {
+            JsonObject item = copyOf(items.get(i % items.size()).getAsJsonObject());
+            item.addProperty("_id", item.get("_id").getAsString() + "-" + page + "-" + i);
+            results.add(item);
+        }
+        JsonObject result = new JsonObject();
+        result.addProperty("error", false);
+        result.add("results", results);
+        return result;
+    }
+
+    private static JsonObject copyOf(JsonObject object) {
+        JsonObject copy = new JsonObject();
+        for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+            copy.add(entry.getKey(), entry.getValue());
+        }
+        return copy;
+    }
+
+    private static String pad(String value) {
+        return value.length() == 1 ? "0" + value : value;
+    }
+
+    private JsonObject fixture(String path) throws IOException {
+        JsonObject fixture = mFixtures.get(path);
+        if (null != fixture) return fixture;
+        InputStream in = FixtureDispatcher.class.getClassLoader().getResourceAsStream(FIXTURE_ROOT + path);
+        if (null == in) throw new IOException("No fixture " + path);
+        Reader reader = new InputStreamReader(in, "UTF-8");
+        try {
+            fixture = new JsonParser().parse(reader).getAsJsonObject();
+        } finally {
+            reader.close();
+        }
+        mFixtures.put(path, fixture);
+        return fixture;
+    }
+
+    private void count(String template) {
+        AtomicInteger count = mRequestCounts.get(template);
+        if (null == count) {
+            mRequestCounts.putIfAbsent(template, new AtomicInteger());
+            count = mRequestCounts.get(template);
+        }
+        count.incrementAndGet();
+    }
+
+    int getRequestCount(String template) {
+        AtomicInteger count = mRequestCounts.get(template);
+        return null == count ? 0 : count.get();
+    }
+
+    /***
+     * 各接口模板的请求数，按名称排序
+     */
+    Map<String, Integer> getRequestCounts() {
+        Map<String, Integer> counts = new TreeMap<>();
+        for (Map.Entry<String, AtomicInteger> entry : mRequestCounts.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    int getNotModifiedCount() {
+        return mNotModifiedCount.get();
+    }
+
+    void reset() {
+        mRequestCounts.clear();
+        mNotModifiedCount.set(0);
+    }
+}
@@ -0,0 +1,305 @@
+package com.android.ted.gank.network;
+
+import com.android.ted.gank.model.DayGoodsResult;
+import com.android.ted.gank.model.DayHistoryResult;
+import com.android.ted.gank.model.GoodsResult;
+import com.google.gson.stream.JsonWriter;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockWebServer;
+import rx.Observable;
+import rx.Scheduler;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 接口层的压测：用 {@link FixtureDispatcher} 回放录制的数据，通过
+ * {@link GankCloudApi#GankCloudApi(String, OkHttpClient.Builder, PartitionedCache)} 连接模拟服务器，
+ * 测量翻页、下拉刷新和多个 tab 同时加载的 p50/p99 耗时、每页在调用线程上分配的内存和发出的请求数。
+ * 结果打印到标准输出并写入 build/benchmark/api-benchmark.json，请求数作为回归检查。
+ * <p/>
+ * 参数通过系统属性设置，例如 ./gradlew testDebugUnitTest -Pgank.benchmark.latency=200：
+ * gank.benchmark.latency 响应延迟毫秒，gank.benchmark.bandwidth 带宽字节每秒，
+ * gank.benchmark.pages 每个分类的页数，gank.benchmark.rounds 同时加载的轮数
+ */
+public class GankCloudApiBenchmark {
+
+    private static final long LATENCY = Long.getLong("gank.benchmark.latency", 20);
+    private static final long BANDWIDTH = Long.getLong("gank.benchmark.bandwidth", 256 * 1024);
+    private static final int PAGES = Integer.getInteger("gank.benchmark.pages", 10);
+    private static final int ROUNDS = Integer.getInteger("gank.benchmark.rounds", 5);
+    private static final String OUTPUT = System.getProperty("gank.benchmark.output",
+            "build/benchmark/api-benchmark.json");
+
+    private static final int LIMIT = GankCloudApi.LOAD_LIMIT;
+    /**刷新时每次都到服务器验证，和缓存过期后的行为一致*/
+    private static final CachePolicy REVALIDATE = new CachePolicy(0, CachePolicy.PAGE.maxStaleSeconds);
+
+    private static MockWebServer sServer;
+    private static FixtureDispatcher sDispatcher;
+    private static final Map<String, Scenario> sScenarios = new LinkedHashMap<>();
+
+    @Rule
+    public TemporaryFolder mCacheDir = new TemporaryFolder();
+
+    /**
+     * 一个场景的测量结果
+     */
+    private static class Scenario {
+        final LatencyHistogram latency = new LatencyHistogram();
+        long allocatedBytes = -1;
+        int pages;
+        int items;
+        Map<String, Integer> requests;
+        int notModified;
+        /**{@link ApiMetrics#toJson()} 的内容*/
+        String metrics;
+
+        void addAllocated(long bytes) {
+            if (bytes < 0) return;
+            allocatedBytes = Math.max(0, allocatedBytes) + bytes;
+        }
+    }
+
+    @BeforeClass
+    public static void startServer() throws IOException {
+        sDispatcher = new FixtureDispatcher(LATENCY, BANDWIDTH, PAGES);
+        //每个请求一行的日志会淹没结果
+        java.util.logging.Logger.getLogger(MockWebServer.class.getName()).setLevel(Level.WARNING);
+        sServer = new MockWebServer();
+        sServer.setDispatcher(sDispatcher);
+        sServer.start();
+        //预热类加载和线程池，不计入结果
+        newApi(null).getCommonGoods("Android", LIMIT, GankCloudApi.LOAD_START).toBlocking().last();
+    }
+
+    @AfterClass
+    public static void report() throws IOException {
+        if (null == sServer) return;
+        sServer.shutdown();
+        StringBuilder builder = new StringBuilder();
+        builder.append("api benchmark: latency ").append(LATENCY).append("ms, bandwidth ")
+                .append(BANDWIDTH).append("B/s, ").append(PAGES).append(" pages of ").append(LIMIT);
+        for (Map.Entry<String, Scenario> entry : sScenarios.entrySet()) {
+            Scenario scenario = entry.getValue();
+            builder.append("\n").append(entry.getKey())
+                    .append(": p50 ").append(scenario.latency.getPercentile(50)).append("ms")
+                    .append(", p99 ").append(scenario.latency.getPercentile(99)).append("ms")
+                    .append(", ").append(allocatedPerPage(scenario)).append(" bytes/page")
+                    .append(", requests ").append(scenario.requests)
+                    .append(", 304 ").append(scenario.notModified);
+        }
+        System.out.println(builder);
+        writeJson(new File(OUTPUT));
+    }
+
+    @Before
+    public void resetCounters() {
+        sDispatcher.reset();
+        ApiMetrics.getIns().reset();
+    }
+
+    /***
+     * 连续翻页，每页边下载边解析
+     */
+    @Test
+    public void pagination() {
+        GankCloudApi api = newApi(newCache());
+        Scenario scenario = newScenario("pagination");
+        for (int page = GankCloudApi.LOAD_START; page < GankCloudApi.LOAD_START + PAGES; page++) {
+            loadPage(api, scenario, page);
+        }
+        finish(scenario);
+        assertEquals(PAGES * LIMIT, scenario.items);
+        assertEquals(PAGES, sDispatcher.getRequestCount("data/Android"));
+    }
+
+    /***
+     * 缓存过期后刷新：先显示缓存，再用 If-None-Match 验证，内容没有变化时不重新下载
+     */
+    @Test
+    public void refresh() {
+        PartitionedCache cache = newCache();
+        GankCloudApi warm = newApi(cache);
+        warm.setCachePolicy("data", REVALIDATE);
+        Scenario ignored = new Scenario();
+        for (int page = GankCloudApi.LOAD_START; page < GankCloudApi.LOAD_START + PAGES; page++) {
+            loadPage(warm, ignored, page);
+        }
+        sDispatcher.reset();
+
+        //新的实例没有合并请求的结果缓存，和重新打开页面一致
+        GankCloudApi api = newApi(cache);
+        api.setCachePolicy("data", REVALIDATE);
+        Scenario scenario = newScenario("refresh");
+        for (int page = GankCloudApi.LOAD_START; page < GankCloudApi.LOAD_START + PAGES; page++) {
+            loadPage(api, scenario, page);
+        }
+        finish(scenario);
+        assertEquals(PAGES * LIMIT, scenario.items);
+        assertEquals(PAGES, sDispatcher.getRequestCount("data/Android"));
+        assertEquals(PAGES, sDispatcher.getNotModifiedCount());
+    }
+
+    /***
+     * 首页的 Android、iOS、福利三个 tab 同时加载第一页，Android 重复订阅一次，应该合并为一个请求
+     */
+    @Test
+    public void concurrentTabs() {
+        Scenario scenario = newScenario("concurrent_tabs");
+        Scheduler scheduler = GankSchedulers.getIns().io(GankSchedulers.LANE_VISIBLE);
+        for (int round = 0; round < ROUNDS; round++) {
+            GankCloudApi api = newApi(null);
+            List<Observable<GoodsResult>> tabs = new ArrayList<>();
+            tabs.add(api.getCommonGoods("Android", LIMIT, GankCloudApi.LOAD_START).subscribeOn(scheduler));
+            tabs.add(api.getCommonGoods("Android", LIMIT, GankCloudApi.LOAD_START).subscribeOn(scheduler));
+            tabs.add(api.getCommonGoods("IOS", LIMIT, GankCloudApi.LOAD_START).subscribeOn(scheduler));
+            tabs.add(api.getBenefitsGoods(LIMIT, GankCloudApi.LOAD_START).subscribeOn(scheduler));
+            long begin = System.nanoTime();
+            for (GoodsResult result : Observable.merge(tabs).toBlocking().toIterable()) {
+                scenario.items += result.getResults().size();
+            }
+            scenario.latency.record((System.nanoTime() - begin) / 1000000);
+            scenario.pages += tabs.size();
+        }
+        finish(scenario);
+        assertEquals(scenario.pages * LIMIT, scenario.items);
+        assertEquals(ROUNDS, sDispatcher.getRequestCount("data/Android"));
+        assertEquals(ROUNDS, sDispatcher.getRequestCount("data/iOS"));
+        assertEquals(ROUNDS, sDispatcher.getRequestCount("data/福利"));
+    }
+
+    /***
+     * 每日数据：先取历史日期，再取最近一天
+     */
+    @Test
+    public void dayGoods() {
+        GankCloudApi api = newApi(newCache());
+        Scenario scenario = newScenario("day");
+        long begin = System.nanoTime();
+        DayHistoryResult history = api.getDayHistory().toBlocking().last();
+        String[] date = history.getResults().get(0).split("-");
+        DayGoodsResult day = api.getGoodsByDay(Integer.parseInt(date[0]), Integer.parseInt(date[1]),
+                Integer.parseInt(date[2])).toBlocking().last();
+        scenario.latency.record((System.nanoTime() - begin) / 1000000);
+        scenario.pages = 1;
+        scenario.items = day.getResults().getAndroidGoods().size();
+        finish(scenario);
+        assertEquals(1, sDispatcher.getRequestCount("day/history"));
+        assertEquals(1, sDispatcher.getRequestCount("day"));
+    }
+
+    private void loadPage(GankCloudApi api, Scenario scenario, int page) {
+        long allocated = allocatedBytes();
+        long begin = System.nanoTime();
+        for (GoodsResult chunk : api.getCommonGoods("Android", LIMIT, page).toBlocking().toIterable()) {
+            scenario.items += chunk.getResults().size();
+        }
+        scenario.latency.record((System.nanoTime() - begin) / 1000000);
+        if (allocated >= 0) scenario.addAllocated(allocatedBytes() - allocated);
+        scenario.pages++;
+    }
+
+    private static GankCloudApi newApi(PartitionedCache cache) {
+        return new GankCloudApi(sServer.url("/").toString(), new OkHttpClient.Builder(), cache);
+    }
+
+    private PartitionedCache newCache() {
+        try {
+            return new PartitionedCache(mCacheDir.newFolder(), "other", 1024 * 1024)
+                    .addPartition("goods", 4 * 1024 * 1024, "data")
+                    .addPartition("day", 1024 * 1024, "day");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Scenario newScenario(String name) {
+        Scenario scenario = new Scenario();
+        sScenarios.put(name, scenario);
+        return scenario;
+    }
+
+    private static void finish(Scenario scenario) {
+        scenario.requests = sDispatcher.getRequestCounts();
+        scenario.notModified = sDispatcher.getNotModifiedCount();
+        scenario.metrics = ApiMetrics.getIns().toJson();
+    }
+
+    /***
+     * 当前线程累计分配的字节数，虚拟机不支持时返回 -1
+     */
+    static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return -1;
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        if (!sunBean.isThreadAllocatedMemorySupported() || !sunBean.isThreadAllocatedMemoryEnabled()) return -1;
+        return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long allocatedPerPage(Scenario scenario) {
+        if (scenario.allocatedBytes < 0 || scenario.pages == 0) return -1;
+        return scenario.allocatedBytes / scenario.pages;
+    }
+
+    private static void writeJson(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (null != parent && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Can't create " + parent);
+        }
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        writer.setIndent("  ");
+        try {
+            writer.beginObject();
+            writer.name("latency_ms").value(LATENCY);
+            writer.name("bandwidth_bytes_per_second").value(BANDWIDTH);
+            writer.name("pages").value(PAGES);
+            writer.name("limit").value(LIMIT);
+            writer.name("scenarios").beginObject();
+            for (Map.Entry<String, Scenario> entry : sScenarios.entrySet()) {
+                Scenario scenario = entry.getValue();
+                writer.name(entry.getKey()).beginObject();
+                writer.name("p50_ms").value(scenario.latency.getPercentile(50));
+                writer.name("p99_ms").value(scenario.latency.getPercentile(99));
+                writer.name("mean_ms").value(scenario.latency.getMean());
+                writer.name("pages").value(scenario.pages);
+                writer.name("items").value(scenario.items);
+                writer.name("allocated_bytes_per_page").value(allocatedPerPage(scenario));
+                writer.name("not_modified").value(scenario.notModified);
+                writer.name("requests").beginObject();
+                if (null != scenario.requests) {
+                    for (Map.Entry<String, Integer> request : scenario.requests.entrySet()) {
+                        writer.name(request.getKey()).value(request.getValue());
+                    }
+                }
+                writer.endObject();
+                writer.name("metrics").jsonValue(scenario.metrics);
+                writer.endObject();
+            }
+            writer.endObject();
+            writer.endObject();
+        } finally {
+            writer.close();
+        }
+        System.out.println("api benchmark written to " + file.getAbsolutePath());
+    }
+}
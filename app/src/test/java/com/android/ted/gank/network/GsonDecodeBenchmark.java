@@ -0,0 +1,202 @@
+package com.android.ted.gank.network;
+
+import com.android.ted.gank.model.BaseResult;
+import com.android.ted.gank.model.DayGoodsResult;
+import com.android.ted.gank.model.DayHistoryResult;
+import com.android.ted.gank.model.GankTypeAdapterFactory;
+import com.android.ted.gank.model.GoodsResult;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * 解析录制数据的压测：比较反射的 new Gson() 和使用 {@link GankTypeAdapterFactory} 的
+ * {@link GankCloudApi#gson}。分别测量冷启动（新建 Gson 后第一次解析，包括创建 TypeAdapter）
+ * 和预热后每次解析的中位数耗时、每次解析分配的内存，两种方式解析的结果必须一致。
+ * 结果打印到标准输出并写入 build/benchmark/decode-benchmark.json。
+ * <p/>
+ * gank.benchmark.decodeIterations 预热后每个 fixture 的解析次数，gank.benchmark.coldRounds 冷启动的次数
+ */
+public class GsonDecodeBenchmark {
+
+    private static final int ITERATIONS = Integer.getInteger("gank.benchmark.decodeIterations", 2000);
+    private static final int COLD_ROUNDS = Integer.getInteger("gank.benchmark.coldRounds", 20);
+    private static final String OUTPUT = System.getProperty("gank.benchmark.decodeOutput",
+            "build/benchmark/decode-benchmark.json");
+
+    /**反射解析，和 GankCloudApi.gson 的配置相同，只是没有注册 TypeAdapterFactory*/
+    private static final GsonFactory REFLECTIVE = new GsonFactory() {
+        @Override
+        public Gson create() {
+            return new GsonBuilder().setDateFormat("yyyy-MM-dd HH:mm:ss").create();
+        }
+    };
+    private static final GsonFactory ADAPTER = new GsonFactory() {
+        @Override
+        public Gson create() {
+            return new GsonBuilder().setDateFormat("yyyy-MM-dd HH:mm:ss")
+                    .registerTypeAdapterFactory(new GankTypeAdapterFactory())
+                    .create();
+        }
+    };
+
+    private static final Map<String, Result> sResults = new LinkedHashMap<>();
+
+    private interface GsonFactory {
+        Gson create();
+    }
+
+    /**
+     * 一个 fixture 一种解析方式的结果
+     */
+    private static class Result {
+        long coldNanos;
+        long warmNanos;
+        long allocatedBytes = -1;
+    }
+
+    @Test
+    public void androidPage() throws IOException {
+        compare("data/Android", GoodsResult.class);
+    }
+
+    @Test
+    public void iosPage() throws IOException {
+        compare("data/iOS", GoodsResult.class);
+    }
+
+    @Test
+    public void benefitPage() throws IOException {
+        compare("data/benefit", GoodsResult.class);
+    }
+
+    @Test
+    public void dayGoods() throws IOException {
+        compare("day/2016-05-11", DayGoodsResult.class);
+    }
+
+    @Test
+    public void dayHistory() throws IOException {
+        compare("day/history", DayHistoryResult.class);
+    }
+
+    @AfterClass
+    public static void report() throws IOException {
+        StringBuilder builder = new StringBuilder("decode benchmark: " + ITERATIONS + " iterations");
+        for (Map.Entry<String, Result> entry : sResults.entrySet()) {
+            Result result = entry.getValue();
+            builder.append("\n").append(entry.getKey())
+                    .append(": cold ").append(result.coldNanos / 1000).append("us")
+                    .append(", warm ").append(result.warmNanos).append("ns")
+                    .append(", ").append(result.allocatedBytes).append(" bytes");
+        }
+        System.out.println(builder);
+        writeJson(new File(OUTPUT));
+    }
+
+    private <T extends BaseResult> void compare(String fixture, Class<T> type) throws IOException {
+        String json = readFixture(fixture);
+        T reflective = REFLECTIVE.create().fromJson(json, type);
+        T adapted = GankCloudApi.gson.fromJson(json, type);
+        assertNotNull(adapted);
+        //用同一个反射 Gson 序列化后比较，两种方式解析出的对象必须相同
+        Gson serializer = REFLECTIVE.create();
+        assertEquals(serializer.toJson(reflective), serializer.toJson(adapted));
+
+        sResults.put(fixture + " reflective", measure(REFLECTIVE, json, type));
+        sResults.put(fixture + " adapter", measure(ADAPTER, json, type));
+    }
+
+    private static <T> Result measure(GsonFactory factory, String json, Class<T> type) {
+        Result result = new Result();
+        long[] samples = new long[COLD_ROUNDS];
+        for (int i = 0; i < COLD_ROUNDS; i++) {
+            long begin = System.nanoTime();
+            factory.create().fromJson(json, type);
+            samples[i] = System.nanoTime() - begin;
+        }
+        result.coldNanos = median(samples);
+
+        Gson gson = factory.create();
+        for (int i = 0; i < ITERATIONS; i++) {
+            gson.fromJson(json, type);
+        }
+        samples = new long[ITERATIONS];
+        long allocated = GankCloudApiBenchmark.allocatedBytes();
+        for (int i = 0; i < ITERATIONS; i++) {
+            long begin = System.nanoTime();
+            gson.fromJson(json, type);
+            samples[i] = System.nanoTime() - begin;
+        }
+        if (allocated >= 0) {
+            result.allocatedBytes = (GankCloudApiBenchmark.allocatedBytes() - allocated) / ITERATIONS;
+        }
+        result.warmNanos = median(samples);
+        return result;
+    }
+
+    private static long median(long[] samples) {
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static String readFixture(String name) throws IOException {
+        InputStream in = GsonDecodeBenchmark.class.getClassLoader()
+                .getResourceAsStream("fixtures/" + name + ".json");
+        if (null == in) throw new IOException("No fixture " + name);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeJson(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (null != parent && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Can't create " + parent);
+        }
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        writer.setIndent("  ");
+        try {
+            writer.beginObject();
+            writer.name("iterations").value(ITERATIONS);
+            writer.name("results").beginObject();
+            for (Map.Entry<String, Result> entry : sResults.entrySet()) {
+                Result result = entry.getValue();
+                writer.name(entry.getKey()).beginObject();
+                writer.name("cold_us").value(result.coldNanos / 1000);
+                writer.name("warm_ns").value(result.warmNanos);
+                writer.name("allocated_bytes").value(result.allocatedBytes);
+                writer.endObject();
+            }
+            writer.endObject();
+            writer.endObject();
+        } finally {
+            writer.close();
+        }
+    }
+}
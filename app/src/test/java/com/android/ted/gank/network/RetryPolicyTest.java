@@ -0,0 +1,119 @@
+package com.android.ted.gank.network;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import retrofit2.Response;
+import retrofit2.adapter.rxjava.HttpException;
+import rx.Observable;
+import rx.functions.Action0;
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 重试条件和次数，等待时间由 TestScheduler 推进
+ */
+public class RetryPolicyTest {
+
+    private static final int MAX_RETRIES = 3;
+
+    private final TestScheduler mScheduler = new TestScheduler();
+    private final RetryPolicy mPolicy = new RetryPolicy(MAX_RETRIES, 100, 1000);
+
+    private static HttpException httpError(int code) {
+        return new HttpException(Response.error(code,
+                ResponseBody.create(MediaType.parse("application/json"), "{}")));
+    }
+
+    /***
+     * 每次订阅都失败的请求，返回订阅次数
+     */
+    private AtomicInteger subscribeFailing(Throwable error, CircuitBreaker breaker,
+                                           TestSubscriber<Object> subscriber) {
+        final AtomicInteger attempts = new AtomicInteger();
+        Observable.error(error)
+                .doOnSubscribe(new Action0() {
+                    @Override
+                    public void call() {
+                        attempts.incrementAndGet();
+                    }
+                })
+                .retryWhen(mPolicy.retryWhen(breaker, mScheduler))
+                .subscribe(subscriber);
+        mScheduler.advanceTimeBy(1, TimeUnit.MINUTES);
+        return attempts;
+    }
+
+    @Test
+    public void retriesNetworkErrorsAndServerErrors() {
+        assertTrue(RetryPolicy.isRetryable(new SocketTimeoutException()));
+        assertTrue(RetryPolicy.isRetryable(httpError(500)));
+        assertTrue(RetryPolicy.isRetryable(httpError(503)));
+        assertTrue(RetryPolicy.isRetryable(httpError(429)));
+    }
+
+    @Test
+    public void doesNotRetryClientErrors() {
+        assertFalse(RetryPolicy.isRetryable(httpError(400)));
+        assertFalse(RetryPolicy.isRetryable(httpError(404)));
+        assertFalse(RetryPolicy.isRetryable(new CircuitBreaker.OpenException("data/Android")));
+        assertFalse(RetryPolicy.isRetryable(new IllegalStateException()));
+    }
+
+    @Test
+    public void retriesUpToMaxThenFails() {
+        TestSubscriber<Object> subscriber = new TestSubscriber<>();
+        IOException error = new IOException("reset");
+        AtomicInteger attempts = subscribeFailing(error, null, subscriber);
+        assertEquals(MAX_RETRIES + 1, attempts.get());
+        subscriber.assertError(error);
+    }
+
+    @Test
+    public void clientErrorFailsWithoutRetry() {
+        TestSubscriber<Object> subscriber = new TestSubscriber<>();
+        HttpException error = httpError(404);
+        AtomicInteger attempts = subscribeFailing(error, null, subscriber);
+        assertEquals(1, attempts.get());
+        subscriber.assertError(error);
+    }
+
+    @Test
+    public void openExceptionFailsWithoutRetry() {
+        TestSubscriber<Object> subscriber = new TestSubscriber<>();
+        CircuitBreaker.OpenException error = new CircuitBreaker.OpenException("data/Android");
+        AtomicInteger attempts = subscribeFailing(error, null, subscriber);
+        assertEquals(1, attempts.get());
+        subscriber.assertError(error);
+    }
+
+    @Test
+    public void stopsRetryingOnceBreakerOpens() {
+        CircuitBreaker breaker = new CircuitBreaker("data/Android", 1, 60 * 1000);
+        breaker.onFailure();
+        TestSubscriber<Object> subscriber = new TestSubscriber<>();
+        AtomicInteger attempts = subscribeFailing(new IOException("reset"), breaker, subscriber);
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void delayStaysUnderCeiling() {
+        for (int attempt = 0; attempt < 20; attempt++) {
+            long ceiling = Math.min(1000, 100L << attempt);
+            for (int i = 0; i < 50; i++) {
+                long delay = mPolicy.delayFor(attempt);
+                assertTrue(delay >= 0 && delay < ceiling);
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.android.ted.gank.service;
+
+import android.graphics.Point;
+
+import com.android.ted.gank.utils.ImageSizeSniffer;
+import com.android.ted.gank.utils.NetworkUtils;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 图片尺寸探测的压测：模拟服务器对每张图片等待 LATENCY 毫秒后返回 PNG 文件头，
+ * 分别用单线程和 {@link ImageProbeEngine#concurrencyFor} 决定的并发数探测同一批图片，
+ * 比较总耗时，并检查服务器同时处理的请求数不超过并发数。
+ * 探测方式和 {@link ImageImproveService#loadImageForSize} 相同：带 Range 头请求，只读文件头。
+ * <p/>
+ * gank.benchmark.probeLatency 每个响应的延迟毫秒，gank.benchmark.probeImages 图片数
+ */
+public class ImageProbeEngineBenchmark {
+
+    private static final long LATENCY = Long.getLong("gank.benchmark.probeLatency", 100);
+    private static final int IMAGES = Integer.getInteger("gank.benchmark.probeImages", 24);
+
+    private static MockWebServer sServer;
+    private static OkHttpClient sClient;
+    private static final AtomicInteger sInFlight = new AtomicInteger();
+    private static final AtomicInteger sMaxInFlight = new AtomicInteger();
+    private static final StringBuilder sReport = new StringBuilder("probe benchmark: "
+            + IMAGES + " images, " + LATENCY + "ms latency");
+
+    private final ImageProbeEngine.Prober mProber = new ImageProbeEngine.Prober() {
+        @Override
+        public void probe(String url, Point measured) throws IOException {
+            Request request = new Request.Builder()
+                    .url(url)
+                    .header("Range", "bytes=0-" + (ImageSizeSniffer.DEFAULT_SNIFF_LIMIT - 1))
+                    .build();
+            Response response = sClient.newCall(request).execute();
+            int[] size;
+            try {
+                if (!response.isSuccessful()) {
+                    throw new IOException("Unexpected code " + response.code() + " for " + url);
+                }
+                size = ImageSizeSniffer.sniffSize(response.body().byteStream());
+            } finally {
+                response.body().close();
+            }
+            if (null == size) throw new IOException("Unknown image header " + url);
+            measured.x = size[0];
+            measured.y = size[1];
+        }
+    };
+
+    @BeforeClass
+    public static void startServer() throws IOException {
+        java.util.logging.Logger.getLogger(MockWebServer.class.getName()).setLevel(Level.WARNING);
+        sServer = new MockWebServer();
+        sServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                int inFlight = sInFlight.incrementAndGet();
+                try {
+                    while (true) {
+                        int max = sMaxInFlight.get();
+                        if (inFlight <= max || sMaxInFlight.compareAndSet(max, inFlight)) break;
+                    }
+                    Thread.sleep(LATENCY);
+                    int index = Integer.parseInt(HttpUrl.parse("http://localhost" + request.getPath())
+                            .pathSegments().get(1));
+                    return new MockResponse().setResponseCode(206)
+                            .setHeader("Content-Type", "image/png")
+                            .setBody(new Buffer().write(pngHeader(widthOf(index), heightOf(index))));
+                } finally {
+                    sInFlight.decrementAndGet();
+                }
+            }
+        });
+        sServer.start();
+        sClient = new OkHttpClient.Builder().build();
+    }
+
+    @AfterClass
+    public static void stopServer() throws IOException {
+        System.out.println(sReport);
+        sServer.shutdown();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        //先建立连接，避免第一次探测的握手时间计入结果
+        mProber.probe(sServer.url("/images/0").toString(), new Point());
+        sMaxInFlight.set(0);
+    }
+
+    @Test
+    public void wifiIsFasterThanSerial() {
+        compare(NetworkUtils.NETWORK_TYPE_WIFI);
+    }
+
+    @Test
+    public void mobileIsFasterThanSerial() {
+        compare(NetworkUtils.NETWORK_TYPE_3G);
+    }
+
+    private void compare(String networkType) {
+        int concurrency = ImageProbeEngine.concurrencyFor(networkType);
+        long serial = probe(1);
+        assertEquals(1, sMaxInFlight.get());
+
+        sMaxInFlight.set(0);
+        long parallel = probe(concurrency);
+        assertTrue("max in flight " + sMaxInFlight.get(), sMaxInFlight.get() <= concurrency);
+        sReport.append("\n").append(networkType).append(": serial ").append(serial)
+                .append("ms, ").append(concurrency).append(" threads ").append(parallel).append("ms");
+        //理想情况快 concurrency 倍，至少要达到一半，留出线程调度和建立连接的时间
+        assertTrue(networkType + " serial " + serial + "ms, parallel " + parallel + "ms",
+                parallel * concurrency < serial * 2);
+    }
+
+    /***
+     * 探测全部图片并检查尺寸
+     * @return 耗时，毫秒
+     */
+    private long probe(int concurrency) {
+        List<ImageProbeEngine.ProbeTask> tasks = new ArrayList<>();
+        for (int i = 0; i < IMAGES; i++) {
+            tasks.add(new ImageProbeEngine.ProbeTask(String.valueOf(i),
+                    sServer.url("/images/" + i).toString()));
+        }
+        final Map<String, ImageProbeEngine.ProbeResult> results = new ConcurrentHashMap<>();
+        long start = System.nanoTime();
+        int success = new ImageProbeEngine(mProber, concurrency).probeAll(tasks,
+                new ImageProbeEngine.OnProbeListener() {
+                    @Override
+                    public void onProbed(ImageProbeEngine.ProbeResult result) {
+                        results.put(result.task.id, result);
+                    }
+                });
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        assertEquals(IMAGES, success);
+        for (int i = 0; i < IMAGES; i++) {
+            ImageProbeEngine.ProbeResult result = results.get(String.valueOf(i));
+            assertEquals(widthOf(i), result.width);
+            assertEquals(heightOf(i), result.height);
+        }
+        return elapsed;
+    }
+
+    private static int widthOf(int index) {
+        return 400 + index;
+    }
+
+    private static int heightOf(int index) {
+        return 600 + index * 3;
+    }
+
+    /***
+     * PNG 签名加 IHDR，足够 {@link ImageSizeSniffer} 识别尺寸
+     */
+    private static byte[] pngHeader(int width, int height) {
+        Buffer buffer = new Buffer()
+                .write(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'})
+                .writeInt(13)
+                .writeUtf8("IHDR")
+                .writeInt(width)
+                .writeInt(height)
+                .write(new byte[]{8, 6, 0, 0, 0});
+        return buffer.readByteArray();
+    }
+}
@@ -0,0 +1,238 @@
+package com.android.ted.gank.utils;
+
+import com.google.gson.stream.JsonWriter;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link PerceptualHash#dHash} 的压测和去重校验，使用 fixtures/images 下的图片：
+ * sampleN.jpg 是原图，_small 是缩小到 1/3 的图，_q30 是 30% 质量重新压缩的图，_bright 是提亮后的 PNG。
+ * 和 ImageFeatureExtractor 一样先按 inSampleSize 缩小，再缩放到 32 像素宽的取样图计算哈希，
+ * 同一张原图的变体必须判断为重复，不同原图之间不能判断为重复。
+ * 分别测量取样图和原图尺寸下每次计算的中位数和 p99 耗时，打印到标准输出并写入 build/benchmark/dhash-benchmark.json。
+ * <p/>
+ * gank.benchmark.hashIterations 每张图的计算次数
+ */
+public class PerceptualHashBenchmark {
+
+    private static final int ITERATIONS = Integer.getInteger("gank.benchmark.hashIterations", 2000);
+    private static final String OUTPUT = System.getProperty("gank.benchmark.hashOutput",
+            "build/benchmark/dhash-benchmark.json");
+
+    /**和 ImageFeatureExtractor 的取样宽度相同*/
+    private static final int SAMPLE_WIDTH = 32;
+    private static final int SAMPLE_COUNT = 4;
+    private static final String[] VARIANTS = {"_small.jpg", "_q30.jpg", "_bright.png"};
+
+    private static final Map<String, Pixels> sSamples = new LinkedHashMap<>();
+    private static final Map<String, Pixels> sOriginals = new LinkedHashMap<>();
+    private static final Map<String, Result> sResults = new LinkedHashMap<>();
+
+    private static class Pixels {
+        int[] pixels;
+        int width;
+        int height;
+
+        long hash() {
+            return PerceptualHash.dHash(pixels, width, height);
+        }
+    }
+
+    private static class Result {
+        long medianNanos;
+        long p99Nanos;
+    }
+
+    @BeforeClass
+    public static void loadCorpus() throws IOException {
+        for (int i = 1; i <= SAMPLE_COUNT; i++) {
+            load("sample" + i + ".jpg");
+            for (String variant : VARIANTS) {
+                load("sample" + i + variant);
+            }
+        }
+    }
+
+    @Test
+    public void variantsAreDuplicates() {
+        for (int i = 1; i <= SAMPLE_COUNT; i++) {
+            long original = sSamples.get("sample" + i + ".jpg").hash();
+            for (String variant : VARIANTS) {
+                String name = "sample" + i + variant;
+                int distance = PerceptualHash.hammingDistance(original, sSamples.get(name).hash());
+                assertTrue(name + " distance " + distance, distance <= PerceptualHash.DUPLICATE_DISTANCE);
+            }
+        }
+    }
+
+    @Test
+    public void distinctImagesAreNotDuplicates() {
+        for (int i = 1; i <= SAMPLE_COUNT; i++) {
+            for (int j = i + 1; j <= SAMPLE_COUNT; j++) {
+                long hash1 = sSamples.get("sample" + i + ".jpg").hash();
+                long hash2 = sSamples.get("sample" + j + ".jpg").hash();
+                assertFalse("sample" + i + " vs sample" + j + " distance "
+                        + PerceptualHash.hammingDistance(hash1, hash2), PerceptualHash.isDuplicate(hash1, hash2));
+            }
+        }
+    }
+
+    @Test
+    public void hashCost() {
+        for (Map.Entry<String, Pixels> entry : sSamples.entrySet()) {
+            sResults.put(entry.getKey() + " sample", measure(entry.getValue()));
+        }
+        for (Map.Entry<String, Pixels> entry : sOriginals.entrySet()) {
+            sResults.put(entry.getKey() + " full", measure(entry.getValue()));
+        }
+    }
+
+    @AfterClass
+    public static void report() throws IOException {
+        if (sResults.isEmpty()) return;
+        StringBuilder builder = new StringBuilder("dHash benchmark: " + ITERATIONS + " iterations");
+        for (Map.Entry<String, Result> entry : sResults.entrySet()) {
+            builder.append("\n").append(entry.getKey())
+                    .append(": median ").append(entry.getValue().medianNanos).append("ns")
+                    .append(", p99 ").append(entry.getValue().p99Nanos).append("ns");
+        }
+        System.out.println(builder);
+        writeJson(new File(OUTPUT));
+    }
+
+    private static Result measure(Pixels pixels) {
+        for (int i = 0; i < ITERATIONS; i++) {
+            pixels.hash();
+        }
+        long[] samples = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            long begin = System.nanoTime();
+            pixels.hash();
+            samples[i] = System.nanoTime() - begin;
+        }
+        Arrays.sort(samples);
+        Result result = new Result();
+        result.medianNanos = samples[samples.length / 2];
+        result.p99Nanos = samples[Math.min(samples.length - 1, samples.length * 99 / 100)];
+        return result;
+    }
+
+    private static void load(String name) throws IOException {
+        InputStream in = PerceptualHashBenchmark.class.getClassLoader()
+                .getResourceAsStream("fixtures/images/" + name);
+        if (null == in) throw new IOException("No fixture " + name);
+        BufferedImage image;
+        try {
+            image = ImageIO.read(in);
+        } finally {
+            in.close();
+        }
+        if (null == image) throw new IOException("Failed to decode " + name);
+        //和 ImageFeatureExtractor 相同：解码时按 inSampleSize 缩小，再每次最多缩小一半缩放到取样图
+        int sampleSize = sampleSizeFor(image.getWidth());
+        BufferedImage decoded = sampleSize == 1 ? image : subsample(image, sampleSize);
+        int sampleHeight = Math.max(1, Math.min(SAMPLE_WIDTH * 2,
+                SAMPLE_WIDTH * image.getHeight() / image.getWidth()));
+        sSamples.put(name, pixelsOf(scale(decoded, SAMPLE_WIDTH, sampleHeight)));
+        if (name.indexOf('_') < 0) {
+            sOriginals.put(name, pixelsOf(image));
+        }
+    }
+
+    private static int sampleSizeFor(int width) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= SAMPLE_WIDTH * 2) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /***
+     * 模拟 BitmapFactory 的 inSampleSize，按面积平均缩小
+     */
+    private static BufferedImage subsample(BufferedImage image, int sampleSize) {
+        int width = Math.max(1, image.getWidth() / sampleSize);
+        int height = Math.max(1, image.getHeight() / sampleSize);
+        BufferedImage subsampled = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = subsampled.createGraphics();
+        try {
+            graphics.drawImage(image.getScaledInstance(width, height, Image.SCALE_AREA_AVERAGING), 0, 0, null);
+        } finally {
+            graphics.dispose();
+        }
+        return subsampled;
+    }
+
+    private static BufferedImage scale(BufferedImage image, int width, int height) {
+        while (image.getWidth() >= width * 2 && image.getHeight() >= height * 2) {
+            image = scaleOnce(image, image.getWidth() / 2, image.getHeight() / 2);
+        }
+        return scaleOnce(image, width, height);
+    }
+
+    private static BufferedImage scaleOnce(BufferedImage image, int width, int height) {
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    private static Pixels pixelsOf(BufferedImage image) {
+        Pixels pixels = new Pixels();
+        pixels.width = image.getWidth();
+        pixels.height = image.getHeight();
+        pixels.pixels = image.getRGB(0, 0, pixels.width, pixels.height, null, 0, pixels.width);
+        return pixels;
+    }
+
+    private static void writeJson(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (null != parent && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Can't create " + parent);
+        }
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        writer.setIndent("  ");
+        try {
+            writer.beginObject();
+            writer.name("iterations").value(ITERATIONS);
+            writer.name("duplicate_distance").value(PerceptualHash.DUPLICATE_DISTANCE);
+            writer.name("results").beginObject();
+            for (Map.Entry<String, Result> entry : sResults.entrySet()) {
+                writer.name(entry.getKey()).beginObject();
+                writer.name("median_ns").value(entry.getValue().medianNanos);
+                writer.name("p99_ns").value(entry.getValue().p99Nanos);
+                writer.endObject();
+            }
+            writer.endObject();
+            writer.endObject();
+        } finally {
+            writer.close();
+        }
+    }
+}